@@ -6,14 +6,20 @@ uniform sampler2D tex;
 
 layout (location = 0) in vec3 fragPos;
 layout (location = 1) in vec3 normal;
-layout (location = 2) centroid in vec2 tex_coords;
+layout (location = 2) centroid in vec4 tex_coords;
+layout (location = 3) flat in vec2 light;
 
 out vec4 fragColor;
 
+const float tileSize = 16;
+
 const float ambientStrength = 2;
 const float diffuseStrength = 3;
 const float specularStrength = 3;
 
+// Each level of light below full is this much darker than the one above
+const float lightFalloff = 0.8;
+
 void main() {
 //    float unit = 1 / (ambientStrength + diffuseStrength + specularStrength);
     float unit = 1 / (ambientStrength + diffuseStrength);
@@ -30,8 +36,15 @@ void main() {
 //    vec3 reflectDir = reflect(-lightDir, normal);
 //    float specular = specularStrength * unit * pow(max(dot(viewDir, reflectDir), 0.0), 16);
 
-    vec4 t = texture(tex, tex_coords);
+    // The brighter of sky and block light
+    float brightness = pow(lightFalloff, 15.0 - max(light.x, light.y));
+
+    // Wrap the position within the face back into its atlas tile, so merged faces repeat the texture.
+    // The gradients come from the unwrapped position so mip selection doesn't jump at block edges.
+    vec2 scale = tileSize / vec2(textureSize(tex, 0));
+    vec2 uv = (tex_coords.xy + fract(tex_coords.zw)) * scale;
+    vec4 t = textureGrad(tex, uv, dFdx(tex_coords.zw * scale), dFdy(tex_coords.zw * scale));
 
 //    fragColor = vec4(t.rgb * (ambient + diffuse + specular), t.a);
-    fragColor = vec4(t.rgb * (ambient + diffuse), t.a);
+    fragColor = vec4(t.rgb * (ambient + diffuse) * brightness, t.a);
 }
\ No newline at end of file
@@ -4,17 +4,39 @@ uniform mat4 view;
 uniform mat4 transform;
 uniform mat4 camera;
 
-layout (location = 0) in vec3 position;
-layout (location = 1) in vec3 norms;
-layout (location = 2) in vec2 textures;
+// Packed as described in VertexFormat.java
+layout (location = 0) in uvec2 vertex;
+// The position vertices are relative to, one per sub-chunk, and in W how many blocks wide
+// each unit of X and Z is (1 except for distant terrain)
+layout (location = 1) in vec4 origin;
 
 layout (location = 0) out vec3 fragPos;
 layout (location = 1) out vec3 normal;
-layout (location = 2) centroid out vec2 tex_coords;
+layout (location = 2) centroid out vec4 tex_coords;
+// Sky light and block light in front of the face, from 0 to 15
+layout (location = 3) flat out vec2 light;
+
+const vec3 normals[6] = vec3[](
+	vec3( 0.0,  0.0, -1.0), // +Z
+	vec3( 0.0,  0.0,  1.0), // -Z
+	vec3(-1.0,  0.0,  0.0), // +X
+	vec3( 1.0,  0.0,  0.0), // -X
+	vec3( 0.0, -1.0,  0.0), // +Y
+	vec3( 0.0,  1.0,  0.0)  // -Y
+);
 
 void main() {
+	uint geometry = vertex.x;
+	uint atlas = vertex.y;
+
+	vec3 position = origin.xyz + vec3(geometry & 31u, (geometry >> 5) & 31u, (geometry >> 10) & 31u) * vec3(origin.w, 1.0, origin.w);
+	uint face = (geometry >> 15) & 7u;
+	vec2 local = vec2((geometry >> 18) & 31u, (geometry >> 23) & 31u);
+	vec2 tile = vec2(atlas & 255u, (atlas >> 8) & 255u);
+
 	fragPos = position;
-	normal = norms;
-	tex_coords = textures;
+	normal = normals[face];
+	tex_coords = vec4(tile, local);
+	light = vec2((atlas >> 20) & 15u, (atlas >> 16) & 15u);
 	gl_Position = view * camera * transform * vec4(position, 1.0);
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+#version 410
+
+layout (location = 0) in vec4 tint;
+
+out vec4 fragColor;
+
+void main() {
+	fragColor = tint;
+}
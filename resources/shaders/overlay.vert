@@ -0,0 +1,18 @@
+#version 410
+
+// The size of the framebuffer, and how many pixels wide each unit of text is
+uniform vec2 screen;
+uniform float scale;
+
+// Laid out by stb_easy_font, in units from the top left
+layout (location = 0) in vec2 vertex;
+layout (location = 1) in vec4 colour;
+
+layout (location = 0) out vec4 tint;
+
+void main() {
+	vec2 position = vertex * scale / screen * 2.0 - 1.0;
+
+	tint = colour;
+	gl_Position = vec4(position.x, -position.y, 0.0, 1.0);
+}
@@ -0,0 +1,62 @@
+package com.screendead.minedaft.graphics;
+
+import com.screendead.minedaft.world.BlockRegistry;
+import com.screendead.minedaft.world.BlockType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of building block faces and joining them into one mesh, the old way through
+ * {@link MeshComponent}s and the new way through a {@link MeshBuilder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshComponentBenchmark {
+    // The number of single-block meshes joined together
+    @Param({ "16", "256" })
+    public int blocks;
+
+    private final boolean[] faces = { true, true, true, true, true, true };
+    private MeshComponent[] components;
+
+    @Setup
+    public void setup() {
+        components = new MeshComponent[blocks];
+        for (int i = 0; i < blocks; i++) components[i] = BlockType.STONE.getMeshComponent(faces, i & 15, i >> 4, 0);
+    }
+
+    @Benchmark
+    public MeshComponent getMeshComponent() {
+        return BlockType.STONE.getMeshComponent(faces, 1, 2, 3);
+    }
+
+    @Benchmark
+    public MeshComponent combine() {
+        MeshComponent m = new MeshComponent();
+        for (MeshComponent c : components) m.combine(c);
+        return m;
+    }
+
+    @Benchmark
+    public MeshComponent append() {
+        MeshBuilder b = MeshBuilder.get();
+        for (MeshComponent c : components) b.append(c);
+        return b.build();
+    }
+
+    @Benchmark
+    public MeshComponent addFace() {
+        MeshBuilder b = MeshBuilder.get();
+        int stone = BlockType.STONE.ordinal();
+
+        for (int i = 0; i < blocks; i++) {
+            for (int face = 0; face < 6; face++) BlockRegistry.addFace(b, stone, face, i & 15, i >> 4, 0, 1, 1, 1);
+        }
+        return b.build();
+    }
+}
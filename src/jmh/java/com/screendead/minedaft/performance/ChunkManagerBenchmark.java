@@ -0,0 +1,131 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.ChunkStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * The chunk pipeline as the simulation and GL threads drive it, without ever uploading or
+ * drawing: how long it takes to fill the render distance from nothing, and what a tick costs
+ * once it has. Both threads' work is done on the benchmark thread.
+ */
+@Fork(1)
+public class ChunkManagerBenchmark {
+    // How long the benchmark thread waits between ticks while filling, leaving the pool to work
+    private static final long TICK_NANOS = 1_000_000;
+
+    /**
+     * A new, empty chunk manager for every iteration
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        @Param({ "4", "8", "16" })
+        public int renderDistance;
+
+        // Whether chunks are loaded from a saved world rather than generated
+        @Param({ "false", "true" })
+        public boolean saved;
+
+        Path world;
+        ChunkManager manager;
+
+        @Setup(Level.Trial)
+        public void save() throws IOException {
+            if (!saved) return;
+
+            world = Files.createTempDirectory("minedaft-bench");
+            ChunkManager m = new ChunkManager(renderDistance, new ChunkStorage(world));
+            settle(m);
+            m.cleanup();
+        }
+
+        @Setup(Level.Iteration)
+        public void setup() throws IOException {
+            if (!saved) world = Files.createTempDirectory("minedaft-bench");
+            manager = new ChunkManager(renderDistance, new ChunkStorage(world));
+        }
+
+        @TearDown(Level.Iteration)
+        public void teardown() throws IOException {
+            manager.cleanup();
+            if (!saved) deleteDirectory(world);
+        }
+
+        @TearDown(Level.Trial)
+        public void discard() throws IOException {
+            if (saved) deleteDirectory(world);
+        }
+    }
+
+    /**
+     * A chunk manager with its render distance already filled
+     */
+    @State(Scope.Thread)
+    public static class Filled {
+        @Param({ "4", "8", "16" })
+        public int renderDistance;
+
+        Path world;
+        ChunkManager manager;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            world = Files.createTempDirectory("minedaft-bench");
+            manager = new ChunkManager(renderDistance, new ChunkStorage(world));
+            settle(manager);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            manager.cleanup();
+            deleteDirectory(world);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public ChunkManager fill(Empty state) {
+        settle(state.manager);
+        return state.manager;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public ChunkManager tick(Filled state) {
+        state.manager.update(0, 0);
+        state.manager.poll(0, 0);
+        state.manager.updateDistant(0, 0, true);
+        return state.manager;
+    }
+
+    /**
+     * Tick a chunk manager with the camera at the origin until everything in range is loaded and meshed
+     */
+    private static void settle(ChunkManager manager) {
+        do {
+            manager.update(0, 0);
+            manager.poll(0, 0);
+            manager.updateDistant(0, 0, true);
+            LockSupport.parkNanos(TICK_NANOS);
+        } while (!manager.isSettled());
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.BlockType;
+import com.screendead.minedaft.world.Chunk;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of lighting a generated chunk on its own, as every loaded chunk is, and of relighting
+ * after an edit: a block placed in the open air and taken away again, which shades and then
+ * relights the column beneath it, and the top block of the ground dug out and put back, which
+ * lets light into and then out of the ground.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightEngineBenchmark {
+    // The radius of the square of chunks loaded around the edits, in chunks
+    private static final int RADIUS = 2;
+
+    private ChunkMap<Chunk> chunks;
+    private LightEngine engine;
+    private Chunk centre;
+    private int surface, ground;
+
+    @Setup
+    public void setup() {
+        chunks = new ChunkMap<>();
+        engine = new LightEngine(chunks, null);
+
+        for (int cx = -RADIUS; cx <= RADIUS; cx++) {
+            for (int cz = -RADIUS; cz <= RADIUS; cz++) {
+                Chunk c = Chunk.generate(cx, cz);
+                LightEngine.light(c);
+                chunks.put(cx, cz, c);
+                engine.add(c);
+            }
+        }
+
+        centre = chunks.get(0, 0);
+        surface = 255;
+        while (centre.getBlock(8, surface, 8) == BlockType.AIR.ordinal()) surface--;
+        ground = centre.getBlock(8, surface, 8);
+    }
+
+    @Benchmark
+    public Chunk lightChunk() {
+        LightEngine.light(centre);
+        return centre;
+    }
+
+    @Benchmark
+    public void placeAndRemove() {
+        int y = Math.min(255, surface + 8);
+        edit(8, y, 8, BlockType.STONE.ordinal());
+        edit(8, y, 8, BlockType.AIR.ordinal());
+    }
+
+    @Benchmark
+    public void digAndFill() {
+        edit(8, surface, 8, BlockType.AIR.ordinal());
+        edit(8, surface, 8, ground);
+    }
+
+    private void edit(int x, int y, int z, int id) {
+        centre.setBlock(x, y, z, id);
+        engine.update(x, y, z);
+    }
+}
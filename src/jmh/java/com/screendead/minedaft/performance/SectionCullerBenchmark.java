@@ -0,0 +1,89 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.Chunk;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of finding the visible sections of a generated world, from above the ground and
+ * from inside it: while turning, so every search starts again; while still, so the last list
+ * stands; and, to compare against, testing every section of every chunk against the frustum.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectionCullerBenchmark {
+    // The radius of the square of chunks loaded, in chunks
+    @Param({ "8", "16", "24" })
+    public int radius;
+
+    // The height of the camera, in blocks
+    @Param({ "160", "20" })
+    public int height;
+
+    private ChunkMap<Chunk> chunks;
+    private SectionCuller culler;
+    private final Matrix4f frustum = new Matrix4f();
+    private float yaw = 0;
+
+    @Setup
+    public void setup() {
+        chunks = new ChunkMap<>();
+        culler = new SectionCuller(chunks);
+
+        for (int cx = -radius; cx <= radius; cx++) {
+            for (int cz = -radius; cz <= radius; cz++) {
+                Chunk c = Chunk.generate(cx, cz);
+                for (int s = 0; s < 16; s++) {
+                    c.setConnectivity(s, c.computeConnectivity(s));
+                    c.setBounds(s, c.computeBounds(s));
+                }
+                chunks.put(cx, cz, c);
+                culler.add(c);
+            }
+        }
+
+        look(0);
+    }
+
+    // Looking a little down, turned about the vertical by the given angle from +X
+    private void look(float degrees) {
+        float angle = (float) Math.toRadians(degrees);
+        frustum.setPerspective((float) Math.toRadians(70), 16.0f / 9.0f, 0.1f, radius * 16)
+                .lookAt(8, height, 8, 8 + (float) Math.cos(angle), height - 0.3f, 8 + (float) Math.sin(angle), 0, 1, 0);
+    }
+
+    @Benchmark
+    public int cull() {
+        look(yaw = (yaw + 1) % 360);
+        culler.cull(8, height, 8, frustum);
+        return culler.getVisibleCount();
+    }
+
+    @Benchmark
+    public int still() {
+        culler.cull(8, height, 8, frustum);
+        return culler.getVisibleCount();
+    }
+
+    @Benchmark
+    public int everySection() {
+        look(yaw = (yaw + 1) % 360);
+
+        int visible = 0;
+        for (int i = 0; i < chunks.capacity(); i++) {
+            if (!chunks.occupied(i)) continue;
+
+            Chunk c = chunks.valueAt(i);
+            for (int s = 0; s < 16; s++) {
+                if (frustum.testAab(c.cx << 4, s << 4, c.cz << 4, (c.cx + 1) << 4, (s + 1) << 4, (c.cz + 1) << 4)) visible++;
+            }
+        }
+        return visible;
+    }
+}
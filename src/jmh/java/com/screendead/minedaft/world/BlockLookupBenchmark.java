@@ -0,0 +1,63 @@
+package com.screendead.minedaft.world;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the naive mesher's visibility loop over one generated chunk column, looking up
+ * whether each block is transparent in the registry's flat array, or through
+ * {@code BlockType.values()[id]} as meshing did before the registry, which copies the array of
+ * types on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockLookupBenchmark {
+    @Param({ "registry", "values" })
+    public String lookup;
+
+    // Face directions in the order +Z, -Z, +X, -X, +Y, -Y
+    private static final int[] DX = { 0, 0, 1, -1, 0, 0 };
+    private static final int[] DY = { 0, 0, 0, 0, 1, -1 };
+    private static final int[] DZ = { 1, -1, 0, 0, 0, 0 };
+
+    private ChunkNeighbourhood neighbours;
+    private boolean registry;
+
+    @Setup
+    public void setup() {
+        registry = lookup.equals("registry");
+        neighbours = ChunkNeighbourhood.of(Chunk.generate(0, 0),
+                Chunk.generate(1, 0), Chunk.generate(-1, 0), Chunk.generate(0, 1), Chunk.generate(0, -1));
+    }
+
+    private boolean transparent(int block) {
+        return registry ? BlockRegistry.isTransparent(block) : BlockType.values()[block].transparent;
+    }
+
+    @Benchmark
+    public int exposedFaces() {
+        Chunk c = neighbours.getCentre();
+
+        // The naive mesher's loop, counting the faces it would build
+        int faces = 0;
+        for (int k = 0; k < 256; k++) {
+            for (int i = 0; i < 16; i++) {
+                for (int j = 0; j < 16; j++) {
+                    int block = c.getBlock(i, k, j);
+                    if (transparent(block)) continue;
+
+                    for (int face = 0; face < 6; face++) {
+                        int n = neighbours.getBlock(i + DX[face], k + DY[face], j + DZ[face]);
+                        if (transparent(n)) faces++;
+                    }
+                }
+            }
+        }
+        return faces;
+    }
+}
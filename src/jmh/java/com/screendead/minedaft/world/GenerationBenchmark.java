@@ -0,0 +1,89 @@
+package com.screendead.minedaft.world;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of generating one chunk column with each terrain generator. Before timing LERP, how
+ * far its terrain strays from NOISE, which samples every block, is printed with the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationBenchmark {
+    // The radius of the square of chunks the generators are compared over, in chunks
+    private static final int COMPARE_RADIUS = 4;
+
+    @Param({ "NOISE", "LERP" })
+    public TerrainGenerator generator;
+
+    // Walk along a row of chunks, so the terrain differs between invocations
+    private int cx = 0;
+
+    @Setup
+    public void setup() {
+        if (generator != TerrainGenerator.NOISE) System.out.println(compare(TerrainGenerator.NOISE, generator, COMPARE_RADIUS));
+    }
+
+    @Benchmark
+    public Chunk generate() {
+        return Chunk.generate(cx++ & 63, 0, generator);
+    }
+
+    @Benchmark
+    public int getHeights() {
+        int[] heights = new int[18 * 18];
+        generator.getHeights((cx++ & 63) << 4, 0, 2, 18, heights);
+        return heights[0];
+    }
+
+    /**
+     * Generate the same square of chunks with two generators and count where they disagree
+     * @param reference The generator taken to be exact
+     * @param generator The generator to compare against it
+     * @param radius The radius of the square of chunks, in chunks
+     * @return A summary of the differing blocks and the error in the height of each column
+     */
+    static String compare(TerrainGenerator reference, TerrainGenerator generator, int radius) {
+        int[] a = new int[65536], b = new int[a.length];
+        long blocks = 0, differing = 0, columns = 0, heightError = 0;
+        int maxHeightError = 0;
+
+        for (int cx = -radius; cx < radius; cx++) {
+            for (int cz = -radius; cz < radius; cz++) {
+                reference.generate(cx, cz, a);
+                generator.generate(cx, cz, b);
+
+                for (int i = 0; i < a.length; i++) {
+                    if (a[i] != b[i]) differing++;
+                }
+                blocks += a.length;
+
+                for (int x = 0; x < 16; x++) {
+                    for (int z = 0; z < 16; z++) {
+                        int error = Math.abs(height(a, x, z) - height(b, x, z));
+                        heightError += error;
+                        maxHeightError = Math.max(maxHeightError, error);
+                        columns++;
+                    }
+                }
+            }
+        }
+
+        return String.format("%s against %s over %d chunks: %d of %d blocks differ (%.3f%%), "
+                        + "column heights off by %.3f blocks on average and %d at most",
+                generator, reference, 4 * radius * radius, differing, blocks, 100.0 * differing / blocks,
+                (double) heightError / columns, maxHeightError);
+    }
+
+    private static int height(int[] blocks, int x, int z) {
+        for (int y = 255; y > 0; y--) {
+            if (blocks[Chunk.flatten(x, z, y)] != BlockType.AIR.ordinal()) return y;
+        }
+        return 0;
+    }
+}
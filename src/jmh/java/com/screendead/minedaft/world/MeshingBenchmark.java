@@ -0,0 +1,52 @@
+package com.screendead.minedaft.world;
+
+import com.screendead.minedaft.graphics.MeshBuilder;
+import com.screendead.minedaft.graphics.MeshComponent;
+import com.screendead.minedaft.graphics.MeshData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of meshing one generated chunk column with each mesher, on the heap and off it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeshingBenchmark {
+    @Param({ "NAIVE", "GREEDY" })
+    public Mesher mesher;
+
+    private ChunkNeighbourhood neighbours;
+
+    @Setup
+    public void setup() {
+        neighbours = ChunkNeighbourhood.of(Chunk.generate(0, 0),
+                Chunk.generate(1, 0), Chunk.generate(-1, 0), Chunk.generate(0, 1), Chunk.generate(0, -1));
+    }
+
+    @Benchmark
+    public MeshComponent[] generateMeshComponent() {
+        return neighbours.getCentre().generateMeshComponent(neighbours, mesher);
+    }
+
+    @Benchmark
+    public int generateMeshData() {
+        // As Chunk.generateMeshData does, but with the mesher under test
+        int bytes = 0;
+        for (int s = 0; s < 16; s++) {
+            if (neighbours.isHidden(s)) continue;
+
+            MeshBuilder b = MeshBuilder.get();
+            mesher.mesh(neighbours, s, b);
+
+            MeshData d = b.buildData(0, s << 4, 0);
+            bytes += d.getBytes();
+            d.free();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package com.screendead.minedaft.world;
+
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_decompress_safe;
+
+/**
+ * The cost of loading one chunk from a region file already written and in the page cache:
+ * through the file's memory mapping, as chunks are loaded now, and copied into a buffer with a
+ * positioned channel read, as they were before. The compressed bytes are either only summed, to
+ * time the read alone, or decompressed, which is the only step that reads them, or the chunk is
+ * decoded in full, as a load does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionReadBenchmark {
+    // The chunks saved, a square from the corner of the region
+    private static final int WIDTH = 16;
+
+    @Param({ "read", "decompress", "decode" })
+    public String work;
+
+    private Path directory;
+    private RegionFile region;
+    private FileChannel channel;
+    private final long[] entries = new long[WIDTH * WIDTH];
+    private ByteBuffer copy = ByteBuffer.allocateDirect(64 << 10);
+    private final ByteBuffer raw = ByteBuffer.allocateDirect(1 << 20);
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("minedaft-bench");
+        Path path = directory.resolve("r.0.0.region");
+
+        try (RegionFile writer = new RegionFile(path)) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int z = 0; z < WIDTH; z++) {
+                    ByteBuffer data = ChunkCodec.encode(Chunk.generate(x, z));
+                    writer.write(x, z, data);
+                    MemoryUtil.memFree(data);
+                }
+            }
+        }
+
+        region = new RegionFile(path);
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        // The copying read looks chunks up in the header itself, as RegionFile used to
+        ByteBuffer header = ByteBuffer.allocate(RegionFile.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) ;
+        for (int i = 0; i < entries.length; i++) {
+            int x = i / WIDTH, z = i % WIDTH;
+            entries[i] = header.getLong(((z << 5) | x) * 8);
+        }
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        region.close();
+        channel.close();
+        Files.delete(directory.resolve("r.0.0.region"));
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public long mapped() throws IOException {
+        int i = next++ % entries.length, x = i / WIDTH, z = i % WIDTH;
+        return region.read(x, z, data -> use(x, z, data));
+    }
+
+    @Benchmark
+    public long copied() throws IOException {
+        int i = next++ % entries.length, x = i / WIDTH, z = i % WIDTH;
+        long offset = entries[i] & 0xFFFFFFFFL;
+        int length = (int) (entries[i] >>> 32);
+
+        if (copy.capacity() < length) copy = ByteBuffer.allocateDirect(length);
+        copy.clear().limit(length);
+        while (copy.hasRemaining()) {
+            if (channel.read(copy, offset + copy.position()) < 0) throw new EOFException();
+        }
+
+        return use(x, z, copy.flip());
+    }
+
+    private long use(int x, int z, ByteBuffer data) {
+        if (work.equals("decode")) return ChunkCodec.decode(x, z, data).getBlock(0, 0, 0);
+
+        if (work.equals("decompress")) {
+            ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            raw.clear().limit(in.getInt());
+            return LZ4_decompress_safe(in, raw);
+        }
+
+        long sum = 0;
+        for (int i = data.position(); i + 8 <= data.limit(); i += 8) sum += data.getLong(i);
+        return sum;
+    }
+}
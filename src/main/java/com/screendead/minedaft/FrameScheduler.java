@@ -0,0 +1,69 @@
+package com.screendead.minedaft;
+
+/**
+ * Decides when the GL thread should draw a frame, and sleeps until then. How often frames are
+ * drawn depends on the {@link Mode}. Ticks run separately, on the {@link Simulation} thread.
+ */
+public class FrameScheduler {
+    public enum Mode {
+        /**
+         * Draw as often as possible
+         */
+        UNCAPPED,
+        /**
+         * Draw as often as possible, relying on swapping buffers to wait for the display
+         */
+        VSYNC,
+        /**
+         * Draw at a fixed rate, sleeping in between
+         */
+        TARGET
+    }
+
+    private final Mode mode;
+    private final long frameNanos;
+    private final Sleeper sleeper = new Sleeper();
+
+    private long nextFrame;
+
+    /**
+     * @param mode When to draw frames
+     * @param fps The number of frames each second, used by {@link Mode#TARGET}
+     */
+    public FrameScheduler(Mode mode, float fps) {
+        this.mode = mode;
+        this.frameNanos = (long) (1e9 / fps);
+        this.nextFrame = System.nanoTime();
+    }
+
+    /**
+     * Take the next frame if it is due
+     * @return Whether to draw a frame
+     */
+    public boolean frame() {
+        if (mode != Mode.TARGET) return true;
+
+        long now = System.nanoTime();
+        if (now < nextFrame) return false;
+
+        // A late frame pushes the following ones back, rather than leaving them due at once
+        nextFrame += frameNanos;
+        if (nextFrame < now) nextFrame = now + frameNanos;
+        return true;
+    }
+
+    /**
+     * Wait until the next frame is due. Only waits in {@link Mode#TARGET}, as otherwise the next
+     * frame is always due.
+     */
+    public void sleep() {
+        if (mode == Mode.TARGET) sleeper.sleepUntil(nextFrame);
+    }
+
+    /**
+     * @return When to draw frames
+     */
+    public Mode getMode() {
+        return mode;
+    }
+}
@@ -1,17 +1,27 @@
 package com.screendead.minedaft;
 
 import com.screendead.minedaft.graphics.Window;
+import org.joml.Vector2f;
 import org.joml.Vector2i;
 import org.lwjgl.glfw.*;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.lwjgl.glfw.GLFW.*;
 
+/**
+ * Keeps track of the keyboard and mouse. Events arrive on the main thread, while polling events;
+ * the keys held and the mouse movement can be read from any thread.
+ */
 public class Input {
-    public boolean[] keys = new boolean[68836];
+    private final AtomicIntegerArray keys = new AtomicIntegerArray(GLFW_KEY_LAST + 1);
     public boolean[] mods = new boolean[68836];
 
     public double x, y;
-    public float dx, dy;
+
+    // The mouse movement not yet taken, as the bits of two floats
+    private final AtomicLong mouse = new AtomicLong();
     private boolean firstMouse = true;
     private int mm = 0;
 
@@ -43,13 +53,14 @@ public class Input {
     }
 
     private void onKeyPress(int key, int scancode, int mod) {
-        keys[key] = true;
+        if (key == GLFW_KEY_UNKNOWN) return;
+        keys.set(key, 1);
         mods[mod] = true;
     }
 
     private void onKeyRelease(int key, int scancode, int mod) {
-        if (key == -1) return;
-        keys[key] = false;
+        if (key == GLFW_KEY_UNKNOWN) return;
+        keys.set(key, 0);
         mods[mod] = false;
     }
 
@@ -82,8 +93,38 @@ public class Input {
 
         glfwSetCursorPos(window.getHandle(), (int) x, (int) y);
 
-        dx = (float) (xpos - x);
-        dy = (float) (ypos - y);
+        float dx = (float) (xpos - x), dy = (float) (ypos - y);
+        mouse.updateAndGet(m -> pack(unpackX(m) + dx, unpackY(m) + dy));
+    }
+
+    /**
+     * @param key The GLFW key ID
+     * @return Whether the key is held down
+     */
+    public boolean isDown(int key) {
+        return keys.get(key) != 0;
+    }
+
+    /**
+     * Take the mouse movement since the last call
+     * @param dest Set to the movement, in screen space pixels
+     * @return dest
+     */
+    public Vector2f takeMouseMovement(Vector2f dest) {
+        long m = mouse.getAndSet(0);
+        return dest.set(unpackX(m), unpackY(m));
+    }
+
+    private static long pack(float x, float y) {
+        return ((long) Float.floatToRawIntBits(x) << 32) | (Float.floatToRawIntBits(y) & 0xFFFFFFFFL);
+    }
+
+    private static float unpackX(long m) {
+        return Float.intBitsToFloat((int) (m >>> 32));
+    }
+
+    private static float unpackY(long m) {
+        return Float.intBitsToFloat((int) m);
     }
 
     private void onMouseScroll(double xoffset, double yoffset) {
@@ -1,11 +1,18 @@
 package com.screendead.minedaft;
 
 import com.screendead.minedaft.graphics.Window;
+import com.screendead.minedaft.performance.Histogram;
+import com.screendead.minedaft.performance.Metrics;
+import com.screendead.minedaft.performance.MetricsLog;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
 
 import static org.lwjgl.glfw.GLFW.glfwPollEvents;
 import static org.lwjgl.glfw.GLFW.glfwWindowShouldClose;
@@ -14,58 +21,130 @@ public class Minedaft {
     private Window window;
     private static final float UPS = 60.0f, FPS = 165.0f;
 
+    // When to draw frames, from the minedaft.fps system property: "vsync" (the default), "uncapped",
+    // or a number of frames each second
+    private static final String FRAME_MODE = System.getProperty("minedaft.fps", "vsync");
+
+    // How often metrics are read, printed, shown in the overlay and written to the metrics log
+    private static final long METRICS_INTERVAL_MILLIS = 1000;
+
+    // The time taken by each frame, and from the start of one frame to the next
+    private static final Histogram RENDER = Metrics.histogram("render"), FRAME = Metrics.histogram("frame");
+
+    // Written to if the minedaft.metrics system property names a file, as JSON if it ends in .json, or else CSV
+    private MetricsLog metricsLog;
+
     /**
      * Begin the game
      */
     private void run() {
+        FrameScheduler scheduler = createScheduler();
+
         // Create the window
-        window = new Window("Minedaft", 2560, 1440, true, true);
+        window = new Window("Minedaft", 2560, 1440, true, scheduler.getMode() == FrameScheduler.Mode.VSYNC);
+
+        String metricsFile = System.getProperty("minedaft.metrics");
+        if (metricsFile != null) {
+            try {
+                metricsLog = new MetricsLog(Paths.get(metricsFile));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
-        // Start the game loop
-        loop();
+        // Start ticking on the simulation thread, and drawing on this one
+        Simulation simulation = new Simulation(window, UPS);
+        simulation.start();
+        loop(scheduler, simulation);
+        simulation.stop();
 
         // Destroy the window after exit
         window.destroy();
+        closeMetricsLog();
+
+        if (simulation.getError() != null) throw new RuntimeException("The simulation thread failed", simulation.getError());
+    }
+
+    private static FrameScheduler createScheduler() {
+        switch (FRAME_MODE.toLowerCase(Locale.ROOT)) {
+            case "vsync":
+                return new FrameScheduler(FrameScheduler.Mode.VSYNC, FPS);
+            case "uncapped":
+                return new FrameScheduler(FrameScheduler.Mode.UNCAPPED, FPS);
+            default:
+                try {
+                    return new FrameScheduler(FrameScheduler.Mode.TARGET, Float.parseFloat(FRAME_MODE));
+                } catch (NumberFormatException e) {
+                    System.err.println("Unknown frame mode " + FRAME_MODE + ", using " + FPS + " FPS");
+                    return new FrameScheduler(FrameScheduler.Mode.TARGET, FPS);
+                }
+        }
     }
 
     /**
-     * The main game loop
+     * The main game loop, which draws frames while the simulation thread ticks
+     * @param scheduler When to draw frames
+     * @param simulation The simulation thread, which the loop stops with if it fails
      */
-    private void loop() {
-        long initialTime = System.nanoTime();
-        final float timeU = 1000000000.0f / UPS;
-        final float timeF = 1000000000.0f / FPS;
-        float deltaU = 0, deltaF = 0;
-        int frames = 0, ticks = 0, totalTicks = 0;
-        long timer = System.currentTimeMillis();
-
-        while (!glfwWindowShouldClose(window.getHandle())) {
-            long currentTime = System.nanoTime();
-            deltaU += (currentTime - initialTime) / timeU;
-            deltaF += (currentTime - initialTime) / timeF;
-            initialTime = currentTime;
-
-            if (deltaU >= 1) {
-                glfwPollEvents();
-                ticks++;
-                totalTicks++;
-                window.update(totalTicks);
-                deltaU--;
-            }
+    private void loop(FrameScheduler scheduler, Simulation simulation) {
+        int frames = 0;
+        long timer = System.currentTimeMillis(), lastFrame = 0;
+
+        while (!glfwWindowShouldClose(window.getHandle()) && simulation.isRunning()) {
+            glfwPollEvents();
+            window.update();
+
+            if (scheduler.frame()) {
+                long start = System.nanoTime();
+                if (lastFrame != 0) FRAME.record(start - lastFrame);
+                lastFrame = start;
 
-            if (deltaF >= 1) {
                 window.render();
                 frames++;
-                deltaF--;
+                RENDER.record(System.nanoTime() - start);
             }
 
-            if (System.currentTimeMillis() - timer > 1000) {
-                System.out.printf("UPS: %s, FPS: %s%n", ticks, frames);
+            if (System.currentTimeMillis() - timer > METRICS_INTERVAL_MILLIS) {
+                Metrics.Snapshot metrics = Metrics.snapshot();
+                Histogram.Summary frame = metrics.histogram("frame"), tick = metrics.histogram("tick");
+
+                String rates = String.format("UPS: %s, FPS: %s, frame p99: %.2fms, max: %.2fms", tick.count, frames, frame.p99 / 1e6, frame.max / 1e6);
+                System.out.printf("%s, %s%n", rates, window.getStatistics());
+
+                List<String> lines = metrics.format();
+                lines.add(0, rates);
+                window.setOverlayText(lines);
+                writeMetrics(metrics);
+
                 frames = 0;
-                ticks = 0;
-                timer += 1000;
+                timer += METRICS_INTERVAL_MILLIS;
             }
+
+            scheduler.sleep();
+        }
+    }
+
+    private void writeMetrics(Metrics.Snapshot metrics) {
+        if (metricsLog == null) return;
+
+        try {
+            metricsLog.write(metrics);
+        } catch (IOException e) {
+            // Give up on the log rather than the game
+            e.printStackTrace();
+            closeMetricsLog();
+        }
+    }
+
+    private void closeMetricsLog() {
+        if (metricsLog == null) return;
+
+        try {
+            metricsLog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        metricsLog = null;
     }
 
     public static void main(String[] args) {
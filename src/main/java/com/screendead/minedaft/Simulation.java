@@ -0,0 +1,184 @@
+package com.screendead.minedaft;
+
+import com.screendead.minedaft.graphics.Camera;
+import com.screendead.minedaft.graphics.RenderState;
+import com.screendead.minedaft.graphics.Renderer;
+import com.screendead.minedaft.graphics.Window;
+import com.screendead.minedaft.performance.Histogram;
+import com.screendead.minedaft.performance.Metrics;
+import com.screendead.minedaft.performance.TripleBuffer;
+import com.screendead.minedaft.world.World;
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * Runs the game's ticks on a thread of their own: moving the camera, loading and unloading
+ * chunks, and working out which sections can be seen. After every tick it publishes a
+ * {@link RenderState} for the GL thread to draw, so a slow tick never holds up a frame and
+ * waiting for the display never holds up a tick. Ticks run on a fixed timestep, as set out by a
+ * {@link TickSchedule}.
+ */
+public class Simulation implements Runnable {
+    private static final Histogram TICK = Metrics.histogram("tick");
+
+    // The most ticks to fall behind by before dropping them
+    private static final long MAX_BACKLOG_NANOS = 250_000_000;
+
+    // How many ticks to each poll of the chunks
+    private static final int POLL_INTERVAL = 8;
+
+    // Frames are drawn from anywhere between the camera before a tick and after it, so culling
+    // widens the view by this many degrees besides the angle turned, and pulls the eye back by
+    // this many blocks besides the distance moved
+    private static final float CULL_MARGIN_DEGREES = 10.0f, CULL_MARGIN_BLOCKS = 2.0f;
+
+    private final Input input;
+    private final World world;
+    private final Window window;
+    private final TripleBuffer<RenderState> states;
+    private final Camera camera = new Camera(new Vector3f(0.0f, 32.0f, 0.0f));
+    private final long tickNanos;
+
+    private final Sleeper sleeper = new Sleeper();
+    private final Thread thread = new Thread(this, "Simulation");
+    private volatile boolean running = false;
+    private volatile Throwable error;
+
+    private int ticks = 0;
+    private final Vector2f mouse = new Vector2f();
+    private final Vector3f eye = new Vector3f(), centre = new Vector3f();
+    private final Matrix4f frustum = new Matrix4f(), view = new Matrix4f();
+
+    /**
+     * Run the first tick, so there is something to draw before the thread starts
+     * @param window The window to read input from and publish states to
+     * @param ups The number of ticks each second
+     */
+    public Simulation(Window window, float ups) {
+        this.window = window;
+        this.input = window.getInput();
+        this.world = window.getWorld();
+        this.states = window.getStates();
+        this.tickNanos = (long) (1e9 / ups);
+
+        thread.setDaemon(true);
+        tick(System.nanoTime());
+    }
+
+    /**
+     * Start ticking
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stop ticking, and wait for the tick in progress to finish
+     */
+    public void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Whether the thread is still ticking. It stops if a tick throws.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return What a tick threw, stopping the thread, or null if nothing has
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public void run() {
+        TickSchedule schedule = new TickSchedule(tickNanos, MAX_BACKLOG_NANOS, System.nanoTime());
+
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                if (!schedule.isDue(now)) {
+                    sleeper.sleepUntil(schedule.getNext());
+                    continue;
+                }
+
+                tick(schedule.take(now));
+            }
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Update the game, and publish what there is to draw
+     * @param time When the tick was due, from {@link System#nanoTime()}
+     */
+    private void tick(long time) {
+        long start = System.nanoTime();
+        ticks++;
+
+        if (key(GLFW_KEY_W))
+            camera.move((key(GLFW_KEY_LEFT_CONTROL)) ? 2 : 1, 0, 0);
+        if (key(GLFW_KEY_A))
+            camera.move(0, 0, 1);
+        if (key(GLFW_KEY_S))
+            camera.move(-1, 0, 0);
+        if (key(GLFW_KEY_D))
+            camera.move(0, 0, -1);
+        if (key(GLFW_KEY_SPACE))
+            camera.move(0, 1, 0);
+        if (key(GLFW_KEY_LEFT_SHIFT))
+            camera.move(0, -1, 0);
+
+        camera.zoom(key(GLFW_KEY_C));
+
+        input.takeMouseMovement(mouse);
+        camera.update(mouse.x, mouse.y);
+
+        Vector3f pos = camera.getPosition();
+        int cx = (int) pos.x >> 4;
+        int cz = (int) pos.z >> 4;
+
+        world.update(cx, cz);
+        if (ticks % POLL_INTERVAL == 0) world.poll(cx, cz);
+
+        RenderState state = states.getBack();
+        state.tick = ticks;
+        state.time = time;
+        state.tickNanos = tickNanos;
+        camera.save(state);
+
+        // Cull for every camera between the one before the tick and the one after it
+        float fov = Math.min(170.0f, camera.getFOV() + 2 * (camera.getLastTurn() + CULL_MARGIN_DEGREES));
+        state.look.mul(-(camera.getLastDistance() + CULL_MARGIN_BLOCKS), eye).add(pos);
+        view.setLookAt(eye, eye.add(state.look, centre), state.up);
+        Renderer.perspective(fov, window.getAspect(), world.getViewDistance(), frustum).mul(view);
+
+        world.cull(eye.x, eye.y, eye.z, frustum, state);
+        states.publish();
+
+        TICK.record(System.nanoTime() - start);
+    }
+
+    /**
+     * @param key The GLFW key ID
+     * @return Whether the key is held down
+     */
+    private boolean key(int key) {
+        return input.isDown(key);
+    }
+}
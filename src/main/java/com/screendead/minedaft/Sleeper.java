@@ -0,0 +1,33 @@
+package com.screendead.minedaft;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for deadlines more precisely than parking alone can. The thread is parked until just
+ * before the deadline and only spins for the last fraction of a millisecond, since parking can
+ * wake up late; how late is measured as it goes, so the spin is only as long as this machine
+ * needs. Each thread that waits needs its own.
+ */
+class Sleeper {
+    // Bounds on how long before a deadline to stop parking and start spinning
+    private static final long MIN_SPIN_NANOS = 50_000, MAX_SPIN_NANOS = 1_000_000;
+
+    private long spinNanos = 500_000;
+
+    /**
+     * @param deadline When to wake up, from {@link System#nanoTime()}
+     */
+    void sleepUntil(long deadline) {
+        long park;
+        while ((park = deadline - System.nanoTime() - spinNanos) > 0) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(park);
+
+            // Aim to wake up twice as early as the average overshoot
+            long overshoot = Math.max(0, System.nanoTime() - start - park);
+            spinNanos = Math.max(MIN_SPIN_NANOS, Math.min(MAX_SPIN_NANOS, spinNanos + (overshoot * 2 - spinNanos) / 8));
+        }
+
+        while (System.nanoTime() < deadline) Thread.onSpinWait();
+    }
+}
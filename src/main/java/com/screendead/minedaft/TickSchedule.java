@@ -0,0 +1,52 @@
+package com.screendead.minedaft;
+
+/**
+ * Decides when fixed-timestep ticks are due. Each tick is due one step after the last, however
+ * late the last ran, so after a slow tick the ones behind it run back to back until they have
+ * caught up. Once the backlog grows past a limit, as after a long stall, the missed ticks are
+ * dropped and the schedule starts again from now, rather than running them in a burst. Times are
+ * passed in rather than read, so the schedule can be followed against any clock.
+ */
+class TickSchedule {
+    private final long tickNanos, maxBacklogNanos;
+    private long next;
+
+    /**
+     * @param tickNanos The time between ticks
+     * @param maxBacklogNanos The most to fall behind by before dropping the missed ticks
+     * @param start When the schedule starts, one tick before the first is due
+     */
+    TickSchedule(long tickNanos, long maxBacklogNanos, long start) {
+        this.tickNanos = tickNanos;
+        this.maxBacklogNanos = maxBacklogNanos;
+        this.next = start + tickNanos;
+    }
+
+    /**
+     * @return When the next tick is due
+     */
+    long getNext() {
+        return next;
+    }
+
+    /**
+     * @param now The current time
+     * @return Whether a tick is due
+     */
+    boolean isDue(long now) {
+        return now >= next;
+    }
+
+    /**
+     * Take the tick which is due, dropping the backlog first if it has grown too long
+     * @param now The current time, at or after {@link #getNext()}
+     * @return When the tick taken was due
+     */
+    long take(long now) {
+        if (now - next > maxBacklogNanos) next = now;
+
+        long due = next;
+        next += tickNanos;
+        return due;
+    }
+}
@@ -10,6 +10,9 @@ public class Camera {
     public Vector3f look, right = new Vector3f();
     final Vector3f initialLook;
     Vector3f pos, vel, acc;
+
+    // Where the camera was and which way it looked before the last update, for interpolating between the two
+    private final Vector3f lastPos = new Vector3f(), lastLook = new Vector3f();
     public boolean zoomed = false;
     public float horizontal = 0, vertical = 0;
     private Matrix4f lookMatrix;
@@ -29,9 +32,14 @@ public class Camera {
         right.normalize();
 
         update(0, 0);
+        lastPos.set(pos);
+        lastLook.set(this.look);
     }
 
     public void update(float dx, float dy) {
+        lastPos.set(pos);
+        lastLook.set(look);
+
         horizontal += -dx / 6.0f;
         vertical += dy / 4.0f;
 
@@ -53,6 +61,19 @@ public class Camera {
         lookMatrix = new Matrix4f().lookAt(this.pos, this.pos.add(this.look, new Vector3f()), this.up);
     }
 
+    /**
+     * Copy the camera before and after the last update into a state to be drawn
+     * @param state The state
+     */
+    public void save(RenderState state) {
+        state.lastPos.set(lastPos);
+        state.pos.set(pos);
+        state.lastLook.set(lastLook);
+        state.look.set(look);
+        state.up.set(up);
+        state.fov = getFOV();
+    }
+
     public void zoom(boolean zoomed) {
         this.zoomed = zoomed;
     }
@@ -67,6 +88,34 @@ public class Camera {
         return Math.min(Math.max(f, min), max);
     }
 
+    /**
+     * @return The vertical field of view, in degrees
+     */
+    public float getFOV() {
+        return zoomed ? 30.0f : 100.0f;
+    }
+
+    /**
+     * @return Where the camera is now
+     */
+    public Vector3f getPosition() {
+        return pos;
+    }
+
+    /**
+     * @return How far the camera moved in the last update
+     */
+    public float getLastDistance() {
+        return lastPos.distance(pos);
+    }
+
+    /**
+     * @return The angle the camera turned through in the last update, in degrees
+     */
+    public float getLastTurn() {
+        return (float) Math.toDegrees(Math.acos(Math.max(-1.0f, Math.min(1.0f, lastLook.angleCos(look)))));
+    }
+
     public Matrix4f getMatrix() {
         return lookMatrix;
     }
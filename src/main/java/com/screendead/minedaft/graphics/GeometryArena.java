@@ -0,0 +1,303 @@
+package com.screendead.minedaft.graphics;
+
+import com.screendead.minedaft.performance.ArenaAllocator;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+import static org.lwjgl.opengl.GL43.glMultiDrawElementsIndirect;
+import static org.lwjgl.opengl.GL44.GL_DYNAMIC_STORAGE_BIT;
+import static org.lwjgl.opengl.GL44.glBufferStorage;
+
+/**
+ * One vertex buffer and one index buffer which every chunk mesh is sub-allocated from, so all of
+ * them share a single vertex array and can be drawn without changing any state in between.
+ * Meshes queued during a frame are drawn together by {@link #draw()}: with OpenGL 4.3 as one
+ * {@code glMultiDrawElementsIndirect} call, each draw reading its origin from an instanced
+ * attribute through its base instance, and otherwise (such as on macOS, which stops at 4.1) as a
+ * tight loop of {@code glDrawElementsBaseVertex} calls. When a mesh doesn't fit, the buffers are
+ * compacted into new ones, growing them if the free space would still be short. With OpenGL 4.4
+ * the buffers are immutable storage, filled by the GPU from a {@link StagingRing}.
+ */
+public class GeometryArena {
+    private static final int INITIAL_VERTICES = 1 << 22, INITIAL_INDICES = 1 << 23;
+
+    // At least this share of each buffer is left free after compacting, so it isn't needed again straight away
+    private static final int HEADROOM_DIVISOR = 4;
+
+    // Several frames' worth of uploads at the default upload budget
+    private static final long STAGING_BYTES = 16L << 20;
+
+    // count, instanceCount, firstIndex, baseVertex, baseInstance
+    private static final int COMMAND_WORDS = 5;
+
+    private final boolean indirect, immutable;
+    private final StagingRing staging;
+    private final ArenaAllocator vertexSpace = new ArenaAllocator(INITIAL_VERTICES);
+    private final ArenaAllocator indexSpace = new ArenaAllocator(INITIAL_INDICES);
+    private final int vao, originBuffer, commandBuffer;
+    private int vertexBuffer, indexBuffer;
+
+    private Mesh[] meshes = new Mesh[1024];
+    private int meshCount = 0;
+
+    // This frame's draws
+    private IntBuffer commands = MemoryUtil.memAllocInt(COMMAND_WORDS * 1024);
+    private FloatBuffer origins = MemoryUtil.memAllocFloat(4 * 1024);
+    private int drawCount = 0, lastDrawCount = 0;
+
+    /**
+     * Create the buffers. Must be called on the main thread.
+     */
+    public GeometryArena() {
+        indirect = GL.getCapabilities().OpenGL43;
+        immutable = GL.getCapabilities().OpenGL44;
+        staging = immutable ? new StagingRing(STAGING_BYTES) : null;
+
+        vertexBuffer = createBuffer((long) INITIAL_VERTICES * VertexFormat.BYTES);
+        indexBuffer = createBuffer((long) INITIAL_INDICES * Integer.BYTES);
+        originBuffer = glGenBuffers();
+        commandBuffer = glGenBuffers();
+
+        vao = glGenVertexArrays();
+        bindVertexArray();
+    }
+
+    /**
+     * Copy a mesh's data into the buffers
+     * @param m The mesh the space belongs to
+     * @param vertices The vertices, packed as described by {@link VertexFormat}
+     * @param indices The indices of the triangles
+     */
+    void add(Mesh m, IntBuffer vertices, IntBuffer indices) {
+        int vertexCount = vertices.remaining() / VertexFormat.WORDS, indexCount = indices.remaining();
+
+        int v = vertexSpace.allocate(vertexCount), i = indexSpace.allocate(indexCount);
+        if (v < 0 || i < 0) {
+            if (v >= 0) vertexSpace.free(v, vertexCount);
+            if (i >= 0) indexSpace.free(i, indexCount);
+
+            relocate(vertexCount, indexCount);
+            v = vertexSpace.allocate(vertexCount);
+            i = indexSpace.allocate(indexCount);
+        }
+
+        write(vertexBuffer, (long) v * VertexFormat.BYTES, vertices);
+        write(indexBuffer, (long) i * Integer.BYTES, indices);
+
+        if (meshCount == meshes.length) meshes = Arrays.copyOf(meshes, meshCount * 2);
+        meshes[meshCount] = m;
+        m.arenaSlot = meshCount++;
+        m.baseVertex = v;
+        m.firstIndex = i;
+        m.arenaVertices = vertexCount;
+    }
+
+    /**
+     * Give a mesh's space back
+     * @param m The mesh
+     */
+    void remove(Mesh m) {
+        vertexSpace.free(m.baseVertex, m.arenaVertices);
+        indexSpace.free(m.firstIndex, m.getVertexCount());
+
+        Mesh last = meshes[--meshCount];
+        meshes[m.arenaSlot] = last;
+        last.arenaSlot = m.arenaSlot;
+        meshes[meshCount] = null;
+        m.arenaSlot = -1;
+    }
+
+    /**
+     * Add a mesh to this frame's draws
+     * @param m The mesh
+     */
+    void queue(Mesh m) {
+        if (drawCount * COMMAND_WORDS == commands.capacity()) {
+            commands = MemoryUtil.memRealloc(commands, commands.capacity() * 2);
+            origins = MemoryUtil.memRealloc(origins, origins.capacity() * 2);
+        }
+
+        commands.put(m.getVertexCount()).put(1).put(m.firstIndex).put(m.baseVertex).put(drawCount);
+        origins.put(m.origin.x).put(m.origin.y).put(m.origin.z).put(m.scale);
+        drawCount++;
+    }
+
+    /**
+     * Draw everything queued this frame, with the shader and texture already bound
+     */
+    void draw() {
+        // This frame's uploads are all issued by now
+        if (staging != null) staging.fence();
+
+        if (drawCount == 0) return;
+
+        glBindVertexArray(vao);
+
+        if (indirect) {
+            commands.flip();
+            origins.flip();
+
+            glBindBuffer(GL_ARRAY_BUFFER, originBuffer);
+            glBufferData(GL_ARRAY_BUFFER, origins, GL_STREAM_DRAW);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+            glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_STREAM_DRAW);
+
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, drawCount, 0);
+
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        } else {
+            // Without base instances the origin attribute is left disabled and set directly
+            for (int d = 0; d < drawCount; d++) {
+                int c = d * COMMAND_WORDS, o = d * 4;
+                glVertexAttrib4f(1, origins.get(o), origins.get(o + 1), origins.get(o + 2), origins.get(o + 3));
+                glDrawElementsBaseVertex(GL_TRIANGLES, commands.get(c), GL_UNSIGNED_INT,
+                        (long) commands.get(c + 2) * Integer.BYTES, commands.get(c + 3));
+            }
+        }
+
+        glBindVertexArray(0);
+
+        commands.clear();
+        origins.clear();
+        lastDrawCount = drawCount;
+        drawCount = 0;
+    }
+
+    /**
+     * @return The number of draws submitted by the last {@link #draw()}
+     */
+    public int getDrawCount() {
+        return lastDrawCount;
+    }
+
+    /**
+     * @return The share of the vertex buffer in use, from 0 to 1
+     */
+    public float getVertexUsage() {
+        return (float) vertexSpace.getUsed() / vertexSpace.getCapacity();
+    }
+
+    /**
+     * @return The share of the index buffer in use, from 0 to 1
+     */
+    public float getIndexUsage() {
+        return (float) indexSpace.getUsed() / indexSpace.getCapacity();
+    }
+
+    /**
+     * Delete the buffers. Every mesh in them must already have been cleaned up.
+     */
+    public void cleanup() {
+        if (staging != null) staging.cleanup();
+
+        glBindVertexArray(0);
+        glDeleteVertexArrays(vao);
+        glDeleteBuffers(vertexBuffer);
+        glDeleteBuffers(indexBuffer);
+        glDeleteBuffers(originBuffer);
+        glDeleteBuffers(commandBuffer);
+
+        MemoryUtil.memFree(commands);
+        MemoryUtil.memFree(origins);
+    }
+
+    /**
+     * Copy every mesh, packed together, into new buffers with room for at least the given
+     * amount more
+     */
+    private void relocate(int vertices, int indices) {
+        int vertexCapacity = capacityFor(vertexSpace, vertices), indexCapacity = capacityFor(indexSpace, indices);
+
+        int newVertices = createBuffer((long) vertexCapacity * VertexFormat.BYTES);
+        int newIndices = createBuffer((long) indexCapacity * Integer.BYTES);
+
+        vertexSpace.reset();
+        vertexSpace.grow(vertexCapacity);
+        indexSpace.reset();
+        indexSpace.grow(indexCapacity);
+
+        glBindBuffer(GL_COPY_READ_BUFFER, vertexBuffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newVertices);
+        for (int m = 0; m < meshCount; m++) {
+            Mesh mesh = meshes[m];
+            int v = vertexSpace.allocate(mesh.arenaVertices);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) mesh.baseVertex * VertexFormat.BYTES,
+                    (long) v * VertexFormat.BYTES, (long) mesh.arenaVertices * VertexFormat.BYTES);
+            mesh.baseVertex = v;
+        }
+
+        glBindBuffer(GL_COPY_READ_BUFFER, indexBuffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newIndices);
+        for (int m = 0; m < meshCount; m++) {
+            Mesh mesh = meshes[m];
+            int i = indexSpace.allocate(mesh.getVertexCount());
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) mesh.firstIndex * Integer.BYTES,
+                    (long) i * Integer.BYTES, (long) mesh.getVertexCount() * Integer.BYTES);
+            mesh.firstIndex = i;
+        }
+
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(vertexBuffer);
+        glDeleteBuffers(indexBuffer);
+        vertexBuffer = newVertices;
+        indexBuffer = newIndices;
+
+        bindVertexArray();
+    }
+
+    private static int capacityFor(ArenaAllocator space, int extra) {
+        long capacity = space.getCapacity();
+        while (capacity - space.getUsed() - extra < capacity / HEADROOM_DIVISOR) capacity *= 2;
+
+        if (capacity > Integer.MAX_VALUE / VertexFormat.BYTES) throw new IllegalStateException("Chunk geometry arena is full");
+        return (int) capacity;
+    }
+
+    private void write(int buffer, long offset, IntBuffer data) {
+        if (staging != null && staging.copy(data, buffer, offset)) return;
+
+        glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, offset, data);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    private int createBuffer(long bytes) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+        // Writable directly only for data too big for the staging ring
+        if (immutable) glBufferStorage(GL_COPY_WRITE_BUFFER, bytes, GL_DYNAMIC_STORAGE_BIT);
+        else glBufferData(GL_COPY_WRITE_BUFFER, bytes, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return buffer;
+    }
+
+    private void bindVertexArray() {
+        glBindVertexArray(vao);
+
+        glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+        glVertexAttribIPointer(0, VertexFormat.WORDS, GL_UNSIGNED_INT, VertexFormat.BYTES, 0);
+        glEnableVertexAttribArray(0);
+
+        glBindBuffer(GL_ARRAY_BUFFER, originBuffer);
+        glVertexAttribPointer(1, 4, GL_FLOAT, false, 0, 0);
+        glVertexAttribDivisor(1, 1);
+        if (indirect) glEnableVertexAttribArray(1);
+
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+}
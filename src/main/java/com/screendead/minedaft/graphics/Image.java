@@ -20,6 +20,19 @@ public class Image {
     private int id, width, height;
 
     Image(String source) {
+        this(source, new String[0], 0, new int[0], new int[0]);
+    }
+
+    /**
+     * Load an image, drawing square patches over parts of it before it's mipmapped. Only the top
+     * square of a patch taller than it is wide is drawn, which is the first frame of an animation.
+     * @param source The image, relative to resources/img
+     * @param patches The images to draw over it, relative to resources/img
+     * @param size The width of every patch, and the height drawn, in pixels
+     * @param x The X position of each patch's top left corner, in pixels
+     * @param y The Y position of each patch's top left corner, in pixels
+     */
+    Image(String source, String[] patches, int size, int[] x, int[] y) {
         // Get an image for texturing
         IntBuffer w = null, h = null, channels = null;
         try {
@@ -55,6 +68,22 @@ public class Image {
             // Pass texture data to the graphics card
             glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, img);
 
+            for (int i = 0; i < patches.length; i++) {
+                ByteBuffer patch = STBImage.stbi_load(Minedaft.getResource("img/" + patches[i]), w.clear(), h.clear(), channels.clear(), 4);
+                if (patch == null) throw new RuntimeException("Texture " + patches[i] + " failed to load.");
+
+                try {
+                    if (w.get(0) != size || h.get(0) < size)
+                        throw new RuntimeException("Texture " + patches[i] + " is " + w.get(0) + "x" + h.get(0) + ", not " + size + " pixels wide and at least as tall");
+                    if (x[i] < 0 || y[i] < 0 || x[i] + size > width || y[i] + size > height)
+                        throw new RuntimeException("Texture " + patches[i] + " doesn't fit in " + source + " at " + x[i] + ", " + y[i]);
+
+                    glTexSubImage2D(GL_TEXTURE_2D, 0, x[i], y[i], size, size, GL_RGBA, GL_UNSIGNED_BYTE, patch);
+                } finally {
+                    STBImage.stbi_image_free(patch);
+                }
+            }
+
             // Mipmap the texture
             glGenerateMipmap(GL_TEXTURE_2D);
 
@@ -1,8 +1,8 @@
 package com.screendead.minedaft.graphics;
 
+import org.joml.Vector3f;
 import org.lwjgl.system.MemoryUtil;
 
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 
@@ -11,13 +11,28 @@ import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 
 public class Mesh {
-    private static final int DRAW_TYPE = GL_STREAM_DRAW;
+    private static final int DRAW_TYPE = GL_STATIC_DRAW;
 
     private static Image texture;
-    private static ArrayList<Integer> vboList = new ArrayList<>();
+    private static GeometryArena arena;
+    private final ArrayList<Integer> vboList = new ArrayList<>();
     private final int vao, vertexCount;
+    final Vector3f origin;
+    final int scale;
 
-    public Mesh(float[] positions, float[] normals, float[] texCoords, int[] indices) {
+    // Where this mesh lives in the shared arena, if it was uploaded there
+    int arenaSlot = -1, baseVertex, firstIndex, arenaVertices;
+
+    /**
+     * @param vertices The vertices, packed as described by {@link VertexFormat}
+     * @param indices The indices of the triangles
+     * @param x The X position the vertex positions are relative to
+     * @param y The Y position the vertex positions are relative to
+     * @param z The Z position the vertex positions are relative to
+     */
+    public Mesh(int[] vertices, int[] indices, int x, int y, int z) {
+        origin = new Vector3f(x, y, z);
+        scale = 1;
         vertexCount = indices.length;
         if (vertexCount == 0) {
             vao = -1;
@@ -26,89 +41,107 @@ public class Mesh {
 
         vao = glGenVertexArrays();
 
-        update(positions, normals, texCoords, indices);
+        update(vertices, indices);
     }
 
-    public void update(float[] positions, float[] normals, float[] texCoords, int[] indices) {
-        FloatBuffer vertBuffer = null, normsBuffer = null, texBuffer = null;
-        IntBuffer indicesBuffer = null;
-        try {
-            vboList = new ArrayList<>();
+    /**
+     * Upload ready-made off-heap buffers without copying them first, into the shared arena if
+     * there is one
+     * @param vertices The vertices, packed as described by {@link VertexFormat}, or null if empty
+     * @param indices The indices of the triangles, or null if empty
+     * @param x The X position the vertex positions are relative to
+     * @param y The Y position the vertex positions are relative to
+     * @param z The Z position the vertex positions are relative to
+     * @param scale How many blocks wide each unit of X and Z in the vertex positions is
+     */
+    Mesh(IntBuffer vertices, IntBuffer indices, int x, int y, int z, int scale) {
+        origin = new Vector3f(x, y, z);
+        this.scale = scale;
+        vertexCount = (indices == null) ? 0 : indices.remaining();
+        if (vertexCount == 0) {
+            vao = -1;
+            return;
+        }
 
-            glBindVertexArray(vao);
+        if (arena != null) {
+            vao = -1;
+            arena.add(this, vertices, indices);
+            return;
+        }
 
-            // Position VBO
-            int vbo = glGenBuffers();
-            vboList.add(vbo);
-            vertBuffer = MemoryUtil.memAllocFloat(positions.length);
-            vertBuffer.put(positions).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vbo);
-            glBufferData(GL_ARRAY_BUFFER, vertBuffer, DRAW_TYPE);
-            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-
-            // Normals VBO
-            vbo = glGenBuffers();
-            vboList.add(vbo);
-            normsBuffer = MemoryUtil.memAllocFloat(normals.length);
-            normsBuffer.put(normals).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vbo);
-            glBufferData(GL_ARRAY_BUFFER, normsBuffer, DRAW_TYPE);
-            glVertexAttribPointer(1, 3, GL_FLOAT, false, 0, 0);
-
-            for (int i = 0; i < texCoords.length; i++) texCoords[i] /= ((float) ((i % 2 == 0) ? texture.getSize().x : texture.getSize().y) / 16.0f);
-
-            // Texture coordinates VBO
-            vbo = glGenBuffers();
-            vboList.add(vbo);
-            texBuffer = MemoryUtil.memAllocFloat(texCoords.length);
-            texBuffer.put(texCoords).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vbo);
-            glBufferData(GL_ARRAY_BUFFER, texBuffer, DRAW_TYPE);
-            glVertexAttribPointer(2, 2, GL_FLOAT, true, 0, 0);
-
-            // Index VBO
-            vbo = glGenBuffers();
-            vboList.add(vbo);
+        vao = glGenVertexArrays();
+
+        update(vertices, indices);
+    }
+
+    public void update(int[] vertices, int[] indices) {
+        IntBuffer vertBuffer = null, indicesBuffer = null;
+        try {
+            vertBuffer = MemoryUtil.memAllocInt(vertices.length);
+            vertBuffer.put(vertices).flip();
             indicesBuffer = MemoryUtil.memAllocInt(indices.length);
             indicesBuffer.put(indices).flip();
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, DRAW_TYPE);
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindVertexArray(0);
+
+            update(vertBuffer, indicesBuffer);
         } finally {
             if (vertBuffer != null) MemoryUtil.memFree(vertBuffer);
-            if (normsBuffer != null) MemoryUtil.memFree(normsBuffer);
-            if (texBuffer != null) MemoryUtil.memFree(texBuffer);
             if (indicesBuffer != null) MemoryUtil.memFree(indicesBuffer);
         }
     }
 
+    private void update(IntBuffer vertices, IntBuffer indices) {
+        for (int vboId : vboList) glDeleteBuffers(vboId);
+        vboList.clear();
+
+        glBindVertexArray(vao);
+
+        // Packed vertex VBO
+        int vbo = glGenBuffers();
+        vboList.add(vbo);
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ARRAY_BUFFER, vertices, DRAW_TYPE);
+        glVertexAttribIPointer(0, VertexFormat.WORDS, GL_UNSIGNED_INT, VertexFormat.BYTES, 0);
+
+        // Index VBO
+        vbo = glGenBuffers();
+        vboList.add(vbo);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, DRAW_TYPE);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+
     public void update(MeshComponent mc) {
-        update(mc.getVertices(), mc.getNormals(), mc.getTexCoords(), mc.getIndices());
+        update(mc.getVertices(), mc.getIndices());
     }
 
     /**
-     * Render this mesh to the framebuffer
+     * Render this mesh to the framebuffer, or if it lives in the shared arena, queue it to be
+     * drawn by {@link #renderQueued()}
      */
     public void render() {
+        if (arenaSlot >= 0) {
+            arena.queue(this);
+            return;
+        }
+
         if (texture != null) {
             // Activate first texture
             glActiveTexture(GL_TEXTURE0);
             // Bind the texture
             glBindTexture(GL_TEXTURE_2D, texture.getID());
 
+            // Vertex positions are relative to the mesh's origin
+            glVertexAttrib4f(1, origin.x, origin.y, origin.z, scale);
+
             // Draw the mesh
             glBindVertexArray(vao);
             glEnableVertexAttribArray(0);
-            glEnableVertexAttribArray(1);
-            glEnableVertexAttribArray(2);
 
             glDrawElements(GL_TRIANGLES, vertexCount, GL_UNSIGNED_INT, 0);
 
             // Restore state
             glDisableVertexAttribArray(0);
-            glDisableVertexAttribArray(1);
-            glDisableVertexAttribArray(2);
             glBindVertexArray(0);
         }
     }
@@ -117,6 +150,11 @@ public class Mesh {
      * Clean the memory after removal
      */
     public void cleanup() {
+        if (arenaSlot >= 0) {
+            arena.remove(this);
+            return;
+        }
+
         glDisableVertexAttribArray(0);
 
         // Delete the VBOs
@@ -134,6 +172,24 @@ public class Mesh {
         texture = t;
     }
 
+    /**
+     * @param a The arena to upload meshes into from now on, or null to give each its own buffers
+     */
+    public static void setGlobalArena(GeometryArena a) {
+        arena = a;
+    }
+
+    /**
+     * Draw every arena mesh rendered since the last call, with the shader already bound
+     */
+    public static void renderQueued() {
+        if (arena == null || texture == null) return;
+
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, texture.getID());
+        arena.draw();
+    }
+
     /**
      * @return vao The vertex array object
      */
@@ -0,0 +1,139 @@
+package com.screendead.minedaft.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable set of primitive vertex and index arrays which faces are appended to in place.
+ * Builders are reused: {@link #get()} hands out one per thread, so a worker meshing chunk after
+ * chunk only allocates when a mesh is bigger than any it has built before, and once more for the
+ * final, exactly sized arrays or buffers.
+ */
+public class MeshBuilder {
+    private static final ThreadLocal<MeshBuilder> POOL = ThreadLocal.withInitial(MeshBuilder::new);
+
+    private int[] vertices = new int[VertexFormat.WORDS * 1024];
+    private int[] indices = new int[6 * 256];
+    private int vertexCount = 0, indexCount = 0;
+
+    /**
+     * @return This thread's builder, emptied and ready for use
+     */
+    public static MeshBuilder get() {
+        MeshBuilder builder = POOL.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * Discard everything appended so far, keeping the allocated capacity
+     */
+    public void reset() {
+        vertexCount = 0;
+        indexCount = 0;
+    }
+
+    /**
+     * Append a vertex
+     * @param x The X position within the sub-chunk
+     * @param y The Y position within the sub-chunk
+     * @param z The Z position within the sub-chunk
+     * @param face The face direction the vertex belongs to
+     * @param tileU The column of the atlas tile
+     * @param tileV The row of the atlas tile
+     * @param u The U position within the face, in blocks
+     * @param v The V position within the face, in blocks
+     * @param light The light in front of the face, packed as described by {@link com.screendead.minedaft.world.Light}
+     * @return The index of the new vertex
+     */
+    public int vertex(int x, int y, int z, int face, int tileU, int tileV, int u, int v, int light) {
+        if ((vertexCount + 1) * VertexFormat.WORDS > vertices.length) vertices = Arrays.copyOf(vertices, vertices.length * 2);
+
+        int p = vertexCount * VertexFormat.WORDS;
+        vertices[p] = VertexFormat.packGeometry(x, y, z, face, u, v);
+        vertices[p + 1] = VertexFormat.packTexture(tileU, tileV, light);
+
+        return vertexCount++;
+    }
+
+    /**
+     * Append a triangle
+     * @param a The index of the first vertex
+     * @param b The index of the second vertex
+     * @param c The index of the third vertex
+     */
+    public void triangle(int a, int b, int c) {
+        if (indexCount + 3 > indices.length) indices = Arrays.copyOf(indices, indices.length * 2);
+
+        indices[indexCount++] = a;
+        indices[indexCount++] = b;
+        indices[indexCount++] = c;
+    }
+
+    /**
+     * Append everything from a mesh component, offsetting its indices past the vertices already here
+     * @param m The mesh component to append
+     */
+    public void append(MeshComponent m) {
+        int[] v = m.getVertices();
+        int base = vertexCount;
+
+        while ((vertexCount * VertexFormat.WORDS) + v.length > vertices.length) vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        System.arraycopy(v, 0, vertices, vertexCount * VertexFormat.WORDS, v.length);
+        vertexCount += m.getVertexCount();
+
+        int[] mi = m.getIndices();
+        for (int i = 0; i < mi.length; i += 3) triangle(mi[i] + base, mi[i + 1] + base, mi[i + 2] + base);
+    }
+
+    /**
+     * @return A mesh component holding copies of exactly what has been appended
+     */
+    public MeshComponent build() {
+        return new MeshComponent(
+                Arrays.copyOf(vertices, vertexCount * VertexFormat.WORDS),
+                Arrays.copyOf(indices, indexCount));
+    }
+
+    /**
+     * @param x The X position of the sub-chunk's minimum corner
+     * @param y The Y position of the sub-chunk's minimum corner
+     * @param z The Z position of the sub-chunk's minimum corner
+     * @return Off-heap copies of exactly what has been appended, ready to upload
+     */
+    public MeshData buildData(int x, int y, int z) {
+        return buildData(x, y, z, 1);
+    }
+
+    /**
+     * @param x The X position of the mesh's minimum corner
+     * @param y The Y position of the mesh's minimum corner
+     * @param z The Z position of the mesh's minimum corner
+     * @param scale How many blocks wide each unit of X and Z within the mesh is
+     * @return Off-heap copies of exactly what has been appended, ready to upload
+     */
+    public MeshData buildData(int x, int y, int z, int scale) {
+        if (empty()) return new MeshData(null, null, x, y, z, scale);
+
+        IntBuffer v = MemoryUtil.memAllocInt(vertexCount * VertexFormat.WORDS);
+        v.put(vertices, 0, vertexCount * VertexFormat.WORDS).flip();
+        IntBuffer i = MemoryUtil.memAllocInt(indexCount);
+        i.put(indices, 0, indexCount).flip();
+
+        return new MeshData(v, i, x, y, z, scale);
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public boolean empty() {
+        return indexCount == 0;
+    }
+}
@@ -2,62 +2,59 @@ package com.screendead.minedaft.graphics;
 
 import java.util.Arrays;
 
+/**
+ * Mesh data for one sub-chunk, with vertices packed as described by {@link VertexFormat}.
+ */
 public class MeshComponent {
-    private float[] vertices, normals, texCoords;
+    private int[] vertices;
     private int[] indices;
 
-    public MeshComponent(float[] vertices, float[] normals, float[] texCoords, int[] indices) {
+    public MeshComponent(int[] vertices, int[] indices) {
         this.vertices = vertices;
-        this.normals = normals;
-        this.texCoords = texCoords;
         this.indices = indices;
     }
 
     public MeshComponent() {
-        this(new float[] {}, new float[] {}, new float[] {}, new int[] {});
+        this(new int[] {}, new int[] {});
     }
 
+    /**
+     * Append another mesh component to this one. This copies both components,
+     * so use a {@link MeshBuilder} when joining more than a handful.
+     * @param m The mesh component to append
+     */
     public void combine(MeshComponent m) {
-        int maxIndex = 0;
-        float[] newVertices, newNormals, newTexCoords;
-        int[] newIndices;
+        int[] newVertices, newIndices;
+        int maxIndex = getVertexCount();
 
         newVertices = Arrays.copyOf(vertices, vertices.length + m.vertices.length);
         System.arraycopy(m.vertices, 0, newVertices, vertices.length, m.vertices.length);
         vertices = newVertices;
 
-        newNormals = Arrays.copyOf(normals, normals.length + m.normals.length);
-        System.arraycopy(m.normals, 0, newNormals, normals.length, m.normals.length);
-        normals = newNormals;
-
-        newTexCoords = Arrays.copyOf(texCoords, texCoords.length + m.texCoords.length);
-        System.arraycopy(m.texCoords, 0, newTexCoords, texCoords.length, m.texCoords.length);
-        texCoords = newTexCoords;
-
-        for (int i : indices) if (i >= maxIndex) maxIndex = i + 1;
-        for (int i = 0; i < m.indices.length; i++) m.indices[i] += maxIndex;
         newIndices = Arrays.copyOf(indices, indices.length + m.indices.length);
-        System.arraycopy(m.indices, 0, newIndices, indices.length, m.indices.length);
+        for (int i = 0; i < m.indices.length; i++) newIndices[indices.length + i] = m.indices[i] + maxIndex;
         indices = newIndices;
     }
 
-    public Mesh toMesh() {
-        return new Mesh(vertices, normals, texCoords, indices);
+    /**
+     * @param x The X position of the sub-chunk's minimum corner
+     * @param y The Y position of the sub-chunk's minimum corner
+     * @param z The Z position of the sub-chunk's minimum corner
+     * @return A mesh uploaded from this data
+     */
+    public Mesh toMesh(int x, int y, int z) {
+        return new Mesh(vertices, indices, x, y, z);
     }
 
-    public float[] getVertices() {
+    public int[] getVertices() {
         return vertices;
     }
 
-    public float[] getNormals() {
-        return normals;
-    }
-
-    public float[] getTexCoords() {
-        return texCoords;
-    }
-
     public int[] getIndices() {
         return indices;
     }
+
+    public int getVertexCount() {
+        return vertices.length / VertexFormat.WORDS;
+    }
 }
@@ -0,0 +1,66 @@
+package com.screendead.minedaft.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+
+/**
+ * Mesh data for one sub-chunk, copied into off-heap buffers which can be handed straight to
+ * OpenGL. Built on worker threads so the main thread only has to upload it, and must be
+ * {@link #free() freed} once uploaded or discarded.
+ */
+public class MeshData {
+    /**
+     * Mesh data with nothing in it. Holds no buffers, so can be shared.
+     */
+    public static final MeshData EMPTY = new MeshData(null, null, 0, 0, 0, 1);
+
+    private IntBuffer vertices, indices;
+    private final int x, y, z, scale;
+
+    /**
+     * @param vertices The vertices, packed as described by {@link VertexFormat}, or null if empty
+     * @param indices The indices of the triangles, or null if empty
+     * @param x The X position the vertex positions are relative to
+     * @param y The Y position the vertex positions are relative to
+     * @param z The Z position the vertex positions are relative to
+     * @param scale How many blocks wide each unit of X and Z in the vertex positions is
+     */
+    MeshData(IntBuffer vertices, IntBuffer indices, int x, int y, int z, int scale) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.scale = scale;
+    }
+
+    /**
+     * Upload this data to the GPU. Must be called on the main thread.
+     * @return The new mesh
+     */
+    public Mesh upload() {
+        return new Mesh(vertices, indices, x, y, z, scale);
+    }
+
+    /**
+     * Release the off-heap buffers. Safe to call more than once.
+     */
+    public void free() {
+        if (vertices != null) MemoryUtil.memFree(vertices);
+        if (indices != null) MemoryUtil.memFree(indices);
+        vertices = null;
+        indices = null;
+    }
+
+    /**
+     * @return The number of bytes that uploading this data sends to the GPU
+     */
+    public int getBytes() {
+        return empty() ? 0 : (vertices.remaining() + indices.remaining()) * Integer.BYTES;
+    }
+
+    public boolean empty() {
+        return indices == null || !indices.hasRemaining();
+    }
+}
@@ -0,0 +1,153 @@
+package com.screendead.minedaft.graphics;
+
+import org.joml.Vector2f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.stb.STBEasyFont.stb_easy_font_print;
+
+/**
+ * Lines of text drawn over the top left of the screen, such as the metrics of the last second.
+ * Text is laid out into quads with stb_easy_font whenever it changes, so drawing it costs one
+ * draw call. Must only be used on the main thread.
+ */
+public class Overlay {
+    // How many pixels wide each unit of stb_easy_font's layout is, and the height of each line in those units
+    private static final float SCALE = 2.0f;
+    private static final int LINE_HEIGHT = 10, MARGIN = 4;
+
+    // Each vertex is three floats of position and four bytes of colour
+    private static final int VERTEX_BYTES = 16;
+
+    // stb_easy_font needs at most about this many bytes of vertices for each character
+    private static final int BYTES_PER_CHAR = 270;
+
+    private final Shader shader;
+    private final int vao, vbo, ibo;
+
+    private final Vector2f screen = new Vector2f();
+    private final ByteBuffer text = MemoryUtil.memAlloc(4), shadow = MemoryUtil.memAlloc(4);
+    private ByteBuffer vertices = MemoryUtil.memAlloc(64 << 10);
+    private int quads = 0, indexedQuads = 0;
+    private boolean changed = false;
+
+    public Overlay() {
+        shader = new Shader("overlay");
+        shader.addUniform("screen");
+        shader.addUniform("scale");
+
+        text.put(0, (byte) 255).put(1, (byte) 255).put(2, (byte) 255).put(3, (byte) 255);
+        shadow.put(0, (byte) 0).put(1, (byte) 0).put(2, (byte) 0).put(3, (byte) 192);
+
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+
+        vbo = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glVertexAttribPointer(0, 2, GL_FLOAT, false, VERTEX_BYTES, 0);
+        glVertexAttribPointer(1, 4, GL_UNSIGNED_BYTE, true, VERTEX_BYTES, 12);
+        glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+
+        ibo = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
+
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Replace the text shown
+     * @param lines The lines of text, from the top down
+     */
+    public void setText(List<String> lines) {
+        int chars = 0;
+        for (String line : lines) chars += line.length();
+
+        // Every character is laid out twice, once for its shadow
+        int capacity = chars * BYTES_PER_CHAR * 2;
+        if (vertices.capacity() < capacity) vertices = MemoryUtil.memRealloc(vertices, capacity);
+        vertices.clear();
+
+        quads = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            float y = MARGIN + i * LINE_HEIGHT;
+            quads += print(MARGIN + 0.5f, y + 0.5f, lines.get(i), shadow);
+            quads += print(MARGIN, y, lines.get(i), text);
+        }
+
+        changed = true;
+    }
+
+    private int print(float x, float y, String line, ByteBuffer colour) {
+        int n = stb_easy_font_print(x, y, line, colour, vertices);
+        vertices.position(vertices.position() + n * 4 * VERTEX_BYTES);
+        return n;
+    }
+
+    /**
+     * Draw the text over whatever has been drawn so far
+     * @param width The width of the framebuffer, in pixels
+     * @param height The height of the framebuffer, in pixels
+     */
+    public void render(float width, float height) {
+        if (quads == 0) return;
+
+        glBindVertexArray(vao);
+        if (changed) upload();
+
+        glDisable(GL_DEPTH_TEST);
+        glDisable(GL_CULL_FACE);
+
+        shader.bind();
+            shader.setUniform("screen", screen.set(width, height));
+            shader.setUniform("scale", SCALE);
+            glDrawElements(GL_TRIANGLES, quads * 6, GL_UNSIGNED_INT, 0);
+        Shader.unbind();
+
+        glEnable(GL_CULL_FACE);
+        glEnable(GL_DEPTH_TEST);
+        glBindVertexArray(0);
+    }
+
+    private void upload() {
+        vertices.flip();
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        vertices.clear();
+
+        // Every quad is two triangles, so the indices only change when there are more quads than before
+        if (quads > indexedQuads) {
+            indexedQuads = Math.max(quads, indexedQuads * 2);
+
+            IntBuffer indices = MemoryUtil.memAllocInt(indexedQuads * 6);
+            for (int q = 0; q < indexedQuads; q++) {
+                int v = q * 4;
+                indices.put(v).put(v + 1).put(v + 2).put(v).put(v + 2).put(v + 3);
+            }
+            indices.flip();
+
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+            MemoryUtil.memFree(indices);
+        }
+
+        changed = false;
+    }
+
+    public void cleanup() {
+        glDeleteBuffers(vbo);
+        glDeleteBuffers(ibo);
+        glDeleteVertexArrays(vao);
+        MemoryUtil.memFree(vertices);
+        MemoryUtil.memFree(text);
+        MemoryUtil.memFree(shadow);
+    }
+}
@@ -0,0 +1,107 @@
+package com.screendead.minedaft.graphics;
+
+import com.screendead.minedaft.world.Chunk;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * Everything the GL thread needs from a tick to draw frames: where the camera was before and
+ * after the tick, and the sections it could see. The simulation thread fills one in at the end of
+ * every tick and publishes it through a {@link com.screendead.minedaft.performance.TripleBuffer},
+ * so neither thread ever reads one while the other is writing it.
+ */
+public class RenderState {
+    // The number of the tick, when it was due, and how long each tick is, in nanoseconds
+    public long tick, time, tickNanos;
+
+    // GL work posted by the simulation up to this state, which must be run before drawing it
+    public long epoch;
+
+    // Which chunk manager poll this state follows
+    public long polls;
+
+    // Where the camera was and which way it looked before and after the tick
+    public final Vector3f lastPos = new Vector3f(), pos = new Vector3f();
+    public final Vector3f lastLook = new Vector3f(), look = new Vector3f(), up = new Vector3f();
+    public float fov;
+
+    // The camera's chunk
+    public int cx, cz;
+
+    // The visible sections, nearest first
+    private Chunk[] chunks = new Chunk[1024];
+    private int[] subChunks = new int[1024];
+    private int count = 0;
+
+    // Read by the GL thread only
+    private final Vector3f framePos = new Vector3f(), frameLook = new Vector3f(), centre = new Vector3f();
+
+    /**
+     * Forget the visible sections, to list them again
+     */
+    public void clearSections() {
+        count = 0;
+    }
+
+    /**
+     * @param chunk The chunk the section belongs to
+     * @param subChunk The index of the section within its chunk, from the bottom up
+     */
+    public void addSection(Chunk chunk, int subChunk) {
+        if (count == chunks.length) {
+            chunks = Arrays.copyOf(chunks, count * 2);
+            subChunks = Arrays.copyOf(subChunks, count * 2);
+        }
+
+        chunks[count] = chunk;
+        subChunks[count++] = subChunk;
+    }
+
+    /**
+     * @return The number of visible sections
+     */
+    public int getSectionCount() {
+        return count;
+    }
+
+    /**
+     * @param i The index of a visible section, from 0 (nearest) to {@link #getSectionCount()}
+     * @return The chunk the section belongs to
+     */
+    public Chunk getChunk(int i) {
+        return chunks[i];
+    }
+
+    /**
+     * @param i The index of a visible section, from 0 (nearest) to {@link #getSectionCount()}
+     * @return The index of the section within its chunk, from the bottom up
+     */
+    public int getSubChunk(int i) {
+        return subChunks[i];
+    }
+
+    /**
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return How far the current time is past the tick, as a fraction of a tick from 0 to 1, for
+     * interpolating between the camera before and after it
+     */
+    public float getAlpha(long now) {
+        return Math.max(0.0f, Math.min(1.0f, (now - time) / (float) tickNanos));
+    }
+
+    /**
+     * Point a view matrix part of the way from the camera before the tick to the camera after it
+     * @param alpha How far between the two, from 0 to 1
+     * @param dest The matrix to set
+     * @return dest
+     */
+    public Matrix4f getView(float alpha, Matrix4f dest) {
+        lastPos.lerp(pos, alpha, framePos);
+        lastLook.lerp(look, alpha, frameLook);
+        if (frameLook.lengthSquared() < 1e-6f) frameLook.set(look);
+
+        return dest.setLookAt(framePos, framePos.add(frameLook.normalize(), centre), up);
+    }
+}
@@ -1,40 +1,81 @@
 package com.screendead.minedaft.graphics;
 
+import com.screendead.minedaft.world.BlockRegistry;
 import com.screendead.minedaft.world.World;
 import org.joml.Matrix4f;
 import org.lwjgl.opengl.GL;
 
+import java.util.List;
+
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_MULTISAMPLE;
 
 public class Renderer {
+    // Sub-allocate every chunk mesh from shared buffers and draw them all in one go
+    private static final boolean SHARED_BUFFERS = true;
+
+    // The width and height of each atlas tile, in pixels, as the shader expects
+    private static final int TILE_PIXELS = 16;
+
     private Shader shader;
+    private GeometryArena arena;
+    private Overlay overlay;
+    private boolean overlayVisible = false;
     World world;
     private float width = 0, height = 0;
+    private volatile float aspect = 1.0f;
 //    public Vector3f lampPos;
     private float fov = 100.0f;
     private int renderDistance;
 
-    Matrix4f view = new Matrix4f(), transform = new Matrix4f();
+    Matrix4f view = new Matrix4f(), transform = new Matrix4f(), camera = new Matrix4f();
 
     /**
      * Render to the framebuffer
+     * @param state The state of the last tick
+     * @param alpha How far the frame is between the camera before the tick and after it, from 0 to 1
      */
-    public void render(Camera camera) {
+    public void render(RenderState state, float alpha) {
+        if (state.fov != fov) {
+            fov = state.fov;
+            updateProjection();
+        }
+        state.getView(alpha, camera);
+
         // Clear the framebuffer
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
 
         // Update the camera in the shader
         shader.bind();
-            shader.setUniform("camera", camera.getMatrix());
+            shader.setUniform("camera", camera);
 //            shader.setUniform("viewPos", camera.pos);
 //            shader.setUniform("lampPos", lampPos);
         Shader.unbind();
 
         // Render the chunk mesh
         shader.bind();
-            world.render(view, transform, camera.getMatrix());
+            world.render(state, view, transform, camera);
+            Mesh.renderQueued();
         Shader.unbind();
+
+        if (overlayVisible) overlay.render(width, height);
+    }
+
+    /**
+     * Load the texture atlas, drawing the block textures given as images into the tiles the
+     * block registry set aside for them
+     */
+    private static Image loadAtlas() {
+        int count = BlockRegistry.getImageCount();
+        String[] images = new String[count];
+        int[] x = new int[count], y = new int[count];
+        for (int i = 0; i < count; i++) {
+            images[i] = "block/" + BlockRegistry.getImage(i) + ".png";
+            x[i] = BlockRegistry.getImageTileU(i) * TILE_PIXELS;
+            y[i] = BlockRegistry.getImageTileV(i) * TILE_PIXELS;
+        }
+
+        return new Image("texture_map.png", images, TILE_PIXELS, x, y);
     }
 
     /**
@@ -60,12 +101,17 @@ public class Renderer {
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
         // Create texture and shader
-        Mesh.setGlobalTexture(new Image("texture_map.png"));
+        Mesh.setGlobalTexture(loadAtlas());
         shader = new Shader("basic");
         shader.addUniform("view");
         shader.addUniform("transform");
         shader.addUniform("camera");
         shader.addUniform("tex");
+        if (SHARED_BUFFERS) {
+            arena = new GeometryArena();
+            Mesh.setGlobalArena(arena);
+        }
+        overlay = new Overlay();
 //        shader.addUniform("viewPos");
 //        shader.addUniform("lampPos");
 
@@ -94,14 +140,17 @@ public class Renderer {
     public void setViewport(float width, float height) {
         this.width = width;
         this.height = height;
+        this.aspect = width / height;
 
         // Set the viewport
         glViewport(0, 0, (int) width, (int) height);
 
+        updateProjection();
+    }
+
+    private void updateProjection() {
         // Set the viewMatrix
-        view = new Matrix4f()
-                .perspective((float) Math.toRadians(fov),
-                width / height, 0.01f, renderDistance * (float) Math.sqrt(512));
+        view = perspective(fov, width / height, world.getViewDistance(), new Matrix4f());
 
         // Update the viewMatrix in the shader
         shader.bind();
@@ -110,11 +159,22 @@ public class Renderer {
     }
 
     /**
-     * Set the FOV and update the view matrix accordingly
-     * @param fov The field of view in degrees.
+     * Set a matrix to the projection used to draw the world
+     * @param fov The vertical field of view, in degrees
+     * @param aspect The width of the viewport divided by its height
+     * @param viewDistance How far, in chunks, terrain is drawn
+     * @param dest The matrix to set
+     * @return dest
      */
-    public void setFOV(float fov) {
-        this.fov = fov;
+    public static Matrix4f perspective(float fov, float aspect, int viewDistance, Matrix4f dest) {
+        return dest.setPerspective((float) Math.toRadians(fov), aspect, 0.01f, viewDistance * (float) Math.sqrt(512));
+    }
+
+    /**
+     * @return The width of the viewport divided by its height. Safe to call from any thread.
+     */
+    public float getAspect() {
+        return aspect;
     }
 
     /**
@@ -141,7 +201,23 @@ public class Renderer {
         Shader.unbind();
     }
 
+    /**
+     * Show or hide the text overlay
+     */
+    public void toggleOverlay() {
+        overlayVisible = !overlayVisible;
+    }
+
+    /**
+     * @param lines The lines of text to show in the overlay, from the top down
+     */
+    public void setOverlayText(List<String> lines) {
+        overlay.setText(lines);
+    }
+
     public void cleanup() {
         world.cleanup();
+        overlay.cleanup();
+        if (arena != null) arena.cleanup();
     }
 }
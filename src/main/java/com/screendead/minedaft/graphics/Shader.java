@@ -49,9 +49,7 @@ public class Shader {
         glAttachShader(program, frag);
 
         // Set locations for data to be sent to the vertex shader
-        glBindAttribLocation(program, 0, "position");
-        glBindAttribLocation(program, 1, "normals");
-        glBindAttribLocation(program, 2, "tex_coords");
+        glBindAttribLocation(program, 0, "vertex");
 
         glBindVertexArray(glGenVertexArrays());
         // Link and validate the shaders
@@ -0,0 +1,163 @@
+package com.screendead.minedaft.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+/**
+ * A staging buffer which stays mapped for its whole life, used as a ring. Data bound for the GPU
+ * is copied into the mapping with a plain memory copy, then the GPU copies it on to its final
+ * buffer itself, so uploads never make the driver allocate or wait for a buffer to be free.
+ * Each frame's writes are covered by a fence, and space is only reused once the GPU has passed
+ * that fence; as the ring holds several frames of uploads, that has almost always happened
+ * already. Needs OpenGL 4.4 for persistently mapped buffer storage.
+ */
+public class StagingRing {
+    // The most frames that can be in flight before the oldest has to be waited for
+    private static final int MAX_FENCES = 8;
+    private static final long WAIT_NANOS = 1_000_000_000L;
+
+    private final int buffer;
+    private final long size, address;
+
+    private long head = 0, used = 0, unfenced = 0;
+
+    // The fences of past frames, oldest first, and how many bytes of the ring each covers
+    private final long[] fences = new long[MAX_FENCES];
+    private final long[] fencedBytes = new long[MAX_FENCES];
+    private int oldest = 0, fenceCount = 0;
+
+    private int stalls = 0;
+
+    /**
+     * Create and map the ring. Must be called on the main thread.
+     * @param size The size of the ring, in bytes
+     */
+    public StagingRing(long size) {
+        this.size = size;
+
+        int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+        buffer = glGenBuffers();
+        glBindBuffer(GL_COPY_READ_BUFFER, buffer);
+        glBufferStorage(GL_COPY_READ_BUFFER, size, flags);
+        ByteBuffer mapping = glMapBufferRange(GL_COPY_READ_BUFFER, 0, size, flags);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+
+        if (mapping == null) throw new IllegalStateException("Failed to map staging buffer");
+        address = MemoryUtil.memAddress(mapping);
+    }
+
+    /**
+     * Copy data into a buffer through the ring
+     * @param data The data to copy, from its position to its limit
+     * @param target The buffer to copy into
+     * @param offset Where in the target buffer to copy to, in bytes
+     * @return Whether the data was copied. Data bigger than the ring has to be uploaded some other way.
+     */
+    public boolean copy(IntBuffer data, int target, long offset) {
+        long bytes = (long) data.remaining() * Integer.BYTES;
+        if (bytes > size) return false;
+
+        long start = reserve(bytes);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), address + start, bytes);
+
+        glBindBuffer(GL_COPY_READ_BUFFER, buffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, target);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, start, offset, bytes);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        return true;
+    }
+
+    /**
+     * Place a fence after everything copied since the last one. Call once a frame, after the
+     * frame's uploads.
+     */
+    public void fence() {
+        if (unfenced == 0) return;
+        if (fenceCount == MAX_FENCES) waitOldest();
+
+        int i = (oldest + fenceCount) % MAX_FENCES;
+        fences[i] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        fencedBytes[i] = unfenced;
+        fenceCount++;
+        unfenced = 0;
+    }
+
+    /**
+     * @return The number of times a copy had to wait for the GPU to free space
+     */
+    public int getStalls() {
+        return stalls;
+    }
+
+    /**
+     * Unmap and delete the ring
+     */
+    public void cleanup() {
+        while (fenceCount > 0) {
+            glDeleteSync(fences[oldest]);
+            oldest = (oldest + 1) % MAX_FENCES;
+            fenceCount--;
+        }
+
+        glBindBuffer(GL_COPY_READ_BUFFER, buffer);
+        glUnmapBuffer(GL_COPY_READ_BUFFER);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glDeleteBuffers(buffer);
+    }
+
+    /**
+     * @return The offset of a free run of the given length, waiting for the GPU if there isn't one
+     */
+    private long reserve(long bytes) {
+        while (true) {
+            while (fenceCount > 0 && signalled(fences[oldest], 0)) retireOldest();
+            if (used == 0) head = 0;
+
+            // Skip the tail of the ring rather than splitting the data around the end
+            long skipped = (head + bytes > size) ? size - head : 0;
+            if (used + skipped + bytes <= size) {
+                long start = (skipped > 0) ? 0 : head;
+                used += skipped + bytes;
+                unfenced += skipped + bytes;
+                head = start + bytes;
+
+                return start;
+            }
+
+            if (fenceCount == 0) fence();
+            waitOldest();
+        }
+    }
+
+    private void waitOldest() {
+        stalls++;
+        while (!signalled(fences[oldest], WAIT_NANOS)) {
+            // Keep waiting; the copies can't be abandoned
+        }
+        retireOldest();
+    }
+
+    private void retireOldest() {
+        glDeleteSync(fences[oldest]);
+        used -= fencedBytes[oldest];
+        oldest = (oldest + 1) % MAX_FENCES;
+        fenceCount--;
+    }
+
+    private static boolean signalled(long fence, long timeout) {
+        int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, timeout);
+        if (result == GL_WAIT_FAILED) throw new IllegalStateException("Failed to wait for staging fence");
+
+        return result == GL_ALREADY_SIGNALED || result == GL_CONDITION_SATISFIED;
+    }
+}
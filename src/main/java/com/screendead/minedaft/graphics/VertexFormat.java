@@ -0,0 +1,98 @@
+package com.screendead.minedaft.graphics;
+
+/**
+ * The packed vertex layout of chunk meshes: two 32-bit words (8 bytes) per vertex,
+ * decoded again in basic.vert.
+ *
+ * <pre>
+ * word 0:  bits  0-4   X within the sub-chunk (0-16)
+ *          bits  5-9   Y within the sub-chunk (0-16)
+ *          bits 10-14  Z within the sub-chunk (0-16)
+ *          bits 15-17  face direction (0-5, +Z -Z +X -X +Y -Y)
+ *          bits 18-22  U position within the face, in blocks (0-16)
+ *          bits 23-27  V position within the face, in blocks (0-16)
+ * word 1:  bits  0-7   atlas tile column
+ *          bits  8-15  atlas tile row
+ *          bits 16-19  block light in front of the face (0-15)
+ *          bits 20-23  sky light in front of the face (0-15)
+ * </pre>
+ */
+public final class VertexFormat {
+    public static final int WORDS = 2;
+    public static final int BYTES = WORDS * Integer.BYTES;
+
+    private static final int POSITION_MASK = 31, FACE_MASK = 7, UV_MASK = 31, TILE_MASK = 255, LIGHT_MASK = 255;
+    private static final int Y_SHIFT = 5, Z_SHIFT = 10, FACE_SHIFT = 15, U_SHIFT = 18, V_SHIFT = 23;
+    private static final int TILE_V_SHIFT = 8, LIGHT_SHIFT = 16;
+
+    private VertexFormat() {}
+
+    /**
+     * Pack the geometry word of a vertex
+     * @param x The X position within the sub-chunk
+     * @param y The Y position within the sub-chunk
+     * @param z The Z position within the sub-chunk
+     * @param face The face direction
+     * @param u The U position within the face, in blocks
+     * @param v The V position within the face, in blocks
+     * @return The packed word
+     */
+    public static int packGeometry(int x, int y, int z, int face, int u, int v) {
+        if ((x | y | z | u | v) < 0 || x > 16 || y > 16 || z > 16 || u > 16 || v > 16 || face < 0 || face > 5)
+            throw new IllegalArgumentException("Vertex out of range: " + x + ", " + y + ", " + z + " face " + face + " uv " + u + ", " + v);
+
+        return x | (y << Y_SHIFT) | (z << Z_SHIFT) | (face << FACE_SHIFT) | (u << U_SHIFT) | (v << V_SHIFT);
+    }
+
+    /**
+     * Pack the texture word of a vertex
+     * @param tileU The column of the atlas tile
+     * @param tileV The row of the atlas tile
+     * @param light The light in front of the face, packed as described by {@link com.screendead.minedaft.world.Light}
+     * @return The packed word
+     */
+    public static int packTexture(int tileU, int tileV, int light) {
+        if (((tileU | tileV) & ~TILE_MASK) != 0)
+            throw new IllegalArgumentException("Atlas tile out of range: " + tileU + ", " + tileV);
+        if ((light & ~LIGHT_MASK) != 0)
+            throw new IllegalArgumentException("Light out of range: " + light);
+
+        return tileU | (tileV << TILE_V_SHIFT) | (light << LIGHT_SHIFT);
+    }
+
+    public static int getX(int geometry) {
+        return geometry & POSITION_MASK;
+    }
+
+    public static int getY(int geometry) {
+        return (geometry >>> Y_SHIFT) & POSITION_MASK;
+    }
+
+    public static int getZ(int geometry) {
+        return (geometry >>> Z_SHIFT) & POSITION_MASK;
+    }
+
+    public static int getFace(int geometry) {
+        return (geometry >>> FACE_SHIFT) & FACE_MASK;
+    }
+
+    public static int getU(int geometry) {
+        return (geometry >>> U_SHIFT) & UV_MASK;
+    }
+
+    public static int getV(int geometry) {
+        return (geometry >>> V_SHIFT) & UV_MASK;
+    }
+
+    public static int getTileU(int texture) {
+        return texture & TILE_MASK;
+    }
+
+    public static int getTileV(int texture) {
+        return (texture >>> TILE_V_SHIFT) & TILE_MASK;
+    }
+
+    public static int getLight(int texture) {
+        return (texture >>> LIGHT_SHIFT) & LIGHT_MASK;
+    }
+}
@@ -2,8 +2,9 @@ package com.screendead.minedaft.graphics;
 
 import com.screendead.minedaft.Input;
 import com.screendead.minedaft.Minedaft;
+import com.screendead.minedaft.performance.TripleBuffer;
+import com.screendead.minedaft.world.World;
 import org.joml.Vector2i;
-import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWImage;
@@ -13,6 +14,7 @@ import org.lwjgl.system.MemoryStack;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 
@@ -30,7 +32,10 @@ public class Window {
     private long monitor;
     private GLFWVidMode v;
     private int vsync;
-    private Camera camera;
+    private boolean fullscreenKey = false, overlayKey = false;
+
+    // The states published by the simulation thread after each tick, drawn by this one
+    private final TripleBuffer<RenderState> states = new TripleBuffer<>(RenderState::new);
 
     public Window(String title, int width, int height, boolean isFullscreen, boolean vsyncEnabled) {
         vsync = (vsyncEnabled) ? 1 : 0;
@@ -96,8 +101,9 @@ public class Window {
         // Make the OpenGL context current
         glfwMakeContextCurrent(handle);
         renderer.init();
-
-        camera = new Camera(new Vector3f(0.0f, 32.0f, 0.0f));
+        renderer.setTransform(0, 0, 0,
+                0, 0, 0,
+                1.0f, 1.0f, 1.0f);
 
         this.autoViewport();
 
@@ -152,47 +158,19 @@ public class Window {
     }
 
     /**
-     * Update the game
+     * Handle the keys which control the window, rather than the game. Call on the main thread,
+     * after polling events.
      */
-    public void update(int ticks) {
-        if (input.keys[GLFW_KEY_ESCAPE])
+    public void update() {
+        if (key(GLFW_KEY_ESCAPE))
             glfwSetWindowShouldClose(handle, true);
-        else if (input.keys[GLFW_KEY_F])
+        else if (key(GLFW_KEY_F) && !fullscreenKey)
             this.toggleFullscreen();
+        fullscreenKey = key(GLFW_KEY_F);
 
-        if (key(GLFW_KEY_W))
-            camera.move((key(GLFW_KEY_LEFT_CONTROL)) ? 2 : 1, 0, 0);
-        if (key(GLFW_KEY_A))
-            camera.move(0, 0, 1);
-        if (key(GLFW_KEY_S))
-            camera.move(-1, 0, 0);
-        if (key(GLFW_KEY_D))
-            camera.move(0, 0, -1);
-        if (key(GLFW_KEY_SPACE))
-            camera.move(0, 1, 0);
-        if (key(GLFW_KEY_LEFT_SHIFT))
-            camera.move(0, -1, 0);
-
-        camera.zoom(key(GLFW_KEY_C));
-
-        camera.update(input.dx, input.dy);
-        input.dx = input.dy = 0;
-
-        if (camera.zoomed) renderer.setFOV(30.0f);
-        else renderer.setFOV(100.0f);
-        this.autoViewport();
-
-//        renderer.lampPos = camera.pos;
-
-        renderer.setTransform(0, 0, 0,
-                    0, 0, 0,
-                    1.0f, 1.0f, 1.0f);
-
-        int cx = (int) camera.pos.x >> 4;
-        int cz = (int) camera.pos.z >> 4;
-
-        renderer.world.update(cx, cz);
-        if (ticks % 8 == 0) renderer.world.poll(cx, cz);
+        // Toggle the metrics overlay once for each press
+        if (key(GLFW_KEY_F3) && !overlayKey) renderer.toggleOverlay();
+        overlayKey = key(GLFW_KEY_F3);
     }
 
     /**
@@ -200,14 +178,15 @@ public class Window {
      * @param key The GLFW key ID
      */
     private boolean key(int key) {
-        return input.keys[key];
+        return input.isDown(key);
     }
 
     /**
-     * Use the renderer to draw to the window
+     * Use the renderer to draw the newest state published to the window
      */
     public void render() {
-        renderer.render(camera);
+        RenderState state = states.acquire();
+        renderer.render(state, state.getAlpha(System.nanoTime()));
 
         // Draw buffer to the screen
         glfwSwapBuffers(handle);
@@ -245,7 +224,6 @@ public class Window {
         Vector2i size = this.getFrameBufferSize();
 
         renderer.setViewport(size.x, size.y);
-        renderer.render(camera);
     }
 
     /**
@@ -303,6 +281,48 @@ public class Window {
         return new Vector2i(x[0], y[0]);
     }
 
+    /**
+     * @return A one-line summary of chunk loading and mesh uploads
+     */
+    public String getStatistics() {
+        return renderer.world.getStatistics();
+    }
+
+    /**
+     * @param lines The lines of text to show in the overlay toggled with F3, from the top down
+     */
+    public void setOverlayText(List<String> lines) {
+        renderer.setOverlayText(lines);
+    }
+
+    /**
+     * @return The keyboard and mouse
+     */
+    public Input getInput() {
+        return input;
+    }
+
+    /**
+     * @return The world drawn in the window
+     */
+    public World getWorld() {
+        return renderer.world;
+    }
+
+    /**
+     * @return Where the simulation thread publishes the state to draw after each tick
+     */
+    public TripleBuffer<RenderState> getStates() {
+        return states;
+    }
+
+    /**
+     * @return The width of the viewport divided by its height. Safe to call from any thread.
+     */
+    public float getAspect() {
+        return renderer.getAspect();
+    }
+
     /**
      * @return handle The handle of the window
      */
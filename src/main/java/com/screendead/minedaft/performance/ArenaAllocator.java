@@ -0,0 +1,178 @@
+package com.screendead.minedaft.performance;
+
+import java.util.Arrays;
+
+/**
+ * Hands out ranges of one large buffer, keeping the unused ranges in a free list sorted by
+ * position. Allocation takes the first free range big enough; freeing merges the range with any
+ * free neighbours so the space can be reused. Sizes are in whatever unit the caller chooses.
+ * Knows nothing about what the buffer holds, so it can be used for any kind of storage.
+ * Not thread-safe.
+ */
+public class ArenaAllocator {
+    private int capacity, used = 0;
+
+    // Free ranges, sorted by offset and never touching one another
+    private int[] freeOffsets = new int[64], freeSizes = new int[64];
+    private int freeCount = 0;
+
+    /**
+     * @param capacity The size of the buffer
+     */
+    public ArenaAllocator(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Negative capacity: " + capacity);
+
+        this.capacity = capacity;
+        reset();
+    }
+
+    /**
+     * @param size The size of the range to allocate
+     * @return The offset of the range, or -1 if no free range is big enough
+     */
+    public int allocate(int size) {
+        if (size <= 0) throw new IllegalArgumentException("Allocation size must be positive: " + size);
+
+        for (int i = 0; i < freeCount; i++) {
+            if (freeSizes[i] < size) continue;
+
+            int offset = freeOffsets[i];
+            if (freeSizes[i] == size) {
+                removeFree(i);
+            } else {
+                freeOffsets[i] += size;
+                freeSizes[i] -= size;
+            }
+
+            used += size;
+            return offset;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Return a range to the free list
+     * @param offset The offset the range was allocated at
+     * @param size The size the range was allocated with
+     */
+    public void free(int offset, int size) {
+        if (size <= 0 || offset < 0 || offset + size > capacity)
+            throw new IllegalArgumentException("Not an allocated range: " + offset + " + " + size);
+
+        // The first free range after this one
+        int i = search(offset);
+        if ((i > 0 && freeOffsets[i - 1] + freeSizes[i - 1] > offset) || (i < freeCount && offset + size > freeOffsets[i]))
+            throw new IllegalStateException("Range " + offset + " + " + size + " is already free");
+
+        used -= size;
+
+        boolean joinsPrevious = i > 0 && freeOffsets[i - 1] + freeSizes[i - 1] == offset;
+        boolean joinsNext = i < freeCount && offset + size == freeOffsets[i];
+
+        if (joinsPrevious && joinsNext) {
+            freeSizes[i - 1] += size + freeSizes[i];
+            removeFree(i);
+        } else if (joinsPrevious) {
+            freeSizes[i - 1] += size;
+        } else if (joinsNext) {
+            freeOffsets[i] = offset;
+            freeSizes[i] += size;
+        } else {
+            insertFree(i, offset, size);
+        }
+    }
+
+    /**
+     * Enlarge the buffer, adding the new space to the end of the free list
+     * @param capacity The new size of the buffer
+     */
+    public void grow(int capacity) {
+        if (capacity < this.capacity) throw new IllegalArgumentException("Cannot shrink from " + this.capacity + " to " + capacity);
+        if (capacity == this.capacity) return;
+
+        int extra = capacity - this.capacity;
+        if (freeCount > 0 && freeOffsets[freeCount - 1] + freeSizes[freeCount - 1] == this.capacity) {
+            freeSizes[freeCount - 1] += extra;
+        } else {
+            insertFree(freeCount, this.capacity, extra);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Free everything at once. To compact the buffer, reset it and allocate every live range
+     * again, copying each into a fresh buffer at its new offset; they end up packed with no gaps.
+     */
+    public void reset() {
+        used = 0;
+        freeCount = 0;
+        if (capacity > 0) insertFree(0, 0, capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The total size of all allocated ranges
+     */
+    public int getUsed() {
+        return used;
+    }
+
+    /**
+     * @return The number of separate free ranges
+     */
+    public int getFreeRanges() {
+        return freeCount;
+    }
+
+    /**
+     * @return The size of the biggest allocation which would currently succeed
+     */
+    public int getLargestFree() {
+        int largest = 0;
+        for (int i = 0; i < freeCount; i++) largest = Math.max(largest, freeSizes[i]);
+        return largest;
+    }
+
+    /**
+     * @return How broken up the free space is, from 0 when it is all one range to nearly 1 when
+     * it is scattered in many small ones
+     */
+    public float getFragmentation() {
+        int free = capacity - used;
+        return (free == 0) ? 0 : 1 - (float) getLargestFree() / free;
+    }
+
+    // The index of the first free range at or after the offset
+    private int search(int offset) {
+        int lo = 0, hi = freeCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (freeOffsets[mid] < offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void insertFree(int i, int offset, int size) {
+        if (freeCount == freeOffsets.length) {
+            freeOffsets = Arrays.copyOf(freeOffsets, freeCount * 2);
+            freeSizes = Arrays.copyOf(freeSizes, freeCount * 2);
+        }
+
+        System.arraycopy(freeOffsets, i, freeOffsets, i + 1, freeCount - i);
+        System.arraycopy(freeSizes, i, freeSizes, i + 1, freeCount - i);
+        freeOffsets[i] = offset;
+        freeSizes[i] = size;
+        freeCount++;
+    }
+
+    private void removeFree(int i) {
+        System.arraycopy(freeOffsets, i + 1, freeOffsets, i, freeCount - i - 1);
+        System.arraycopy(freeSizes, i + 1, freeSizes, i, freeCount - i - 1);
+        freeCount--;
+    }
+}
@@ -0,0 +1,201 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.Chunk;
+import com.screendead.minedaft.world.ChunkCodec;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps chunks which have left the render distance, so a camera moving back and forth across
+ * the edge doesn't regenerate and re-mesh the same chunks over and over.
+ * <p>
+ * The hot tier holds chunks just outside the render distance exactly as they were, GPU meshes
+ * and all, and hands them straight back. Chunks that drift further away are dropped from the GPU
+ * and compressed into the warm tier, which is evicted least recently used first once it grows
+ * past its memory cap. The hot tier is simulation thread only; the warm tier may be loaded from any thread.
+ */
+public class ChunkCache {
+    private final Executor pool;
+
+    private final ChunkMap<Chunk> hot = new ChunkMap<>();
+
+    private final LinkedHashMap<Long, ByteBuffer> warm = new LinkedHashMap<>(64, 0.75f, true);
+    private long warmBytes = 0, warmCapacity;
+
+    private final AtomicLong hotHits = new AtomicLong(), warmHits = new AtomicLong(), misses = new AtomicLong();
+
+    private long[] removals = new long[64];
+
+    /**
+     * @param pool The pool chunks are compressed on as they move to the warm tier
+     * @param warmCapacity The most compressed chunk data to keep in the warm tier, in bytes
+     */
+    public ChunkCache(Executor pool, long warmCapacity) {
+        this.pool = pool;
+        this.warmCapacity = warmCapacity;
+    }
+
+    /**
+     * Keep a chunk which has just left the render distance in the hot tier
+     * @param c The chunk
+     */
+    public void retain(Chunk c) {
+        hot.put(c.cx, c.cz, c);
+    }
+
+    /**
+     * Take a chunk back out of the hot tier
+     * @return The chunk, with any meshes it had, or null if it isn't in the hot tier
+     */
+    public Chunk reclaim(int cx, int cz) {
+        Chunk c = hot.remove(cx, cz);
+        if (c != null) hotHits.incrementAndGet();
+        return c;
+    }
+
+    /**
+     * @return The chunk in the hot tier, which is left there, or null if it isn't in the hot tier
+     */
+    public Chunk getHot(int cx, int cz) {
+        return hot.get(cx, cz);
+    }
+
+    /**
+     * Move every hot chunk at least the given distance from the camera to the warm tier
+     * @param cx The X position of the camera, in chunk co-ordinates
+     * @param cz The Z position of the camera, in chunk co-ordinates
+     * @param radius The distance, in chunks, beyond which chunks leave the hot tier
+     * @param release Given each chunk leaving the hot tier, to delete its meshes
+     */
+    public void evict(int cx, int cz, int radius, Consumer<Chunk> release) {
+        int count = 0;
+        for (int i = 0; i < hot.capacity(); i++) {
+            if (!hot.occupied(i)) continue;
+
+            long key = hot.keyAt(i);
+            int x = ChunkMap.keyX(key) - cx, z = ChunkMap.keyZ(key) - cz;
+            if (x * x + z * z < radius * radius) continue;
+
+            if (count == removals.length) removals = Arrays.copyOf(removals, count * 2);
+            removals[count++] = key;
+        }
+
+        for (int i = 0; i < count; i++) {
+            Chunk c = hot.remove(removals[i]);
+            release.accept(c);
+
+            pool.execute(() -> store(c.cx, c.cz, ChunkCodec.encode(c)));
+        }
+    }
+
+    /**
+     * Take a chunk out of the warm tier. Safe to call from any thread.
+     * @return The chunk, without meshes, or null if it isn't in the warm tier
+     */
+    public Chunk load(int cx, int cz) {
+        ByteBuffer data;
+        synchronized (warm) {
+            data = warm.remove(ChunkMap.key(cx, cz));
+            if (data != null) warmBytes -= data.remaining();
+        }
+
+        if (data == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            warmHits.incrementAndGet();
+            return ChunkCodec.decode(cx, cz, data);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    private void store(int cx, int cz, ByteBuffer data) {
+        synchronized (warm) {
+            ByteBuffer old = warm.put(ChunkMap.key(cx, cz), data);
+            warmBytes += data.remaining();
+            if (old != null) {
+                warmBytes -= old.remaining();
+                MemoryUtil.memFree(old);
+            }
+
+            // Least recently used first
+            Iterator<Map.Entry<Long, ByteBuffer>> it = warm.entrySet().iterator();
+            while (warmBytes > warmCapacity && it.hasNext()) {
+                ByteBuffer evicted = it.next().getValue();
+                it.remove();
+                warmBytes -= evicted.remaining();
+                MemoryUtil.memFree(evicted);
+            }
+        }
+    }
+
+    /**
+     * @param bytes The most compressed chunk data to keep in the warm tier, in bytes
+     */
+    public void setWarmCapacity(long bytes) {
+        synchronized (warm) {
+            this.warmCapacity = bytes;
+        }
+    }
+
+    /**
+     * Delete every hot chunk's meshes and free the warm tier. Must be called on the GL thread.
+     */
+    public void cleanup() {
+        for (int i = 0; i < hot.capacity(); i++) {
+            if (hot.occupied(i)) hot.valueAt(i).cleanup();
+        }
+        hot.clear();
+
+        synchronized (warm) {
+            for (ByteBuffer data : warm.values()) MemoryUtil.memFree(data);
+            warm.clear();
+            warmBytes = 0;
+        }
+    }
+
+    public int getHotSize() {
+        return hot.size();
+    }
+
+    public int getWarmSize() {
+        synchronized (warm) {
+            return warm.size();
+        }
+    }
+
+    /**
+     * @return The compressed size of the warm tier, in bytes
+     */
+    public long getWarmBytes() {
+        synchronized (warm) {
+            return warmBytes;
+        }
+    }
+
+    public long getHotHits() {
+        return hotHits.get();
+    }
+
+    public long getWarmHits() {
+        return warmHits.get();
+    }
+
+    /**
+     * @return The number of chunks which were in neither tier when loaded
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
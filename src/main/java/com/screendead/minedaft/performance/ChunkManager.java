@@ -1,34 +1,168 @@
 package com.screendead.minedaft.performance;
 
+import com.screendead.minedaft.graphics.MeshData;
+import com.screendead.minedaft.graphics.RenderState;
+import com.screendead.minedaft.world.BlockType;
 import com.screendead.minedaft.world.Chunk;
+import com.screendead.minedaft.world.ChunkNeighbourhood;
+import com.screendead.minedaft.world.ChunkStorage;
+import com.screendead.minedaft.world.SectionBounds;
 import org.joml.Matrix4f;
 import org.joml.Vector3i;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
+/**
+ * Loads, generates and meshes the chunks around the camera, and draws them. Split across two
+ * threads: the simulation thread calls {@link #update}, {@link #poll} and {@link #cull} each tick,
+ * which own the loaded chunks and decide what is visible, while the GL thread calls
+ * {@link #render}, which owns the GPU side of things: mesh uploads, deleting meshes and the
+ * distant terrain. GL work the simulation thread needs done is posted to the GL thread tagged
+ * with the epoch of the next state to be culled, and runs just before that state is drawn.
+ */
 public class ChunkManager {
+    private static final long UPLOAD_BUDGET_NANOS = 2_000_000, UPLOAD_BUDGET_BYTES = 4 << 20;
+    private static final long WARM_CACHE_BYTES = 64 << 20;
+
+    // How far, in chunks, past the render distance chunks keep their meshes
+    private static final int HOT_MARGIN = 4;
+
+    private static final Histogram GENERATE = Metrics.histogram("chunk.generate"), LOAD = Metrics.histogram("chunk.load"),
+            MESH = Metrics.histogram("chunk.mesh"), LIGHT = Metrics.histogram("chunk.light"),
+            RELIGHT = Metrics.histogram("light.update");
+
+    private static class Meshed {
+        final Chunk chunk;
+        final int subChunks;
+        final MeshData[] data;
+        final long[] connectivity;
+        final int[] bounds;
+        final Throwable error;
+
+        Meshed(Chunk chunk, int subChunks, MeshData[] data, long[] connectivity, int[] bounds, Throwable error) {
+            this.chunk = chunk;
+            this.subChunks = subChunks;
+            this.data = data;
+            this.connectivity = connectivity;
+            this.bounds = bounds;
+            this.error = error;
+        }
+    }
+
     int renderDistance;
-    private final List<int[]> generated = new ArrayList<>();
-    public volatile List<Chunk> data = new ArrayList<>();
+    private final ChunkMap<Chunk> data = new ChunkMap<>();
     ExecutorService pool;
-    List<int[]> locations = new ArrayList<>();
-    List<Future<Chunk>> futures = new ArrayList<>();
+    private final ChunkScheduler<Chunk> scheduler;
+    private final ChunkStorage storage;
+    private final ChunkCache cache;
+    private final LodManager lod;
+    private final LongAdder loaded = Metrics.counter("chunks.loaded"), generated = Metrics.counter("chunks.generated");
+
+    // Sub-chunks meshed, and those skipped for being all air or for having no face which could be seen
+    private final LongAdder meshedSections = Metrics.counter("sections.meshed"), emptySections = Metrics.counter("sections.empty"),
+            hiddenSections = Metrics.counter("sections.hidden");
+
+    // The gauges this manager registered, to remove when it is cleaned up
+    private final Map<String, LongSupplier> gauges = new HashMap<>();
+
+    // Chunks being meshed on the pool, and the finished mesh data waiting to be collected
+    private final ChunkMap<Chunk> meshing = new ChunkMap<>();
+    private final ConcurrentLinkedQueue<Meshed> meshed = new ConcurrentLinkedQueue<>();
+    private final UploadQueue uploads = new UploadQueue(UPLOAD_BUDGET_NANOS, UPLOAD_BUDGET_BYTES);
+
+    // Chunks with sub-chunks edited since they were last meshed
+    private final ChunkMap<Chunk> dirty = new ChunkMap<>();
+
+    // Keys to remove from a map once iteration over it has finished
+    private long[] removals = new long[64];
+
+    private final SectionCuller culler = new SectionCuller(data);
+
+    // Sub-chunks whose light changes are remeshed along with the edited ones
+    private final LightEngine light = new LightEngine(data, c -> dirty.put(c.cx, c.cz, c));
+
+    // GL work posted by the simulation thread, and the epoch it is posted in, which is the epoch
+    // of the next state culled
+    private final EpochQueue tasks = new EpochQueue();
+    private long epoch = 0, polls = 0;
 
     private final Vector3i camPos = new Vector3i();
     private final Matrix4f mx = new Matrix4f();
 
-    public ChunkManager(int renderDistance) {
+    // GL thread only: the frustum being drawn, and the state the distant terrain was last updated for
+    private final Matrix4f frustum = new Matrix4f();
+    private long distantEpoch = -1, distantPolls = 0;
+
+    /**
+     * @param renderDistance The radius, in chunks, to keep loaded around the camera
+     * @param storage Where chunks are loaded from and generated chunks saved to
+     */
+    public ChunkManager(int renderDistance, ChunkStorage storage) {
         this.renderDistance = renderDistance;
+        this.storage = storage;
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2 - 2);
+//        pool = Executors.newScheduledThreadPool(threads);
+        pool = Executors.newWorkStealingPool(threads);
+//        pool = Executors.newFixedThreadPool(threads);
+
+        // Keep enough work in flight to occupy every thread, but no more, so the queue can still be re-ordered
+        scheduler = new ChunkScheduler<>(pool, threads * 2, this::loadOrGenerate);
+        cache = new ChunkCache(pool, WARM_CACHE_BYTES);
+        lod = new LodManager(pool, Math.max(1, threads / 2), renderDistance);
+
+        gauge("chunks", data::size);
+        gauge("queue.generate", scheduler::getQueued);
+        gauge("queue.generating", scheduler::getInFlight);
+        gauge("queue.mesh", meshing::size);
+        gauge("queue.upload", uploads::getDepth);
+        gauge("queue.gl", tasks::size);
+        gauge("cache.hot", cache::getHotSize);
+        gauge("cache.warm", cache::getWarmSize);
+        gauge("storage.failures", storage::getFailures);
+    }
 
-//        pool = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() / 2 - 2);
-        pool = Executors.newWorkStealingPool(Runtime.getRuntime().availableProcessors() / 2 - 2);
-//        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() / 2 - 2);
+    private void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+        Metrics.gauge(name, value);
+    }
+
+    /**
+     * Load a chunk from the warm cache or storage, or generate and save it if it has never
+     * been saved, then light it on its own. Runs on the pool.
+     */
+    private Chunk loadOrGenerate(int cx, int cz) throws IOException {
+        long start = System.nanoTime();
+        Chunk c = cache.load(cx, cz);
+        if (c == null) {
+            c = storage.load(cx, cz);
+            if (c != null) loaded.increment();
+        }
+
+        if (c != null) {
+            LOAD.record(System.nanoTime() - start);
+        } else {
+            start = System.nanoTime();
+            c = Chunk.generate(cx, cz);
+            GENERATE.record(System.nanoTime() - start);
+
+            storage.save(c);
+            generated.increment();
+        }
+
+        start = System.nanoTime();
+        LightEngine.light(c);
+        LIGHT.record(System.nanoTime() - start);
+        return c;
     }
 
     public void generate() {
@@ -39,65 +173,351 @@ public class ChunkManager {
         camPos.x = cx;
         camPos.z = cz;
         smartGenAroundPlayer(cx, cz);
+        scheduler.update(cx, cz, renderDistance, mx);
+        remeshDirty();
+    }
+
+    /**
+     * @param x The X position, in block co-ordinates
+     * @param y The Y position, in block co-ordinates
+     * @param z The Z position, in block co-ordinates
+     * @return The block ID at that position, or air if its chunk isn't loaded
+     */
+    public int getBlock(int x, int y, int z) {
+        Chunk c = data.get(x >> 4, z >> 4);
+        if (c == null || y < 0 || y > 255) return BlockType.AIR.ordinal();
+
+        return c.getBlock(x & 15, y, z & 15);
+    }
+
+    /**
+     * Change a block, marking its sub-chunk for remeshing along with any neighbouring sub-chunk
+     * it touches. Edits are gathered up and remeshed once per tick.
+     * @param x The X position, in block co-ordinates
+     * @param y The Y position, in block co-ordinates
+     * @param z The Z position, in block co-ordinates
+     * @param id The new block ID
+     * @return Whether the block's chunk is loaded and so could be changed
+     */
+    public boolean setBlock(int x, int y, int z, int id) {
+        int cx = x >> 4, cz = z >> 4, lx = x & 15, lz = z & 15, s = y >> 4;
+        Chunk c = data.get(cx, cz);
+        if (c == null || y < 0 || y > 255) return false;
+        if (c.getBlock(lx, y, lz) == id) return true;
+
+        c.setBlock(lx, y, lz, id);
+        markDirty(cx, cz, s);
+
+        long start = System.nanoTime();
+        light.update(x, y, z);
+        RELIGHT.record(System.nanoTime() - start);
+
+        // Faces of the blocks next to this one may have been hidden or exposed
+        if ((y & 15) == 0 && s > 0) markDirty(cx, cz, s - 1);
+        if ((y & 15) == 15 && s < 15) markDirty(cx, cz, s + 1);
+        if (lx == 0) markDirty(cx - 1, cz, s);
+        if (lx == 15) markDirty(cx + 1, cz, s);
+        if (lz == 0) markDirty(cx, cz - 1, s);
+        if (lz == 15) markDirty(cx, cz + 1, s);
+
+        return true;
+    }
+
+    private void markDirty(int cx, int cz, int subChunk) {
+        Chunk c = data.get(cx, cz);
+        if (c == null) {
+            // A hot chunk still has the mesh it was drawn with, whose faces along the edit may now
+            // be wrong, so it is meshed again in full if it comes back
+            Chunk hot = cache.getHot(cx, cz);
+            if (hot != null) hot.setMeshed(false);
+            return;
+        }
+
+        c.markDirty(subChunk);
+        dirty.put(cx, cz, c);
+    }
+
+    /**
+     * Start one remesh job for each chunk with dirty sub-chunks, covering only those sub-chunks
+     */
+    private void remeshDirty() {
+        int count = 0;
+        for (int i = 0; i < dirty.capacity(); i++) {
+            if (!dirty.occupied(i)) continue;
+
+            Chunk c = dirty.valueAt(i);
+
+            // Wait for a job already in flight, as it was built from the blocks before the edit
+            if (meshing.contains(c.cx, c.cz)) continue;
+
+            // If the chunk hasn't been meshed yet, or can't be now, its first full mesh will include the edit
+            if (c.isMeshed() && !mesh(c, c.getDirty())) c.setMeshed(false);
+
+            c.takeDirty();
+            count = markForRemoval(count, dirty.keyAt(i));
+        }
+        for (int i = 0; i < count; i++) dirty.remove(removals[i]);
     }
 
     public void poll(int cx, int cz) {
-        if (futures.size() == 0) return;
-
-        for (int i = locations.size() - 1; i >= 0; i--) {
-            if (testCircle(locations.get(i)[0], locations.get(i)[1])
-                || testAABB(locations.get(i)[0], 128, locations.get(i)[1])) {
-                futures.get(i).cancel(true);
-                futures.remove(i);
-                locations.remove(i);
-            }
+        ChunkScheduler.Completion<Chunk> generated;
+        while ((generated = scheduler.poll()) != null) {
+            Chunk c = generated.result;
+            if (data.contains(c.cx, c.cz) || testCircle(c.cx, c.cz)) continue;
+
+            add(c);
         }
 
-        for (int i = futures.size() - 1; i >= 0; i--) {
-            if (!futures.get(i).isDone()) continue;
+        Meshed m;
+        while ((m = meshed.poll()) != null) {
+            if (m.error != null) throw new RuntimeException("Meshing chunk " + m.chunk.cx + ", " + m.chunk.cz + " failed", m.error);
 
-            try {
-                Chunk c = futures.get(i).get();
-                if (!contains(generated, c.cx, c.cz)) {
-                    data.add(c);
-                    generated.add(new int[]{c.cx, c.cz});
-                    locations.remove(indexOf(locations, c.cx, c.cz));
-                }
-                futures.remove(i);
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-                System.exit(1);
+            // Discard the data if the chunk was unloaded while it was being meshed
+            Chunk c = m.chunk;
+            if (meshing.get(c.cx, c.cz) != c) {
+                free(m.data);
+                continue;
+            }
+
+            meshing.remove(c.cx, c.cz);
+            c.setMeshed(true);
+            MeshData[] meshData = m.data;
+            tasks.post(epoch, () -> uploads.add(c, meshData));
+            for (int s = 0; s < 16; s++) {
+                if ((m.subChunks & (1 << s)) == 0) continue;
+
+                c.setConnectivity(s, m.connectivity[s]);
+                c.setBounds(s, m.bounds[s]);
             }
+            culler.invalidate();
         }
 
-        for (int i = data.size() - 1; i >= 0; i--) {
-            if (testCircle(data.get(i).cx, data.get(i).cz)) {
-                generated.remove(indexOf(generated, data.get(i).cx, data.get(i).cz));
-                data.remove(i);
+        int count = 0;
+        for (int i = 0; i < data.capacity(); i++) {
+            if (!data.occupied(i)) continue;
+
+            Chunk c = data.valueAt(i);
+            if (testCircle(c.cx, c.cz)) count = markForRemoval(count, data.keyAt(i));
+        }
+        for (int i = 0; i < count; i++) {
+            Chunk c = data.remove(removals[i]);
+            culler.remove(c);
+
+            // Meshes not yet finished are dropped, so the chunk is meshed again if it comes back.
+            // Those waiting to be uploaded still are, as it keeps its meshes in the hot tier.
+            if (meshing.remove(removals[i]) != null) c.setMeshed(false);
+
+            // Edited sub-chunks not yet remeshed mean the whole chunk is remeshed if it comes back
+            if (dirty.remove(removals[i]) != null && c.takeDirty() != 0) c.setMeshed(false);
+
+            if (c.isModified()) {
+                storage.save(c);
+                c.setModified(false);
             }
+
+            cache.retain(c);
         }
+
+        cache.evict(camPos.x, camPos.z, renderDistance + HOT_MARGIN, c -> tasks.post(epoch, () -> {
+            uploads.remove(c);
+            c.cleanup();
+        }));
+        polls++;
     }
 
-    public void render(Matrix4f view, Matrix4f transform, Matrix4f camera) {
-        this.mx.set(view)
-                .mul(transform)
-                .mul(camera);
+    /**
+     * Start rendering a chunk, let light flow between it and its neighbours, and mesh it and its
+     * neighbours if it completes their neighbourhoods
+     * @param c The chunk
+     */
+    private void add(Chunk c) {
+        data.put(c.cx, c.cz, c);
+        culler.add(c);
+        light.add(c);
+
+        queueMesh(c);
+        queueMesh(data.get(c.cx + 1, c.cz));
+        queueMesh(data.get(c.cx - 1, c.cz));
+        queueMesh(data.get(c.cx, c.cz + 1));
+        queueMesh(data.get(c.cx, c.cz - 1));
+    }
+
+    private int markForRemoval(int count, long key) {
+        if (count == removals.length) removals = Arrays.copyOf(removals, count * 2);
+        removals[count] = key;
+        return count + 1;
+    }
+
+    /**
+     * Mesh a chunk off the main thread once all four of its neighbours have been generated
+     * @param c The chunk to mesh, or null
+     */
+    private void queueMesh(Chunk c) {
+        if (c == null || c.isMeshed() || meshing.contains(c.cx, c.cz)) return;
+
+        mesh(c, 0xFFFF);
+    }
+
+    /**
+     * Mesh some sub-chunks of a chunk off the main thread
+     * @param c The chunk to mesh
+     * @param subChunks A bit mask of the sub-chunks to mesh, bit 0 being the bottom
+     * @return Whether all four of the chunk's neighbours are loaded, so meshing could start
+     */
+    private boolean mesh(Chunk c, int subChunks) {
+        Chunk posX = data.get(c.cx + 1, c.cz), negX = data.get(c.cx - 1, c.cz),
+                posZ = data.get(c.cx, c.cz + 1), negZ = data.get(c.cx, c.cz - 1);
+        if (posX == null || negX == null || posZ == null || negZ == null) return false;
+
+        ChunkNeighbourhood neighbours = ChunkNeighbourhood.of(c, posX, negX, posZ, negZ, subChunks);
+
+        meshing.put(c.cx, c.cz, c);
+        pool.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                MeshData[] data = c.generateMeshData(neighbours, subChunks);
 
-//        this.data.forEach(Chunk::render);
+                Chunk centre = neighbours.getCentre();
+                long[] connectivity = new long[16];
+                int[] bounds = new int[16];
+                for (int s = 0; s < 16; s++) {
+                    if ((subChunks & (1 << s)) == 0) continue;
 
-        this.data.forEach(chunk -> {
-            for (int y = 0; y < 16; y++) {
-                if (testAABB(chunk.cx, y, chunk.cz)) {
-                    chunk.render(y);
+                    connectivity[s] = centre.computeConnectivity(s);
+
+                    // Sections with nothing to draw get empty bounds, so culling drops them untested
+                    if (data[s] == MeshData.EMPTY) {
+                        bounds[s] = SectionBounds.EMPTY;
+                        (centre.isEmpty(s) ? emptySections : hiddenSections).increment();
+                    } else {
+                        bounds[s] = centre.computeBounds(s);
+                        meshedSections.increment();
+                    }
                 }
+
+                MESH.record(System.nanoTime() - start);
+                meshed.offer(new Meshed(c, subChunks, data, connectivity, bounds, null));
+            } catch (Throwable t) {
+                meshed.offer(new Meshed(c, subChunks, null, null, null, t));
+            } finally {
+                neighbours.release();
             }
-//
-////            Vector4f xz = new Vector4f(chunk.cx * 16 + 8, 128, chunk.cz * 16 + 8, 1);
-////            xz.mul(mx);
-////            if (mx.testPoint(xz.x, xz.y, xz.z)) {
-////                chunk.render();
-////            }
         });
+
+        return true;
+    }
+
+    private static void free(MeshData[] data) {
+        for (MeshData d : data) {
+            if (d != null) d.free();
+        }
+    }
+
+    /**
+     * @param nanos The time to spend uploading meshes each frame, in nanoseconds
+     * @param bytes The most mesh data to upload each frame, in bytes
+     */
+    public void setUploadBudget(long nanos, long bytes) {
+        uploads.setBudget(nanos, bytes);
+    }
+
+    /**
+     * @return The cache of chunks which have left the render distance
+     */
+    public ChunkCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return How far, in chunks, terrain is drawn, counting the distant low-detail rings
+     */
+    public int getViewDistance() {
+        return lod.getReach();
+    }
+
+    /**
+     * @return The loaded chunk at a position, in chunk co-ordinates, or null if it isn't loaded
+     */
+    Chunk getChunk(int cx, int cz) {
+        return data.get(cx, cz);
+    }
+
+    /**
+     * @return Whether every chunk in range has been loaded and meshed, and nothing is left to do
+     * off the main thread. Meshes may still be waiting to be uploaded.
+     */
+    boolean isSettled() {
+        return scheduler.getQueued() == 0 && scheduler.getInFlight() == 0 && meshing.isEmpty() && dirty.isEmpty() && lod.isSettled();
+    }
+
+    /**
+     * @return A one-line summary of the chunk pipeline. The peak upload time is since the last call.
+     */
+    public String getStatistics() {
+        return String.format("Chunks: %d (%d loaded, %d generated), Sections drawn: %d, Gen queue: %d, Meshing: %d, Upload queue: %d, Upload: %.2fms (%dKB, peak %.2fms), "
+                        + "Cache: %d hot, %d warm (%dKB), %d hot hits, %d warm hits, %d misses, %s",
+                data.size(), loaded.sum(), generated.sum(), culler.getVisibleCount(), scheduler.getQueued(), meshing.size(), uploads.getDepth(),
+                uploads.getLastNanos() / 1e6, uploads.getLastBytes() >> 10, uploads.takePeakNanos() / 1e6,
+                cache.getHotSize(), cache.getWarmSize(), cache.getWarmBytes() >> 10, cache.getHotHits(), cache.getWarmHits(), cache.getMisses(), lod.getStatistics());
+    }
+
+    /**
+     * Find the sections the camera could see, and list them in a state to be drawn, along with
+     * the GL work it needs. Call on the simulation thread, once a tick, after updating and polling.
+     * @param x The X position of the camera
+     * @param y The Y position of the camera
+     * @param z The Z position of the camera
+     * @param frustum The combined projection and view matrix to cull against
+     * @param state The state
+     */
+    public void cull(float x, float y, float z, Matrix4f frustum, RenderState state) {
+        mx.set(frustum);
+        culler.cull(x, y, z, mx);
+
+        state.clearSections();
+        for (int i = 0; i < culler.getVisibleCount(); i++) state.addSection(culler.getVisibleChunk(i), culler.getVisibleSubChunk(i));
+
+        state.cx = camPos.x;
+        state.cz = camPos.z;
+        state.polls = polls;
+        state.epoch = epoch++;
+    }
+
+    /**
+     * Run the GL work posted up to a state, upload meshes, and draw the state's sections and the
+     * distant terrain. Call on the GL thread.
+     * @param state The state to draw
+     */
+    public void render(RenderState state, Matrix4f view, Matrix4f transform, Matrix4f camera) {
+        this.frustum.set(view)
+                .mul(transform)
+                .mul(camera);
+
+        tasks.run(state.epoch);
+        uploads.upload(state.cx, state.cz);
+
+        for (int i = 0; i < state.getSectionCount(); i++) state.getChunk(i).render(state.getSubChunk(i));
+
+        // Distant terrain keeps up with the ticks, however many frames there are to each
+        if (state.epoch != distantEpoch) {
+            updateDistant(state.cx, state.cz, state.polls != distantPolls);
+            distantEpoch = state.epoch;
+            distantPolls = state.polls;
+        }
+
+        // Distant terrain last, as most of it is hidden behind what's near
+        lod.render(frustum);
+    }
+
+    /**
+     * Request and drop distant tiles for the camera's position. Call on the GL thread.
+     * @param cx The X position of the camera, in chunk co-ordinates
+     * @param cz The Z position of the camera, in chunk co-ordinates
+     * @param poll Whether to also collect newly sampled tiles and start meshing them
+     */
+    void updateDistant(int cx, int cz, boolean poll) {
+        lod.update(cx, cz, frustum);
+        if (poll) lod.poll();
     }
 
     private void smartGenAroundPlayer(int cx, int cz) {
@@ -117,10 +537,15 @@ public class ChunkManager {
 
     private void smartAddChunkToQueue(int cx, int cz) {
         if (testCircle(cx, cz)) return;
-        if (contains(locations, cx, cz) || contains(generated, cx, cz)) return;
+        if (data.contains(cx, cz)) return;
 
-        locations.add(new int[]{cx, cz});
-        futures.add(pool.submit(() -> Chunk.generate(cx, cz)));
+        Chunk c = cache.reclaim(cx, cz);
+        if (c != null) {
+            add(c);
+            return;
+        }
+
+        scheduler.request(cx, cz);
     }
 
     private boolean testCircle(int cx, int cz) {
@@ -129,28 +554,34 @@ public class ChunkManager {
         return x*x + z*z >= renderDistance*renderDistance;
     }
 
-    private boolean testAABB(int cx, int cy, int cz) {
-        return mx.testAab(cx << 4, cy << 4, cz << 4, (cx + 1) << 4, (cy + 1) << 4, (cz + 1) << 4);
-//        return mx.testPoint((cx << 4) + 8, (cy << 4) + 8, (cz << 4) + 8);
-    }
+    public void cleanup() {
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) Metrics.removeGauge(e.getKey(), e.getValue());
+        pool.shutdownNow();
 
-    private static int indexOf(List<int[]> list, int cx, int cz) {
-        for (int i = 0; i < list.size(); i++) {
-            if (Arrays.equals(list.get(i), new int[]{cx, cz})) return i;
+        for (int i = 0; i < data.capacity(); i++) {
+            if (data.occupied(i) && data.valueAt(i).isModified()) storage.save(data.valueAt(i));
         }
-        return -1;
-    }
 
-    private static boolean contains(List<int[]> list, int cx, int cz) {
-        for (int[] ints : list) {
-            if (Arrays.equals(ints, new int[]{cx, cz})) return true;
+        try {
+            // Let chunks being generated finish saving before the storage closes
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+            storage.close();
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
         }
-        return false;
-    }
 
-    public void cleanup() {
-        pool.shutdownNow();
+        // Nothing is left to draw, so the GL work can all run now
+        tasks.runAll();
+        uploads.clear();
+        Meshed m;
+        while ((m = meshed.poll()) != null) {
+            if (m.data != null) free(m.data);
+        }
 
-        for (Chunk c : data) c.cleanup();
+        for (int i = 0; i < data.capacity(); i++) {
+            if (data.occupied(i)) data.valueAt(i).cleanup();
+        }
+        cache.cleanup();
+        lod.cleanup();
     }
 }
@@ -0,0 +1,201 @@
+package com.screendead.minedaft.performance;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from chunk co-ordinates to values. Co-ordinates are packed
+ * into a single long, so lookups neither box nor allocate. Not thread-safe.
+ * @param <V> The type of value stored
+ */
+public class ChunkMap<V> {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size = 0, mask, threshold;
+
+    public ChunkMap() {
+        this(64);
+    }
+
+    /**
+     * @param expected The number of entries to size the table for
+     */
+    public ChunkMap(int expected) {
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, (int) (expected / LOAD_FACTOR)) - 1) << 1));
+    }
+
+    /**
+     * Pack chunk co-ordinates into a key
+     * @param cx The X position, in chunk co-ordinates
+     * @param cz The Z position, in chunk co-ordinates
+     * @return The key
+     */
+    public static long key(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int keyZ(long key) {
+        return (int) key;
+    }
+
+    public V get(int cx, int cz) {
+        return get(key(cx, cz));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = find(key);
+        return (slot < 0) ? null : (V) values[slot];
+    }
+
+    public boolean contains(int cx, int cz) {
+        return find(key(cx, cz)) >= 0;
+    }
+
+    public boolean contains(long key) {
+        return find(key) >= 0;
+    }
+
+    public V put(int cx, int cz, V value) {
+        return put(key(cx, cz), value);
+    }
+
+    /**
+     * @return The value previously stored under the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == EMPTY) throw new IllegalArgumentException("Reserved key");
+
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > threshold) rehash(keys.length << 1);
+
+        return null;
+    }
+
+    public V remove(int cx, int cz) {
+        return remove(key(cx, cz));
+    }
+
+    /**
+     * @return The value removed, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = find(key);
+        if (slot < 0) return null;
+
+        V old = (V) values[slot];
+        size--;
+
+        // Shift later entries of the same probe run back, so no tombstones are needed
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of slots, for iterating with {@link #keyAt(int)} and {@link #valueAt(int)}
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @param slot A slot from 0 to {@link #capacity()}
+     * @return Whether the slot holds an entry
+     */
+    public boolean occupied(int slot) {
+        return keys[slot] != EMPTY;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private int find(long key) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long key) {
+        // Mix both halves so neighbouring chunks spread over the table
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.screendead.minedaft.performance;
+
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs per-chunk work on a thread pool, nearest and in-view chunks first.
+ * Requests wait in a priority queue which is re-ordered whenever the camera moves, and only a
+ * limited number are handed to the pool at once, so a fast turn or teleport doesn't leave the
+ * chunks now in view stuck behind a backlog of ones that no longer matter. Finished work is
+ * passed back through a lock-free queue for the thread driving it to collect with {@link #poll()}.
+ * Apart from the completed queue, this class must only be used from one thread.
+ * @param <T> The type of result produced for each chunk
+ */
+public class ChunkScheduler<T> {
+    /**
+     * The work to do for each chunk
+     */
+    public interface Task<T> {
+        T run(int cx, int cz) throws Exception;
+    }
+
+    /**
+     * A chunk whose work has finished
+     */
+    public static class Completion<T> {
+        public final int cx, cz;
+        public final T result;
+        final Throwable error;
+
+        Completion(int cx, int cz, T result, Throwable error) {
+            this.cx = cx;
+            this.cz = cz;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private static class Request {
+        final long key;
+        float priority;
+        int index;
+
+        Request(long key) {
+            this.key = key;
+        }
+    }
+
+    // Chunks outside the view frustum are treated as this many times further away
+    private static final float OUT_OF_VIEW_PENALTY = 4.0f;
+
+    private final ExecutorService pool;
+    private final Task<T> task;
+    private final int maxInFlight, shift;
+
+    private final ChunkMap<Request> queued = new ChunkMap<>();
+    private Request[] heap = new Request[256];
+    private int heapSize = 0;
+
+    // Setting a chunk's flag makes its work skip itself if it hasn't started yet
+    private final ChunkMap<AtomicBoolean> inFlight = new ChunkMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Completion<T>> completed = new ConcurrentLinkedQueue<>();
+
+    private long[] removals = new long[64];
+
+    /**
+     * @param pool The pool to run work on
+     * @param maxInFlight The most chunks to have submitted to the pool at once
+     * @param task The work to do for each chunk
+     */
+    public ChunkScheduler(ExecutorService pool, int maxInFlight, Task<T> task) {
+        this(pool, maxInFlight, 4, task);
+    }
+
+    /**
+     * @param pool The pool to run work on
+     * @param maxInFlight The most chunks to have submitted to the pool at once
+     * @param shift The log2 of the width, in blocks, of each square the co-ordinates count in; 4 for chunks
+     * @param task The work to do for each square
+     */
+    public ChunkScheduler(ExecutorService pool, int maxInFlight, int shift, Task<T> task) {
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.shift = shift;
+        this.task = task;
+    }
+
+    /**
+     * Queue a chunk, unless it is already queued or running. It is placed at the back of
+     * the queue until the next {@link #update(int, int, int, Matrix4f)}.
+     */
+    public void request(int cx, int cz) {
+        long key = ChunkMap.key(cx, cz);
+        if (queued.contains(key) || inFlight.contains(key)) return;
+
+        Request r = new Request(key);
+        r.priority = Float.MAX_VALUE;
+        queued.put(key, r);
+        push(r);
+    }
+
+    /**
+     * @return Whether the chunk is queued or running
+     */
+    public boolean isScheduled(int cx, int cz) {
+        long key = ChunkMap.key(cx, cz);
+        return queued.contains(key) || inFlight.contains(key);
+    }
+
+    /**
+     * Drop a chunk from the queue, or abandon its work if already submitted
+     */
+    public void cancel(int cx, int cz) {
+        cancel(ChunkMap.key(cx, cz));
+    }
+
+    private void cancel(long key) {
+        Request r = queued.remove(key);
+        if (r != null) removeAt(r.index);
+
+        AtomicBoolean cancelled = inFlight.remove(key);
+        if (cancelled != null) cancelled.set(true);
+    }
+
+    /**
+     * Drop everything outside the radius, re-order the queue for the camera's new position and
+     * view, then start as much queued work as the in-flight limit allows.
+     * @param cx The X position of the camera, in chunk co-ordinates
+     * @param cz The Z position of the camera, in chunk co-ordinates
+     * @param radius The distance, in chunks, beyond which requests are stale
+     * @param frustum The combined projection and view matrix of the camera
+     */
+    public void update(int cx, int cz, int radius, Matrix4f frustum) {
+        int count = 0;
+        for (int i = 0; i < queued.capacity(); i++) {
+            if (queued.occupied(i) && outside(queued.keyAt(i), cx, cz, radius)) count = markForRemoval(count, queued.keyAt(i));
+        }
+        for (int i = 0; i < inFlight.capacity(); i++) {
+            if (inFlight.occupied(i) && outside(inFlight.keyAt(i), cx, cz, radius)) count = markForRemoval(count, inFlight.keyAt(i));
+        }
+        for (int i = 0; i < count; i++) cancel(removals[i]);
+
+        for (int i = 0; i < heapSize; i++) {
+            Request r = heap[i];
+            int x = ChunkMap.keyX(r.key), z = ChunkMap.keyZ(r.key);
+            float dx = x - cx, dz = z - cz;
+
+            r.priority = dx * dx + dz * dz;
+            if (!frustum.testAab(x << shift, 0, z << shift, (x + 1) << shift, 256, (z + 1) << shift)) r.priority *= OUT_OF_VIEW_PENALTY;
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) siftDown(i);
+
+        while (running.get() < maxInFlight && heapSize > 0) {
+            Request r = heap[0];
+            removeAt(0);
+            queued.remove(r.key);
+
+            int x = ChunkMap.keyX(r.key), z = ChunkMap.keyZ(r.key);
+            AtomicBoolean cancelled = new AtomicBoolean();
+            inFlight.put(r.key, cancelled);
+
+            running.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    if (!cancelled.get()) completed.offer(new Completion<>(x, z, task.run(x, z), null));
+                } catch (Throwable t) {
+                    completed.offer(new Completion<>(x, z, null, t));
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The next finished chunk, or null if there are none. Work which was cancelled
+     * after it had started is discarded.
+     * @throws RuntimeException if the work for the chunk failed
+     */
+    public Completion<T> poll() {
+        Completion<T> c;
+        while ((c = completed.poll()) != null) {
+            if (inFlight.remove(c.cx, c.cz) == null) continue;
+            if (c.error != null) throw new RuntimeException("Work for chunk " + c.cx + ", " + c.cz + " failed", c.error);
+
+            return c;
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of chunks waiting to start
+     */
+    public int getQueued() {
+        return heapSize;
+    }
+
+    /**
+     * @return The number of chunks submitted to the pool and not yet collected
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return The number of chunks whose work is currently running or waiting in the pool
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    private static boolean outside(long key, int cx, int cz, int radius) {
+        int x = ChunkMap.keyX(key) - cx, z = ChunkMap.keyZ(key) - cz;
+        return x * x + z * z >= radius * radius;
+    }
+
+    private int markForRemoval(int count, long key) {
+        if (count == removals.length) removals = Arrays.copyOf(removals, count * 2);
+        removals[count] = key;
+        return count + 1;
+    }
+
+    private void push(Request r) {
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+
+        r.index = heapSize;
+        heap[heapSize++] = r;
+        siftUp(r.index);
+    }
+
+    private void removeAt(int i) {
+        Request last = heap[--heapSize];
+        heap[heapSize] = null;
+        if (i == heapSize) return;
+
+        heap[i] = last;
+        last.index = i;
+        siftDown(i);
+        siftUp(last.index);
+    }
+
+    private void siftUp(int i) {
+        Request r = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].priority <= r.priority) break;
+
+            heap[i] = heap[parent];
+            heap[i].index = i;
+            i = parent;
+        }
+        heap[i] = r;
+        r.index = i;
+    }
+
+    private void siftDown(int i) {
+        Request r = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heap[child + 1].priority < heap[child].priority) child++;
+            if (r.priority <= heap[child].priority) break;
+
+            heap[i] = heap[child];
+            heap[i].index = i;
+            i = child;
+        }
+        heap[i] = r;
+        r.index = i;
+    }
+}
@@ -0,0 +1,176 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.Chunk;
+import org.joml.FrustumIntersection;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree over the loaded chunk columns, for finding the columns in view without testing
+ * each one. The bottom level is the columns themselves, and each level above groups the one
+ * below into 2x2 regions, up to regions of 32x32 columns. A region wholly outside the frustum is
+ * rejected with one test, and one wholly inside it is accepted with one test along with every
+ * column beneath it, so only regions crossing the edge of the frustum are split; the cost grows
+ * with the length of that edge rather than with the number of columns. Columns can also be
+ * classified one at a time as a search reaches them, each region above them being tested at most
+ * once a frame. Columns are tested at full height, as the search through them may pass through
+ * air. Needs no GL context.
+ */
+public class ColumnTree {
+    // The number of levels of regions above the columns
+    private static final int LEVELS = 5;
+
+    private static class Region {
+        int columns = 0;
+
+        // The last frame the region was tested against the view, and the result
+        int frame = 0;
+        int result;
+    }
+
+    private final ChunkMap<Chunk> chunks;
+
+    // The regions of each level above the columns, from 2x2 columns up, each counting the columns beneath it
+    private final ChunkMap<Region>[] regions;
+
+    // The columns found in view by the last search
+    private Chunk[] inView = new Chunk[256];
+    private int count = 0;
+
+    /**
+     * @param chunks The loaded chunks, which must be added to and removed from the tree as they change
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ColumnTree(ChunkMap<Chunk> chunks) {
+        this.chunks = chunks;
+        this.regions = new ChunkMap[LEVELS];
+        for (int i = 0; i < LEVELS; i++) regions[i] = new ChunkMap<>();
+    }
+
+    /**
+     * @param cx The X position of a column just added to the loaded chunks, in chunk co-ordinates
+     * @param cz The Z position of the column, in chunk co-ordinates
+     */
+    public void add(int cx, int cz) {
+        for (int level = 1; level <= LEVELS; level++) {
+            ChunkMap<Region> map = regions[level - 1];
+            Region r = map.get(cx >> level, cz >> level);
+            if (r == null) map.put(cx >> level, cz >> level, r = new Region());
+            r.columns++;
+        }
+    }
+
+    /**
+     * @param cx The X position of a column just removed from the loaded chunks, in chunk co-ordinates
+     * @param cz The Z position of the column, in chunk co-ordinates
+     */
+    public void remove(int cx, int cz) {
+        for (int level = 1; level <= LEVELS; level++) {
+            ChunkMap<Region> map = regions[level - 1];
+            Region r = map.get(cx >> level, cz >> level);
+            if (r != null && --r.columns == 0) map.remove(cx >> level, cz >> level);
+        }
+    }
+
+    /**
+     * Find how one column lies against the view, marking it with {@link Chunk#setView(int, boolean, boolean)}
+     * @param c The column's chunk, which must have been added to the tree
+     * @param frustum The planes of the view frustum
+     * @param frame The number of the frame, which the results of testing regions are kept for
+     */
+    public void classify(Chunk c, FrustumIntersection frustum, int frame) {
+        int result = FrustumIntersection.INTERSECT;
+        for (int level = LEVELS; level > 0 && result == FrustumIntersection.INTERSECT; level--) {
+            int x = c.cx >> level, z = c.cz >> level;
+            Region r = regions[level - 1].get(x, z);
+            if (r.frame != frame) {
+                r.frame = frame;
+                r.result = test(level, x, z, frustum);
+            }
+            result = r.result;
+        }
+
+        if (result == FrustumIntersection.INTERSECT) result = test(0, c.cx, c.cz, frustum);
+        c.setView(frame, result < 0, result == FrustumIntersection.INSIDE);
+    }
+
+    /**
+     * Find all the columns in view, marking each with {@link Chunk#setView(int, boolean, boolean)}
+     * @param frustum The planes of the view frustum
+     * @param frame The number of the frame to mark the columns with
+     */
+    public void search(FrustumIntersection frustum, int frame) {
+        count = 0;
+
+        ChunkMap<Region> top = regions[LEVELS - 1];
+        for (int i = 0; i < top.capacity(); i++) {
+            if (!top.occupied(i)) continue;
+
+            long key = top.keyAt(i);
+            visit(LEVELS, ChunkMap.keyX(key), ChunkMap.keyZ(key), frustum, frame);
+        }
+    }
+
+    private void visit(int level, int x, int z, FrustumIntersection frustum, int frame) {
+        int result = test(level, x, z, frustum);
+        if (result == FrustumIntersection.INSIDE) {
+            accept(level, x, z, frame);
+        } else if (result == FrustumIntersection.INTERSECT) {
+            if (level == 0) {
+                mark(chunks.get(x, z), frame, false);
+                return;
+            }
+
+            for (int i = 0; i < 4; i++) {
+                int cx = (x << 1) | (i & 1), cz = (z << 1) | (i >> 1);
+                if (exists(level - 1, cx, cz)) visit(level - 1, cx, cz, frustum, frame);
+            }
+        }
+    }
+
+    private static int test(int level, int x, int z, FrustumIntersection frustum) {
+        int size = 16 << level;
+        return frustum.intersectAab(x * size, 0, z * size, (x + 1) * size, 256, (z + 1) * size);
+    }
+
+    /**
+     * Mark every column beneath a region as wholly inside the view
+     */
+    private void accept(int level, int x, int z, int frame) {
+        if (level == 0) {
+            mark(chunks.get(x, z), frame, true);
+            return;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            int cx = (x << 1) | (i & 1), cz = (z << 1) | (i >> 1);
+            if (exists(level - 1, cx, cz)) accept(level - 1, cx, cz, frame);
+        }
+    }
+
+    private boolean exists(int level, int x, int z) {
+        return (level == 0) ? chunks.contains(x, z) : regions[level - 1].contains(x, z);
+    }
+
+    private void mark(Chunk c, int frame, boolean inside) {
+        c.setView(frame, true, inside);
+
+        if (count == inView.length) inView = Arrays.copyOf(inView, count * 2);
+        inView[count++] = c;
+    }
+
+    /**
+     * @return The number of columns found in view by the last search
+     */
+    public int getInViewCount() {
+        return count;
+    }
+
+    /**
+     * @param i The index of a column found in view, from 0 to {@link #getInViewCount()}
+     * @return The column's chunk
+     */
+    public Chunk getInView(int i) {
+        return inView[i];
+    }
+}
@@ -0,0 +1,58 @@
+package com.screendead.minedaft.performance;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Work one thread hands to another to run later, each task tagged with the epoch it was posted
+ * in, so the other thread can run exactly the work that came before a given point and no more.
+ * The simulation thread uses it to pass GL work, such as deleting meshes, to the GL thread, which
+ * runs it only once it is drawing a state at least as new: any older state still being drawn may
+ * depend on what the work would free. One thread posts and one runs.
+ */
+public class EpochQueue {
+    private static class Task {
+        final long epoch;
+        final Runnable work;
+
+        Task(long epoch, Runnable work) {
+            this.epoch = epoch;
+            this.work = work;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param epoch The epoch the work belongs to
+     * @param work The work
+     */
+    public void post(long epoch, Runnable work) {
+        tasks.offer(new Task(epoch, work));
+    }
+
+    /**
+     * Run, in the order they were posted, the tasks of every epoch up to and including the given one
+     * @param epoch The newest epoch to run the tasks of
+     */
+    public void run(long epoch) {
+        Task t;
+        while ((t = tasks.peek()) != null && t.epoch <= epoch) {
+            tasks.poll();
+            t.work.run();
+        }
+    }
+
+    /**
+     * Run every task left, whatever its epoch, once the posting thread has stopped
+     */
+    public void runAll() {
+        run(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return The number of tasks waiting
+     */
+    public int size() {
+        return tasks.size();
+    }
+}
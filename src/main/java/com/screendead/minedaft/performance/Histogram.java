@@ -0,0 +1,112 @@
+package com.screendead.minedaft.performance;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, in the manner of HdrHistogram: values below 128 are counted exactly,
+ * and every power of two above that is split into 64 buckets, so any value is known to within
+ * 1/64 of itself however large it is. Recording is a single atomic increment and safe from any
+ * thread. Reading gives what was recorded since the last read, and must only be done from one
+ * thread.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    /**
+     * What was recorded over an interval. Durations are in nanoseconds.
+     */
+    public static class Summary {
+        public final long count, total, p50, p90, p99, p999, max;
+
+        private Summary(long count, long total, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.total = total;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * @return The mean duration, in nanoseconds, or 0 if nothing was recorded
+         */
+        public double mean() {
+            return (count == 0) ? 0 : total / (double) count;
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+
+    // The counts at the last read
+    private final long[] last = new long[BUCKETS];
+    private final long[] interval = new long[BUCKETS];
+    private long lastTotal = 0;
+
+    /**
+     * @param nanos A duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        counts.incrementAndGet(index(nanos));
+        total.add(nanos);
+    }
+
+    /**
+     * Summarise everything recorded since the last call
+     * @return The summary, with each percentile given as the highest value in its bucket
+     */
+    public Summary interval() {
+        long count = 0;
+        int highest = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            interval[i] = c - last[i];
+            last[i] = c;
+
+            if (interval[i] != 0) {
+                count += interval[i];
+                highest = i;
+            }
+        }
+
+        long sum = total.sum();
+        long intervalTotal = sum - lastTotal;
+        lastTotal = sum;
+
+        if (count == 0) return new Summary(0, 0, 0, 0, 0, 0, 0);
+        return new Summary(count, intervalTotal,
+                percentile(count, 0.5), percentile(count, 0.9), percentile(count, 0.99), percentile(count, 0.999),
+                highestValue(highest));
+    }
+
+    private long percentile(long count, double p) {
+        long rank = Math.max(1, (long) Math.ceil(count * p)), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += interval[i];
+            if (seen >= rank) return highestValue(i);
+        }
+        return 0;
+    }
+
+    static int index(long value) {
+        if (value < (1 << SUB_BITS)) return (int) value;
+
+        // Keep the top SUB_BITS bits of the value, and count how many were dropped
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    static long highestValue(int index) {
+        if (index < (1 << SUB_BITS)) return index;
+
+        int shift = (index >> (SUB_BITS - 1)) - 1;
+        long lowest = (long) ((index & (HALF - 1)) | HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,340 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.BlockRegistry;
+import com.screendead.minedaft.world.BlockStorage;
+import com.screendead.minedaft.world.Chunk;
+import com.screendead.minedaft.world.Light;
+import com.screendead.minedaft.world.NibbleArray;
+
+import java.util.function.Consumer;
+
+/**
+ * Works out the sky light and block light of the loaded chunks, and keeps it up to date as blocks
+ * change. Light spreads breadth first from where it comes from, losing a level with each block it
+ * passes into, or more through blocks which absorb it, except that full sky light passes straight
+ * down through clear blocks undimmed. It's taken away the same way: the cells lit through what
+ * changed are darkened, then lit again from whatever light borders them, so an edit only touches
+ * the cells whose light it affects.
+ * <p>
+ * Each chunk is first lit on its own as it's loaded or generated, on whichever thread does that.
+ * Light then flows across its borders as it joins the loaded chunks. That, and relighting after an
+ * edit, must happen on the thread which owns the loaded chunks. Light isn't saved, as it can be
+ * worked out again from the blocks.
+ */
+public class LightEngine {
+    // Face directions in the order +Z, -Z, +X, -X, +Y, -Y
+    private static final int[] DX = { 0, 0, 1, -1, 0, 0 };
+    private static final int[] DY = { 0, 0, 0, 0, 1, -1 };
+    private static final int[] DZ = { 1, -1, 0, 0, 0, 0 };
+    private static final int DOWN = 5;
+
+    // An engine for each thread lighting chunks on their own, which only ever holds that chunk
+    private static final ThreadLocal<LightEngine> LONE = ThreadLocal.withInitial(() -> new LightEngine(new ChunkMap<>(1), null));
+
+    private final ChunkMap<Chunk> chunks;
+    private final Consumer<Chunk> changed;
+
+    // Cells to spread light out from, and cells darkened along with the light they had. Each
+    // entry packs a position and a light level, as described by pack().
+    private final LongQueue spread = new LongQueue(), darken = new LongQueue();
+
+    // The last chunk looked up, as most steps stay within one
+    private Chunk last;
+
+    // The sky light of each block of a chunk being lit on its own, and of each column the lowest
+    // block full sky light reaches
+    private byte[] column;
+    private int[] floor;
+
+    /**
+     * @param chunks The loaded chunks
+     * @param changed Given each chunk as it gains a sub-chunk whose light has changed, which is
+     * marked dirty, or null to mark nothing
+     */
+    public LightEngine(ChunkMap<Chunk> chunks, Consumer<Chunk> changed) {
+        this.chunks = chunks;
+        this.changed = changed;
+    }
+
+    /**
+     * Light a chunk as if it had no neighbours: sky light down each column and out sideways under
+     * overhangs, and block light out from the blocks which give it off. Safe to call on any thread,
+     * on a chunk no other thread is using.
+     * @param c The chunk
+     */
+    public static void light(Chunk c) {
+        LightEngine engine = LONE.get();
+        engine.chunks.put(c.cx, c.cz, c);
+        try {
+            engine.lightAlone(c);
+        } finally {
+            engine.chunks.remove(c.cx, c.cz);
+            engine.last = null;
+        }
+    }
+
+    private void lightAlone(Chunk c) {
+        if (column == null) {
+            column = new byte[16 * BlockStorage.SIZE];
+            floor = new int[256];
+        }
+
+        // Straight down each column, until the light runs out
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int level = Light.MAX, y = 255;
+                floor[(x << 4) | z] = 256;
+
+                for (; y >= 0 && level > 0; y--) {
+                    level = dim(level, c.getBlock(x, y, z), true, true);
+                    column[(y << 8) | (x << 4) | z] = (byte) level;
+                    if (level == Light.MAX) floor[(x << 4) | z] = y;
+                }
+                for (; y >= 0; y--) column[(y << 8) | (x << 4) | z] = 0;
+            }
+        }
+
+        for (int s = 0; s < 16; s++) c.setLight(s, NibbleArray.of(column, s * BlockStorage.SIZE), new NibbleArray(0));
+
+        // Then sideways, from each column into the blocks beside it which are below the open sky
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int top = 0;
+                for (int face = 0; face < 4; face++) {
+                    int nx = x + DX[face], nz = z + DZ[face];
+                    if (((nx | nz) & ~15) == 0) top = Math.max(top, floor[(nx << 4) | nz]);
+                }
+
+                for (int y = top - 1; y >= 0 && column[(y << 8) | (x << 4) | z] > 1; y--)
+                    spread.add(pack((c.cx << 4) + x, y, (c.cz << 4) + z, 0));
+            }
+        }
+        spread(true);
+
+        if (!BlockRegistry.hasEmitters()) return;
+
+        for (int s = 0; s < 16; s++) {
+            if (c.isEmpty(s) || !c.mayEmit(s)) continue;
+
+            for (int i = 0; i < BlockStorage.SIZE; i++) {
+                int x = (i >> 4) & 15, y = (s << 4) | (i >> 8), z = i & 15;
+                int emission = BlockRegistry.getEmission(c.getBlock(x, y, z));
+                if (emission == 0) continue;
+
+                c.setBlockLight(x, y, z, emission);
+                spread.add(pack((c.cx << 4) + x, y, (c.cz << 4) + z, 0));
+            }
+        }
+        spread(false);
+    }
+
+    /**
+     * Let light flow between a chunk which has just joined the loaded chunks and its neighbours.
+     * The chunk must have been lit on its own first.
+     * @param c The chunk
+     */
+    public void add(Chunk c) {
+        for (int channel = 0; channel < 2; channel++) {
+            boolean sky = channel == 0;
+
+            for (int face = 0; face < 4; face++) {
+                Chunk n = chunks.get(c.cx + DX[face], c.cz + DZ[face]);
+                if (n == null) continue;
+
+                for (int y = 0; y < 256; y++) {
+                    for (int t = 0; t < 16; t++) {
+                        // The block on this chunk's border, and the one across it in the neighbour
+                        int ax = (DX[face] == 0) ? t : (DX[face] > 0) ? 15 : 0, az = (DZ[face] == 0) ? t : (DZ[face] > 0) ? 15 : 0;
+                        int bx = (ax + DX[face]) & 15, bz = (az + DZ[face]) & 15;
+
+                        int a = get(c, sky, ax, y, az), b = get(n, sky, bx, y, bz);
+                        if (a == b) continue;
+
+                        if (a > b && dim(a, n.getBlock(bx, y, bz), sky, false) > b)
+                            spread.add(pack((c.cx << 4) + ax, y, (c.cz << 4) + az, 0));
+                        else if (b > a && dim(b, c.getBlock(ax, y, az), sky, false) > a)
+                            spread.add(pack((n.cx << 4) + bx, y, (n.cz << 4) + bz, 0));
+                    }
+                }
+            }
+
+            spread(sky);
+        }
+    }
+
+    /**
+     * Relight around a block which has just changed
+     * @param x The X position, in block co-ordinates
+     * @param y The Y position, in block co-ordinates
+     * @param z The Z position, in block co-ordinates
+     */
+    public void update(int x, int y, int z) {
+        Chunk c = chunks.get(x >> 4, z >> 4);
+        if (c == null || y < 0 || y > 255) return;
+
+        update(c, x, y, z, true);
+        update(c, x, y, z, false);
+    }
+
+    private void update(Chunk c, int x, int y, int z, boolean sky) {
+        int old = get(c, sky, x, y, z);
+        if (old > 0) {
+            set(c, sky, x, y, z, 0);
+            darken.add(pack(x, y, z, old));
+            darken(sky);
+        }
+
+        // Light the block from what it gives off, or the sky above the world, then from the blocks around it
+        int id = c.getBlock(x & 15, y, z & 15);
+        int own = sky ? ((y == 255) ? dim(Light.MAX, id, true, true) : 0) : BlockRegistry.getEmission(id);
+        if (own > get(c, sky, x, y, z)) set(c, sky, x, y, z, own);
+
+        spread.add(pack(x, y, z, 0));
+        for (int face = 0; face < 6; face++) {
+            int ny = y + DY[face];
+            if (ny >= 0 && ny <= 255) spread.add(pack(x + DX[face], ny, z + DZ[face], 0));
+        }
+        spread(sky);
+    }
+
+    /**
+     * Spread light out from the queued cells until it runs out
+     */
+    private void spread(boolean sky) {
+        while (!spread.isEmpty()) {
+            long e = spread.poll();
+            int x = x(e), y = y(e), z = z(e);
+            Chunk c = chunk(x, z);
+            if (c == null) continue;
+
+            int level = get(c, sky, x, y, z);
+            if (level <= 1) continue;
+
+            for (int face = 0; face < 6; face++) {
+                int ny = y + DY[face];
+                if (ny < 0 || ny > 255) continue;
+
+                int nx = x + DX[face], nz = z + DZ[face];
+                Chunk n = chunk(nx, nz);
+                if (n == null) continue;
+
+                int next = dim(level, n.getBlock(nx & 15, ny, nz & 15), sky, face == DOWN);
+                if (next <= get(n, sky, nx, ny, nz)) continue;
+
+                set(n, sky, nx, ny, nz, next);
+                spread.add(pack(nx, ny, nz, 0));
+            }
+        }
+    }
+
+    /**
+     * Darken every cell lit through the queued cells, queueing the light around the darkened
+     * area to spread back into it
+     */
+    private void darken(boolean sky) {
+        while (!darken.isEmpty()) {
+            long e = darken.poll();
+            int x = x(e), y = y(e), z = z(e), level = level(e);
+
+            for (int face = 0; face < 6; face++) {
+                int ny = y + DY[face];
+                if (ny < 0 || ny > 255) continue;
+
+                int nx = x + DX[face], nz = z + DZ[face];
+                Chunk n = chunk(nx, nz);
+                if (n == null) continue;
+
+                int current = get(n, sky, nx, ny, nz);
+                if (current == 0) continue;
+
+                // Anything dimmer than the darkened cell, or full sky light below it, may have come
+                // through it. Anything brighter came from elsewhere, and can light the area again.
+                if (current < level || (sky && face == DOWN && level == Light.MAX)) {
+                    set(n, sky, nx, ny, nz, 0);
+                    darken.add(pack(nx, ny, nz, current));
+
+                    int emission = sky ? 0 : BlockRegistry.getEmission(n.getBlock(nx & 15, ny, nz & 15));
+                    if (emission > 0) {
+                        set(n, false, nx, ny, nz, emission);
+                        spread.add(pack(nx, ny, nz, 0));
+                    }
+                } else {
+                    spread.add(pack(nx, ny, nz, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param level The light spreading into a block
+     * @param id The block's ID
+     * @param sky Whether the light is sky light
+     * @param down Whether the light is spreading downwards
+     * @return The light the block is left with
+     */
+    private static int dim(int level, int id, boolean sky, boolean down) {
+        int opacity = BlockRegistry.getOpacity(id);
+        if (sky && down && level == Light.MAX && opacity == 0) return Light.MAX;
+
+        return Math.max(0, level - Math.max(1, opacity));
+    }
+
+    private Chunk chunk(int x, int z) {
+        int cx = x >> 4, cz = z >> 4;
+        if (last == null || last.cx != cx || last.cz != cz) last = chunks.get(cx, cz);
+        return last;
+    }
+
+    private static int get(Chunk c, boolean sky, int x, int y, int z) {
+        return sky ? c.getSkyLight(x & 15, y, z & 15) : c.getBlockLight(x & 15, y, z & 15);
+    }
+
+    private void set(Chunk c, boolean sky, int x, int y, int z, int level) {
+        if (sky) {
+            c.setSkyLight(x & 15, y, z & 15, level);
+        } else {
+            c.setBlockLight(x & 15, y, z & 15, level);
+        }
+
+        if (changed == null) return;
+
+        // The faces of the blocks around this one show its light, and may be in other sub-chunks
+        int s = y >> 4;
+        mark(c, s);
+        if ((y & 15) == 0 && s > 0) mark(c, s - 1);
+        if ((y & 15) == 15 && s < 15) mark(c, s + 1);
+        if ((x & 15) == 0) mark(chunks.get(c.cx - 1, c.cz), s);
+        if ((x & 15) == 15) mark(chunks.get(c.cx + 1, c.cz), s);
+        if ((z & 15) == 0) mark(chunks.get(c.cx, c.cz - 1), s);
+        if ((z & 15) == 15) mark(chunks.get(c.cx, c.cz + 1), s);
+    }
+
+    private void mark(Chunk c, int subChunk) {
+        if (c == null || (c.getDirty() & (1 << subChunk)) != 0) return;
+
+        c.markDirty(subChunk);
+        changed.accept(c);
+    }
+
+    // Queue entries pack the X position into bits 38-63 and the Z position into bits 12-37, both
+    // signed, then a light level into bits 8-11 and the Y position into bits 0-7
+    private static long pack(int x, int y, int z, int level) {
+        return ((long) x << 38) | (((long) z & 0x3FFFFFF) << 12) | ((long) level << 8) | y;
+    }
+
+    private static int x(long e) {
+        return (int) (e >> 38);
+    }
+
+    private static int z(long e) {
+        return (int) (e << 26 >> 38);
+    }
+
+    private static int level(long e) {
+        return (int) (e >> 8) & 15;
+    }
+
+    private static int y(long e) {
+        return (int) e & 255;
+    }
+}
@@ -0,0 +1,350 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.graphics.MeshData;
+import com.screendead.minedaft.world.LodTile;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Draws the terrain beyond the render distance as rings of {@link LodTile height field tiles},
+ * each ring twice as coarse as the one inside it. Every chunk belongs to exactly one ring (or is
+ * close enough to be drawn in full), and each tile only draws the chunks of its own ring, so the
+ * rings meet without overlapping; as the camera moves, tiles along the edges of the rings are
+ * remeshed from the heights they already hold. Each ring has a memory budget: once it is spent,
+ * the furthest tiles are dropped to make room for nearer ones. Must only be used from the main
+ * thread.
+ */
+public class LodManager {
+    // The cell width of each ring, and how far it reaches as a multiple of the render distance
+    private static final int[] SCALES = { 2, 4, 8 };
+    private static final int[] REACH = { 2, 3, 4 };
+    private static final long[] BUDGETS = { 48L << 20, 24L << 20, 16L << 20 };
+
+    // The most tiles to upload each frame
+    private static final int UPLOADS_PER_FRAME = 16;
+
+    private static class Ring {
+        final int scale, shift, inner, outer;
+        final long budget;
+        final ChunkMap<LodTile> tiles = new ChunkMap<>();
+        final ChunkScheduler<LodTile> scheduler;
+
+        // Tiles being meshed on the pool
+        final ChunkMap<LodTile> building = new ChunkMap<>();
+
+        // While the budget is spent, tiles at least this far away, in chunks, aren't requested
+        float limit = Float.MAX_VALUE;
+        long bytes = 0;
+
+        Ring(ExecutorService pool, int maxInFlight, int scale, int inner, int outer, long budget) {
+            this.scale = scale;
+            this.shift = Integer.numberOfTrailingZeros(scale);
+            this.inner = inner;
+            this.outer = outer;
+            this.budget = budget;
+            this.scheduler = new ChunkScheduler<>(pool, maxInFlight, shift + 4, (tx, tz) -> LodTile.generate(tx, tz, scale));
+        }
+    }
+
+    private static class Built {
+        final Ring ring;
+        final LodTile tile;
+        final long mask;
+        final MeshData[] data;
+        final Throwable error;
+
+        Built(Ring ring, LodTile tile, long mask, MeshData[] data, Throwable error) {
+            this.ring = ring;
+            this.tile = tile;
+            this.mask = mask;
+            this.data = data;
+            this.error = error;
+        }
+    }
+
+    private final ExecutorService pool;
+    private final Ring[] rings;
+
+    // Finished mesh data waiting to be uploaded
+    private final ConcurrentLinkedQueue<Built> built = new ConcurrentLinkedQueue<>();
+
+    private int camX = Integer.MIN_VALUE, camZ = Integer.MIN_VALUE;
+    private long[] removals = new long[64];
+    private int drawn = 0;
+
+    /**
+     * @param pool The pool to sample and mesh tiles on
+     * @param maxInFlight The most tiles of each ring to be sampling at once
+     * @param renderDistance The radius, in chunks, of the chunks loaded in full
+     */
+    public LodManager(ExecutorService pool, int maxInFlight, int renderDistance) {
+        this.pool = pool;
+
+        // Chunks on the very edge of the loaded area can't be meshed, so the rings start inside it
+        int inner = renderDistance - 1;
+
+        rings = new Ring[SCALES.length];
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring(pool, maxInFlight, SCALES[i], inner, renderDistance * REACH[i], BUDGETS[i]);
+            inner = rings[i].outer;
+        }
+    }
+
+    /**
+     * @return How far, in chunks, the outermost ring reaches
+     */
+    public int getReach() {
+        return rings[rings.length - 1].outer;
+    }
+
+    /**
+     * Request and drop tiles for the camera's position, and re-order the requests for its view
+     * @param cx The X position of the camera, in chunk co-ordinates
+     * @param cz The Z position of the camera, in chunk co-ordinates
+     * @param frustum The combined projection and view matrix of the camera
+     */
+    public void update(int cx, int cz, Matrix4f frustum) {
+        if (cx != camX || cz != camZ) {
+            camX = cx;
+            camZ = cz;
+            for (Ring ring : rings) refresh(ring);
+        }
+
+        for (Ring ring : rings) {
+            ring.scheduler.update(cx >> ring.shift, cz >> ring.shift, (ring.outer >> ring.shift) + 2, frustum);
+        }
+    }
+
+    /**
+     * Collect newly sampled tiles, and start meshing any whose share of their ring has changed
+     */
+    public void poll() {
+        for (Ring ring : rings) {
+            ChunkScheduler.Completion<LodTile> c;
+            while ((c = ring.scheduler.poll()) != null) {
+                if (ring.tiles.contains(c.cx, c.cz) || mask(ring, c.cx, c.cz) == 0) continue;
+
+                ring.tiles.put(c.cx, c.cz, c.result);
+            }
+
+            for (int i = 0; i < ring.tiles.capacity(); i++) {
+                if (!ring.tiles.occupied(i)) continue;
+
+                LodTile t = ring.tiles.valueAt(i);
+                long mask = mask(ring, t.tx, t.tz);
+                if (mask != t.getMask() && !ring.building.contains(t.tx, t.tz)) build(ring, t, mask);
+            }
+        }
+    }
+
+    /**
+     * Upload finished tiles, then draw every tile in view. Must be called on the main thread.
+     * @param frustum The combined projection and view matrix of the camera
+     */
+    public void render(Matrix4f frustum) {
+        Built b;
+        for (int n = 0; n < UPLOADS_PER_FRAME && (b = built.poll()) != null; n++) {
+            if (b.error != null) throw new RuntimeException("Meshing LOD tile " + b.tile.tx + ", " + b.tile.tz + " failed", b.error);
+            upload(b);
+        }
+
+        drawn = 0;
+        for (Ring ring : rings) {
+            int size = LodTile.CELLS * ring.scale;
+
+            for (int i = 0; i < ring.tiles.capacity(); i++) {
+                if (!ring.tiles.occupied(i)) continue;
+
+                LodTile t = ring.tiles.valueAt(i);
+                int x = t.tx * size, z = t.tz * size;
+                for (int layer = 0; layer < 16; layer++) {
+                    if (!t.hasMesh(layer) || !frustum.testAab(x, layer << 4, z, x + size, (layer + 1) << 4, z + size)) continue;
+
+                    t.render(layer);
+                    drawn++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether every tile in range has been sampled and meshed. Meshes may still be waiting
+     * to be uploaded.
+     */
+    boolean isSettled() {
+        for (Ring ring : rings) {
+            if (ring.scheduler.getQueued() != 0 || ring.scheduler.getInFlight() != 0) return false;
+        }
+
+        // Tiles stay in their ring's building map until their meshes are uploaded
+        int building = 0;
+        for (Ring ring : rings) building += ring.building.size();
+        return building == built.size();
+    }
+
+    /**
+     * @return A short summary of the tiles held and drawn
+     */
+    public String getStatistics() {
+        StringBuilder s = new StringBuilder("LOD:");
+        for (Ring ring : rings) {
+            s.append(String.format(" %dx %d (%dKB)", ring.scale, ring.tiles.size(), ring.bytes >> 10));
+        }
+        return s.append(String.format(", %d drawn", drawn)).toString();
+    }
+
+    public void cleanup() {
+        Built b;
+        while ((b = built.poll()) != null) {
+            if (b.data != null) free(b.data);
+        }
+
+        for (Ring ring : rings) {
+            for (int i = 0; i < ring.tiles.capacity(); i++) {
+                if (ring.tiles.occupied(i)) ring.tiles.valueAt(i).cleanup();
+            }
+            ring.tiles.clear();
+        }
+    }
+
+    /**
+     * Drop the tiles of a ring which have left it, and request those which have entered it
+     */
+    private void refresh(Ring ring) {
+        int count = 0;
+        for (int i = 0; i < ring.tiles.capacity(); i++) {
+            if (!ring.tiles.occupied(i)) continue;
+
+            LodTile t = ring.tiles.valueAt(i);
+            if (mask(ring, t.tx, t.tz) == 0) count = markForRemoval(count, ring.tiles.keyAt(i));
+        }
+        for (int i = 0; i < count; i++) drop(ring, ring.tiles.get(removals[i]));
+
+        int min = Math.floorDiv(camX - ring.outer, ring.scale), max = Math.floorDiv(camX + ring.outer, ring.scale);
+        int minZ = Math.floorDiv(camZ - ring.outer, ring.scale), maxZ = Math.floorDiv(camZ + ring.outer, ring.scale);
+        for (int tx = min; tx <= max; tx++) {
+            for (int tz = minZ; tz <= maxZ; tz++) {
+                if (ring.tiles.contains(tx, tz) || distance(ring, tx, tz) >= ring.limit) continue;
+
+                if (mask(ring, tx, tz) != 0) ring.scheduler.request(tx, tz);
+                else ring.scheduler.cancel(tx, tz);
+            }
+        }
+    }
+
+    private void build(Ring ring, LodTile t, long mask) {
+        ring.building.put(t.tx, t.tz, t);
+        pool.execute(() -> {
+            try {
+                built.offer(new Built(ring, t, mask, t.generateMeshData(mask), null));
+            } catch (Throwable e) {
+                built.offer(new Built(ring, t, mask, null, e));
+            }
+        });
+    }
+
+    private void upload(Built b) {
+        Ring ring = b.ring;
+        LodTile t = b.tile;
+        ring.building.remove(t.tx, t.tz);
+
+        // Discard the data if the tile was dropped while it was being meshed
+        if (ring.tiles.get(t.tx, t.tz) != t) {
+            free(b.data);
+            return;
+        }
+
+        int bytes = 0;
+        for (MeshData d : b.data) bytes += d.getBytes();
+
+        // Make room by dropping tiles further away than this one, or else drop this one
+        float distance = distance(ring, t.tx, t.tz);
+        while (ring.bytes - t.getBytes() + bytes > ring.budget) {
+            LodTile furthest = furthest(ring);
+            if (furthest == t || distance(ring, furthest.tx, furthest.tz) <= distance) {
+                ring.limit = Math.min(ring.limit, distance);
+                drop(ring, t);
+                free(b.data);
+                return;
+            }
+
+            ring.limit = Math.min(ring.limit, distance(ring, furthest.tx, furthest.tz));
+            drop(ring, furthest);
+        }
+
+        for (int layer = 0; layer < 16; layer++) {
+            MeshData d = b.data[layer];
+            t.setMesh(layer, d.empty() ? null : d.upload());
+            d.free();
+        }
+
+        ring.bytes += bytes - t.getBytes();
+        t.setMeshed(b.mask, bytes);
+
+        // Once there's room again, tiles further out can come back
+        if (ring.bytes < ring.budget * 3 / 4) ring.limit = Float.MAX_VALUE;
+    }
+
+    private void drop(Ring ring, LodTile t) {
+        ring.tiles.remove(t.tx, t.tz);
+        ring.scheduler.cancel(t.tx, t.tz);
+        ring.bytes -= t.getBytes();
+        t.cleanup();
+    }
+
+    private LodTile furthest(Ring ring) {
+        LodTile furthest = null;
+        float best = -1;
+
+        for (int i = 0; i < ring.tiles.capacity(); i++) {
+            if (!ring.tiles.occupied(i)) continue;
+
+            LodTile t = ring.tiles.valueAt(i);
+            float d = distance(ring, t.tx, t.tz);
+            if (d > best) {
+                best = d;
+                furthest = t;
+            }
+        }
+        return furthest;
+    }
+
+    /**
+     * @return The chunks within a tile which belong to its ring, as described by {@link LodTile#generateMeshData(long)}
+     */
+    private long mask(Ring ring, int tx, int tz) {
+        int scale = ring.scale, inner = ring.inner, outer = ring.outer;
+
+        long mask = 0;
+        for (int z = 0; z < scale; z++) {
+            for (int x = 0; x < scale; x++) {
+                int dx = tx * scale + x - camX, dz = tz * scale + z - camZ;
+                int d = dx * dx + dz * dz;
+
+                if (d >= inner * inner && d < outer * outer) mask |= 1L << (z * scale + x);
+            }
+        }
+        return mask;
+    }
+
+    // The distance, in chunks, from the camera to the centre of a tile
+    private float distance(Ring ring, int tx, int tz) {
+        float dx = (tx + 0.5f) * ring.scale - camX, dz = (tz + 0.5f) * ring.scale - camZ;
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    private int markForRemoval(int count, long key) {
+        if (count == removals.length) removals = Arrays.copyOf(removals, count * 2);
+        removals[count] = key;
+        return count + 1;
+    }
+
+    private static void free(MeshData[] data) {
+        for (MeshData d : data) {
+            if (d != null) d.free();
+        }
+    }
+}
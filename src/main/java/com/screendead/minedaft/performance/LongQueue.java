@@ -0,0 +1,61 @@
+package com.screendead.minedaft.performance;
+
+import java.util.Arrays;
+
+/**
+ * A first-in, first-out queue of longs in a ring buffer which doubles when full, so
+ * breadth-first searches can queue packed positions without boxing or allocating once warm.
+ * Not thread-safe.
+ */
+public class LongQueue {
+    private long[] values;
+    private int head = 0, size = 0;
+
+    public LongQueue() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity The number of values to make room for, rounded up to a power of two
+     */
+    public LongQueue(int capacity) {
+        values = new long[Math.max(16, Integer.highestOneBit(Math.max(1, capacity) - 1) << 1)];
+    }
+
+    public void add(long value) {
+        if (size == values.length) grow();
+
+        values[(head + size++) & (values.length - 1)] = value;
+    }
+
+    /**
+     * @return The value at the front of the queue, which is removed. The queue must not be empty.
+     */
+    public long poll() {
+        long value = values[head];
+        head = (head + 1) & (values.length - 1);
+        size--;
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] grown = Arrays.copyOf(values, values.length * 2);
+
+        // The values wrapped around to the start of the old array now follow on from the end
+        System.arraycopy(values, 0, grown, values.length, head);
+        values = grown;
+    }
+}
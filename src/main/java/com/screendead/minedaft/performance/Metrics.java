@@ -0,0 +1,138 @@
+package com.screendead.minedaft.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Every metric the game keeps, by name. There are three kinds:
+ * <ul>
+ *     <li>Histograms of how long something took, such as a frame or generating a chunk</li>
+ *     <li>Counters of how often something happened, such as chunks loaded from disk</li>
+ *     <li>Gauges, read whenever a snapshot is taken, of how much of something there is now,
+ *     such as the depth of a queue</li>
+ * </ul>
+ * Metrics are looked up once, when their owner is created, and kept in a field; updating them
+ * never takes a lock, so they can be updated from any thread, however hot the code. Snapshots
+ * must only be taken from one thread.
+ */
+public final class Metrics {
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    // Counter totals at the last snapshot
+    private static final Map<String, Long> LAST_COUNTS = new HashMap<>();
+    private static long lastSnapshot = System.nanoTime();
+
+    private Metrics() {
+    }
+
+    /**
+     * A reading of every metric. Histograms and counters cover the time since the last snapshot.
+     */
+    public static class Snapshot {
+        public final long time, nanos;
+        public final Map<String, Histogram.Summary> histograms;
+        public final Map<String, Long> counters, gauges;
+
+        private Snapshot(long time, long nanos, Map<String, Histogram.Summary> histograms, Map<String, Long> counters, Map<String, Long> gauges) {
+            this.time = time;
+            this.nanos = nanos;
+            this.histograms = Collections.unmodifiableMap(histograms);
+            this.counters = Collections.unmodifiableMap(counters);
+            this.gauges = Collections.unmodifiableMap(gauges);
+        }
+
+        /**
+         * @return One line for every metric, for reading on screen
+         */
+        public List<String> format() {
+            List<String> lines = new ArrayList<>();
+            for (Map.Entry<String, Histogram.Summary> e : histograms.entrySet()) {
+                Histogram.Summary s = e.getValue();
+                lines.add(String.format("%s: %d, mean %.2fms, p50 %.2fms, p99 %.2fms, p99.9 %.2fms, max %.2fms",
+                        e.getKey(), s.count, s.mean() / 1e6, s.p50 / 1e6, s.p99 / 1e6, s.p999 / 1e6, s.max / 1e6));
+            }
+            for (Map.Entry<String, Long> e : counters.entrySet()) lines.add(String.format("%s: %d/s", e.getKey(), perSecond(e.getValue())));
+            for (Map.Entry<String, Long> e : gauges.entrySet()) lines.add(String.format("%s: %d", e.getKey(), e.getValue()));
+            return lines;
+        }
+
+        /**
+         * @param name The name of a histogram
+         * @return Its summary, or null if there is no histogram of that name
+         */
+        public Histogram.Summary histogram(String name) {
+            return histograms.get(name);
+        }
+
+        private long perSecond(long count) {
+            return (nanos == 0) ? 0 : Math.round(count * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * @param name The name of the histogram, such as "frame" or "chunk.generate"
+     * @return The histogram, created if it doesn't exist yet
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * @param name The name of the counter
+     * @return The counter, created if it doesn't exist yet
+     */
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Register a gauge, replacing any other of the same name
+     * @param name The name of the gauge, such as "queue.upload"
+     * @param value Reads the gauge. Called on the thread taking snapshots.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * @param name The name of the gauge
+     * @param value The gauge to remove, which is only removed if it is still the one registered
+     */
+    public static void removeGauge(String name, LongSupplier value) {
+        GAUGES.remove(name, value);
+    }
+
+    /**
+     * Read every metric. Must only be called from one thread.
+     * @return The snapshot
+     */
+    public static Snapshot snapshot() {
+        long now = System.nanoTime();
+
+        Map<String, Histogram.Summary> histograms = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : HISTOGRAMS.entrySet()) histograms.put(e.getKey(), e.getValue().interval());
+
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : COUNTERS.entrySet()) {
+            long total = e.getValue().sum();
+            Long last = LAST_COUNTS.put(e.getKey(), total);
+            counters.put(e.getKey(), total - ((last == null) ? 0 : last));
+        }
+
+        Map<String, Long> gauges = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> e : GAUGES.entrySet()) gauges.put(e.getKey(), e.getValue().getAsLong());
+
+        Snapshot s = new Snapshot(System.currentTimeMillis(), now - lastSnapshot, histograms, counters, gauges);
+        lastSnapshot = now;
+        return s;
+    }
+}
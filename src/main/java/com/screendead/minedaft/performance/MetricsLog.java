@@ -0,0 +1,102 @@
+package com.screendead.minedaft.performance;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes {@link Metrics.Snapshot snapshots} to a file as they are taken. A file ending in .json
+ * gets one JSON object per line for each snapshot; anything else gets CSV, with one row for each
+ * metric in each snapshot. Durations are written in milliseconds.
+ */
+public class MetricsLog implements Closeable {
+    private static final String CSV_HEADER = "time,metric,kind,value,count,mean_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms";
+
+    private final BufferedWriter out;
+    private final boolean json;
+
+    /**
+     * @param path The file to write, replaced if it already exists
+     * @throws IOException If the file can't be created
+     */
+    public MetricsLog(Path path) throws IOException {
+        this.json = path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+
+        if (!json) {
+            out.write(CSV_HEADER);
+            out.newLine();
+        }
+    }
+
+    /**
+     * @param s The snapshot to write
+     * @throws IOException If the file can't be written
+     */
+    public void write(Metrics.Snapshot s) throws IOException {
+        if (json) writeJson(s);
+        else writeCsv(s);
+
+        out.flush();
+    }
+
+    private void writeCsv(Metrics.Snapshot s) throws IOException {
+        for (Map.Entry<String, Histogram.Summary> e : s.histograms.entrySet()) {
+            Histogram.Summary h = e.getValue();
+            out.write(String.format(Locale.ROOT, "%d,%s,histogram,,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f", s.time, e.getKey(),
+                    h.count, h.mean() / 1e6, h.p50 / 1e6, h.p90 / 1e6, h.p99 / 1e6, h.p999 / 1e6, h.max / 1e6));
+            out.newLine();
+        }
+        for (Map.Entry<String, Long> e : s.counters.entrySet()) {
+            out.write(String.format(Locale.ROOT, "%d,%s,counter,%d,,,,,,,", s.time, e.getKey(), e.getValue()));
+            out.newLine();
+        }
+        for (Map.Entry<String, Long> e : s.gauges.entrySet()) {
+            out.write(String.format(Locale.ROOT, "%d,%s,gauge,%d,,,,,,,", s.time, e.getKey(), e.getValue()));
+            out.newLine();
+        }
+    }
+
+    private void writeJson(Metrics.Snapshot s) throws IOException {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"time\":").append(s.time).append(",\"interval_ms\":").append(s.nanos / 1_000_000).append(",\"histograms\":{");
+
+        String separator = "";
+        for (Map.Entry<String, Histogram.Summary> e : s.histograms.entrySet()) {
+            Histogram.Summary h = e.getValue();
+            b.append(separator).append('"').append(e.getKey()).append("\":");
+            b.append(String.format(Locale.ROOT, "{\"count\":%d,\"mean_ms\":%.4f,\"p50_ms\":%.4f,\"p90_ms\":%.4f,\"p99_ms\":%.4f,\"p999_ms\":%.4f,\"max_ms\":%.4f}",
+                    h.count, h.mean() / 1e6, h.p50 / 1e6, h.p90 / 1e6, h.p99 / 1e6, h.p999 / 1e6, h.max / 1e6));
+            separator = ",";
+        }
+
+        b.append("},\"counters\":");
+        appendJson(b, s.counters);
+        b.append(",\"gauges\":");
+        appendJson(b, s.gauges);
+        b.append('}');
+
+        out.write(b.toString());
+        out.newLine();
+    }
+
+    private static void appendJson(StringBuilder b, Map<String, Long> values) {
+        b.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> e : values.entrySet()) {
+            b.append(separator).append('"').append(e.getKey()).append("\":").append(e.getValue());
+            separator = ",";
+        }
+        b.append('}');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
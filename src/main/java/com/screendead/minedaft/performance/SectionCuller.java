@@ -0,0 +1,207 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.Chunk;
+import com.screendead.minedaft.world.SectionBounds;
+import com.screendead.minedaft.world.SectionConnectivity;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+/**
+ * Finds the sub-chunks the camera could see, by searching outwards from the camera's own
+ * sub-chunk. The search only passes from one face of a sub-chunk to another if they are joined
+ * by transparent blocks, never turns back on a direction it has already travelled, and never
+ * leaves the view frustum, so sections buried underground or hidden behind hills are never
+ * reached. Whether each column the search enters is in the frustum is found with a
+ * {@link ColumnTree}, so only sections in columns crossing its edge need testing one by one,
+ * and a search which stays underground tests little more than the camera's own column. Of the
+ * sections reached, only
+ * those holding something are listed, nearest first, once the bounds of what they hold pass the
+ * frustum test too. While neither the camera nor the chunks change, the last list stands.
+ * Needs no GL context.
+ */
+public class SectionCuller {
+    // Face directions in the order +Z, -Z, +X, -X, +Y, -Y
+    private static final int[] DX = { 0, 0, 1, -1, 0, 0 };
+    private static final int[] DY = { 0, 0, 0, 0, 1, -1 };
+    private static final int[] DZ = { 1, -1, 0, 0, 0, 0 };
+
+    // Entry face of the sub-chunk the search starts from, which may be left through any face
+    private static final int NO_FACE = 6;
+
+    private final ChunkMap<Chunk> chunks;
+    private final ColumnTree tree;
+    private final FrustumIntersection planes = new FrustumIntersection();
+    private int frame = 0;
+
+    // The camera of the last search, and whether its list still stands
+    private final Matrix4f lastFrustum = new Matrix4f();
+    private float lastX, lastY, lastZ;
+    private boolean valid = false;
+
+    // The search queue, which once the search is done is the list of visible sections. Each entry
+    // packs the sub-chunk (bits 0-3), the face it was entered through (4-6) and the directions
+    // travelled to reach it (7-12).
+    private Chunk[] sectionChunks = new Chunk[1024];
+    private int[] sectionInfo = new int[1024];
+    private int count = 0;
+
+    /**
+     * @param chunks The loaded chunks
+     */
+    public SectionCuller(ChunkMap<Chunk> chunks) {
+        this.chunks = chunks;
+        this.tree = new ColumnTree(chunks);
+    }
+
+    /**
+     * @param c A chunk just added to the loaded chunks
+     */
+    public void add(Chunk c) {
+        tree.add(c.cx, c.cz);
+        valid = false;
+    }
+
+    /**
+     * @param c A chunk just removed from the loaded chunks
+     */
+    public void remove(Chunk c) {
+        tree.remove(c.cx, c.cz);
+        valid = false;
+    }
+
+    /**
+     * Search again next time, as a chunk's connectivity or bounds have changed
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Find the visible sub-chunks. Until the camera's chunk is loaded, every sub-chunk in view is
+     * listed, as there's nowhere to search from.
+     * @param x The X position of the camera
+     * @param y The Y position of the camera
+     * @param z The Z position of the camera
+     * @param frustum The combined projection and view matrix of the camera
+     */
+    public void cull(float x, float y, float z, Matrix4f frustum) {
+        if (valid && x == lastX && y == lastY && z == lastZ && frustum.equals(lastFrustum)) return;
+
+        lastFrustum.set(frustum);
+        lastX = x;
+        lastY = y;
+        lastZ = z;
+        valid = true;
+
+        frame++;
+        count = 0;
+        planes.set(frustum);
+
+        Chunk start = chunks.get((int) Math.floor(x) >> 4, (int) Math.floor(z) >> 4);
+        if (start == null) {
+            tree.search(planes, frame);
+            for (int i = 0; i < tree.getInViewCount(); i++) {
+                for (int s = 0; s < 16; s++) push(tree.getInView(i), s, NO_FACE, 0);
+            }
+            keepDrawn();
+            return;
+        }
+
+        // From above or below the world, enter through the top or bottom
+        int sy = (int) Math.floor(y) >> 4, entry = NO_FACE;
+        if (sy > 15) {
+            sy = 15;
+            entry = 4;
+        } else if (sy < 0) {
+            sy = 0;
+            entry = 5;
+        }
+
+        tree.classify(start, planes, frame);
+        start.visit(sy, frame);
+        push(start, sy, entry, 0);
+
+        for (int head = 0; head < count; head++) {
+            Chunk c = sectionChunks[head];
+            int info = sectionInfo[head];
+            int s = info & 15, in = (info >> 4) & 7, travelled = info >> 7;
+            long graph = c.getConnectivity(s);
+
+            for (int out = 0; out < 6; out++) {
+                if ((travelled & (1 << (out ^ 1))) != 0) continue;
+                if (in != NO_FACE && !SectionConnectivity.connects(graph, in, out)) continue;
+
+                int ny = s + DY[out];
+                if (ny < 0 || ny > 15) continue;
+
+                Chunk n = (DY[out] != 0) ? c : chunks.get(c.cx + DX[out], c.cz + DZ[out]);
+                if (n == null) continue;
+                if (!n.isViewKnown(frame)) tree.classify(n, planes, frame);
+                if (!n.isInView(frame)) continue;
+                if (!n.isInsideView(frame) && !planes.testAab(n.cx << 4, ny << 4, n.cz << 4, (n.cx + 1) << 4, (ny + 1) << 4, (n.cz + 1) << 4)) continue;
+                if (!n.visit(ny, frame)) continue;
+
+                push(n, ny, out ^ 1, travelled | (1 << out));
+            }
+        }
+
+        keepDrawn();
+    }
+
+    /**
+     * Drop the sections reached which hold nothing, or whose contents are out of view, keeping the order of the rest
+     */
+    private void keepDrawn() {
+        int drawn = 0;
+        for (int i = 0; i < count; i++) {
+            Chunk c = sectionChunks[i];
+            int s = sectionInfo[i] & 15, b = c.getBounds(s);
+            if (b == SectionBounds.EMPTY) continue;
+
+            if (!c.isInsideView(frame)) {
+                int x = c.cx << 4, y = s << 4, z = c.cz << 4;
+                if (!planes.testAab(x + SectionBounds.minX(b), y + SectionBounds.minY(b), z + SectionBounds.minZ(b),
+                        x + SectionBounds.maxX(b) + 1, y + SectionBounds.maxY(b) + 1, z + SectionBounds.maxZ(b) + 1)) continue;
+            }
+
+            sectionChunks[drawn] = c;
+            sectionInfo[drawn++] = sectionInfo[i];
+        }
+        count = drawn;
+    }
+
+    private void push(Chunk c, int subChunk, int entry, int travelled) {
+        if (count == sectionChunks.length) {
+            sectionChunks = Arrays.copyOf(sectionChunks, count * 2);
+            sectionInfo = Arrays.copyOf(sectionInfo, count * 2);
+        }
+
+        sectionChunks[count] = c;
+        sectionInfo[count++] = subChunk | (entry << 4) | (travelled << 7);
+    }
+
+    /**
+     * @return The number of sections found visible by the last search, which hold something to draw
+     */
+    public int getVisibleCount() {
+        return count;
+    }
+
+    /**
+     * @param i The index of a visible section, from 0 (nearest) to {@link #getVisibleCount()}
+     * @return The chunk the section belongs to
+     */
+    public Chunk getVisibleChunk(int i) {
+        return sectionChunks[i];
+    }
+
+    /**
+     * @param i The index of a visible section, from 0 (nearest) to {@link #getVisibleCount()}
+     * @return The index of the section within its chunk, from the bottom up
+     */
+    public int getVisibleSubChunk(int i) {
+        return sectionInfo[i] & 15;
+    }
+}
@@ -0,0 +1,53 @@
+package com.screendead.minedaft.performance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Passes the latest of a stream of values from one thread to another without either ever
+ * waiting. There are three slots: the writer fills the back one and swaps it with the middle one
+ * to publish it, and the reader swaps the middle one with the front one whenever something new
+ * has been published, so each thread always holds a slot the other can't touch. The reader only
+ * ever sees the newest value; any published in between are skipped. Slots are reused, so the
+ * writer must fill in everything the reader looks at before publishing. One writer, one reader.
+ * @param <T> The type of value passed
+ */
+public class TripleBuffer<T> {
+    // Set on the middle index when it holds a value the reader hasn't taken yet
+    private static final int FRESH = 4;
+
+    private final T[] slots;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0, front = 2;
+
+    /**
+     * @param factory Creates each of the three slots
+     */
+    @SuppressWarnings("unchecked")
+    public TripleBuffer(Supplier<T> factory) {
+        slots = (T[]) new Object[] { factory.get(), factory.get(), factory.get() };
+    }
+
+    /**
+     * @return The slot to fill in next. Writer only.
+     */
+    public T getBack() {
+        return slots[back];
+    }
+
+    /**
+     * Hand the back slot to the reader, and take another to fill in next. Writer only.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    /**
+     * Take the newest value published, if there is one the reader hasn't taken yet. Reader only.
+     * @return The newest value, which stays the reader's until the next call
+     */
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) front = middle.getAndSet(front) & 3;
+        return slots[front];
+    }
+}
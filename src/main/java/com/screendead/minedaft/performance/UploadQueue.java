@@ -0,0 +1,219 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.graphics.MeshData;
+import com.screendead.minedaft.world.Chunk;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesh data waiting to be uploaded to the GPU. Rather than uploading everything as soon as it
+ * arrives, each frame uploads the chunks nearest the camera first and stops once its time or byte
+ * budget is spent, so a burst of newly meshed chunks is spread over several frames instead of
+ * stalling one. Must only be used from the GL thread.
+ */
+public class UploadQueue {
+    // Each frame's uploads, for frames which uploaded anything
+    private static final Histogram UPLOAD = Metrics.histogram("upload");
+    private static final LongAdder UPLOADED = Metrics.counter("upload.bytes");
+
+    private static class Entry {
+        final Chunk chunk;
+        final MeshData[] data = new MeshData[16];
+        int remaining = 0;
+
+        Entry(Chunk chunk) {
+            this.chunk = chunk;
+        }
+    }
+
+    private final ChunkMap<Entry> pending = new ChunkMap<>();
+    private long budgetNanos, budgetBytes;
+    private int depth = 0;
+
+    private long lastNanos = 0, lastBytes = 0, peakNanos = 0;
+    private int lastCount = 0;
+
+    /**
+     * @param budgetNanos The time to spend uploading each frame, in nanoseconds
+     * @param budgetBytes The most bytes to upload each frame
+     */
+    public UploadQueue(long budgetNanos, long budgetBytes) {
+        setBudget(budgetNanos, budgetBytes);
+    }
+
+    /**
+     * At least one sub-chunk is uploaded each frame, even if it alone exceeds the budget
+     * @param budgetNanos The time to spend uploading each frame, in nanoseconds
+     * @param budgetBytes The most bytes to upload each frame
+     */
+    public void setBudget(long budgetNanos, long budgetBytes) {
+        this.budgetNanos = budgetNanos;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Queue the mesh data of a chunk, replacing any data still waiting for the same sub-chunks
+     * @param c The chunk the data belongs to
+     * @param data The mesh data of each sub-chunk, from the bottom up, with null for those unchanged
+     */
+    public void add(Chunk c, MeshData[] data) {
+        Entry e = pending.get(c.cx, c.cz);
+        if (e == null || e.chunk != c) {
+            if (e != null) free(pending.remove(c.cx, c.cz));
+            e = new Entry(c);
+            pending.put(c.cx, c.cz, e);
+        }
+
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == null) continue;
+
+            if (e.data[i] != null) {
+                e.data[i].free();
+                e.remaining--;
+                depth--;
+            }
+            e.data[i] = data[i];
+            e.remaining++;
+            depth++;
+        }
+
+        if (e.remaining == 0) pending.remove(c.cx, c.cz);
+    }
+
+    /**
+     * Drop and free any of a chunk's data still waiting
+     * @param c The chunk
+     * @return Whether any data was waiting
+     */
+    public boolean remove(Chunk c) {
+        Entry e = pending.get(c.cx, c.cz);
+        if (e == null || e.chunk != c) return false;
+
+        free(pending.remove(c.cx, c.cz));
+        return true;
+    }
+
+    /**
+     * Upload sub-chunks, nearest chunk first, until this frame's budget is spent.
+     * @param cx The X position of the camera, in chunk co-ordinates
+     * @param cz The Z position of the camera, in chunk co-ordinates
+     */
+    public void upload(int cx, int cz) {
+        long start = System.nanoTime(), elapsed = 0, bytes = 0;
+        int count = 0;
+
+        while (!pending.isEmpty() && (count == 0 || (elapsed < budgetNanos && bytes < budgetBytes))) {
+            Entry e = nearest(cx, cz);
+
+            // Finish the chunk before looking for the next nearest, as its sub-chunks are all as close
+            for (int i = 0; i < e.data.length && e.remaining > 0 && (count == 0 || (elapsed < budgetNanos && bytes < budgetBytes)); i++) {
+                MeshData d = e.data[i];
+                if (d == null) continue;
+
+                e.data[i] = null;
+                e.remaining--;
+                depth--;
+
+                if (!d.empty()) {
+                    bytes += d.getBytes();
+                    e.chunk.setMesh(i, d.upload());
+                    count++;
+                } else {
+                    e.chunk.setMesh(i, null);
+                }
+                d.free();
+
+                elapsed = System.nanoTime() - start;
+            }
+
+            if (e.remaining == 0) pending.remove(e.chunk.cx, e.chunk.cz);
+        }
+
+        if (count > 0) {
+            UPLOAD.record(elapsed);
+            UPLOADED.add(bytes);
+        }
+
+        lastNanos = elapsed;
+        lastBytes = bytes;
+        lastCount = count;
+        peakNanos = Math.max(peakNanos, elapsed);
+    }
+
+    private Entry nearest(int cx, int cz) {
+        Entry nearest = null;
+        long best = Long.MAX_VALUE;
+
+        for (int i = 0; i < pending.capacity(); i++) {
+            if (!pending.occupied(i)) continue;
+
+            long key = pending.keyAt(i);
+            long dx = ChunkMap.keyX(key) - cx, dz = ChunkMap.keyZ(key) - cz;
+            if (dx * dx + dz * dz < best) {
+                best = dx * dx + dz * dz;
+                nearest = pending.valueAt(i);
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Drop and free everything waiting
+     */
+    public void clear() {
+        for (int i = 0; i < pending.capacity(); i++) {
+            if (!pending.occupied(i)) continue;
+
+            free(pending.valueAt(i));
+        }
+        pending.clear();
+        depth = 0;
+    }
+
+    private void free(Entry e) {
+        for (int i = 0; i < e.data.length; i++) {
+            if (e.data[i] != null) e.data[i].free();
+            e.data[i] = null;
+        }
+        depth -= e.remaining;
+        e.remaining = 0;
+    }
+
+    /**
+     * @return The number of sub-chunk meshes waiting to be uploaded
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The time spent uploading in the last frame, in nanoseconds
+     */
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * @return The number of bytes uploaded in the last frame
+     */
+    public long getLastBytes() {
+        return lastBytes;
+    }
+
+    /**
+     * @return The number of non-empty sub-chunk meshes uploaded in the last frame
+     */
+    public int getLastCount() {
+        return lastCount;
+    }
+
+    /**
+     * @return The longest time spent uploading in one frame since the last call, in nanoseconds
+     */
+    public long takePeakNanos() {
+        long peak = peakNanos;
+        peakNanos = 0;
+        return peak;
+    }
+}
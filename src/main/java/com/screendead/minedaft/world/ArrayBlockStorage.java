@@ -0,0 +1,39 @@
+package com.screendead.minedaft.world;
+
+/**
+ * Uncompressed block storage, one int per block.
+ */
+public class ArrayBlockStorage implements BlockStorage {
+    private final int[] blocks;
+
+    public ArrayBlockStorage() {
+        this(new int[SIZE]);
+    }
+
+    public ArrayBlockStorage(int[] blocks) {
+        if (blocks.length != SIZE) throw new IllegalArgumentException("Expected " + SIZE + " blocks, got " + blocks.length);
+
+        this.blocks = blocks;
+    }
+
+    @Override
+    public int get(int index) {
+        return blocks[index];
+    }
+
+    @Override
+    public void set(int index, int id) {
+        blocks[index] = id;
+    }
+
+    @Override
+    public BlockStorage copy() {
+        return new ArrayBlockStorage(blocks.clone());
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        // Object header + reference, array header + contents
+        return 16 + 16 + 4L * blocks.length;
+    }
+}
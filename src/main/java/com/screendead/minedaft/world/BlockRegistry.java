@@ -0,0 +1,421 @@
+package com.screendead.minedaft.world;
+
+import com.screendead.minedaft.Minedaft;
+import com.screendead.minedaft.graphics.MeshBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The properties of every block type, indexed by block ID and kept in flat primitive arrays
+ * so the mesher and generator can look them up in their inner loops without allocating.
+ * Block types are loaded from resources/blocks.txt, so new ones can be added without code changes.
+ * A face's texture is either a tile already drawn into the atlas, given by its texture co-ordinates,
+ * or an image from resources/img/block, given by name. Each image is given an atlas tile no face
+ * uses, which the renderer draws the image into when it loads the atlas; there are only as many
+ * of those as the atlas has tiles to spare.
+ */
+public final class BlockRegistry {
+    // Face directions in the order +Z, -Z, +X, -X, +Y, -Y
+    private static final String[] FACE_NAMES = { "+z", "-z", "+x", "-x", "+y", "-y" };
+
+    // The corners of each face of a unit cube, as x, y, z
+    private static final int[][] VERTICES = new int[][] {
+            { 0, 0, 1,  0, 1, 1,  1, 0, 1,  1, 1, 1 }, // +Z
+            { 1, 0, 0,  1, 1, 0,  0, 0, 0,  0, 1, 0 }, // -Z
+            { 1, 0, 1,  1, 1, 1,  1, 0, 0,  1, 1, 0 }, // +X
+            { 0, 0, 0,  0, 1, 0,  0, 0, 1,  0, 1, 1 }, // -X
+            { 0, 1, 0,  1, 1, 0,  0, 1, 1,  1, 1, 1 }, // +Y
+            { 0, 0, 1,  1, 0, 1,  0, 0, 0,  1, 0, 0 }, // -Y
+    };
+
+    private static final int[] INDICES = { 0, 2, 1, 1, 2, 3 };
+
+    // The atlas is this many tiles across and down
+    private static final int ATLAS_TILES = 16;
+
+    // The texture co-ordinates of the corners of a face textured by an image, relative to its
+    // tile, which keep the image upright on the sides
+    private static final int[] IMAGE_UV = { 1, 1,  1, 0,  0, 1,  0, 0 };
+
+    private static final int COUNT;
+    private static final String[] NAMES;
+    private static final boolean[] TRANSPARENT, SOLID;
+    private static final byte[] OPACITY, EMISSION;
+    private static final boolean EMITTERS;
+
+    // Per face, at (id * 6 + face): the atlas tile, the world axes the texture's U and V run
+    // along, and the offset within the tile of each corner's U and V
+    private static final int[] TILE_U, TILE_V;
+    private static final byte[] AXIS_U, AXIS_V;
+    private static final byte[] CORNER_U, CORNER_V;
+
+    // The images drawn into the atlas, by name, and the tile each is drawn into
+    private static final String[] IMAGES;
+    private static final int[] IMAGE_TILE_U, IMAGE_TILE_V;
+
+    static {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(Minedaft.getResource("blocks.txt")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<Definition> blocks = parse(lines);
+        COUNT = blocks.size();
+        NAMES = new String[COUNT];
+        TRANSPARENT = new boolean[COUNT];
+        SOLID = new boolean[COUNT];
+        OPACITY = new byte[COUNT];
+        EMISSION = new byte[COUNT];
+        TILE_U = new int[COUNT * 6];
+        TILE_V = new int[COUNT * 6];
+        AXIS_U = new byte[COUNT * 6];
+        AXIS_V = new byte[COUNT * 6];
+        CORNER_U = new byte[COUNT * 6 * 4];
+        CORNER_V = new byte[COUNT * 6 * 4];
+
+        // Give each image a tile of its own, from those no face's texture co-ordinates use
+        boolean[] used = new boolean[ATLAS_TILES * ATLAS_TILES];
+        List<String> images = new ArrayList<>();
+        for (Definition d : blocks) {
+            for (int face = 0; face < 6; face++) {
+                if (d.faces[face] != null) {
+                    int u = tile(d.faces[face], 0), v = tile(d.faces[face], 1);
+                    if (u < ATLAS_TILES && v < ATLAS_TILES) used[v * ATLAS_TILES + u] = true;
+                } else if (d.images[face] != null && !images.contains(d.images[face])) {
+                    images.add(d.images[face]);
+                }
+            }
+        }
+
+        IMAGES = images.toArray(new String[0]);
+        IMAGE_TILE_U = new int[IMAGES.length];
+        IMAGE_TILE_V = new int[IMAGES.length];
+        for (int i = 0, tile = 0; i < IMAGES.length; i++, tile++) {
+            while (tile < used.length && used[tile]) tile++;
+            if (tile == used.length) throw new IllegalStateException("No atlas tile is left for image " + IMAGES[i]);
+
+            IMAGE_TILE_U[i] = tile % ATLAS_TILES;
+            IMAGE_TILE_V[i] = tile / ATLAS_TILES;
+        }
+
+        boolean emitters = false;
+        for (int id = 0; id < COUNT; id++) {
+            Definition d = blocks.get(id);
+            NAMES[id] = d.name;
+            TRANSPARENT[id] = d.transparent;
+            SOLID[id] = d.solid;
+            OPACITY[id] = (byte) ((d.opacity >= 0) ? d.opacity : d.transparent ? 0 : 15);
+            EMISSION[id] = (byte) d.emission;
+            emitters |= d.emission > 0;
+
+            for (int face = 0; face < 6; face++) {
+                int[] uv = d.faces[face];
+                if (d.images[face] != null) {
+                    int i = images.indexOf(d.images[face]);
+                    uv = new int[8];
+                    for (int j = 0; j < 4; j++) {
+                        uv[j * 2] = IMAGE_TILE_U[i] + IMAGE_UV[j * 2];
+                        uv[j * 2 + 1] = IMAGE_TILE_V[i] + IMAGE_UV[j * 2 + 1];
+                    }
+                }
+
+                if (uv != null) initFace(d.name, id * 6 + face, face, uv);
+            }
+        }
+        EMITTERS = emitters;
+    }
+
+    private BlockRegistry() {}
+
+    /**
+     * @return The number of block types
+     */
+    public static int count() {
+        return COUNT;
+    }
+
+    /**
+     * @param id The block ID
+     * @return Whether faces behind the block can be seen
+     */
+    public static boolean isTransparent(int id) {
+        return TRANSPARENT[id];
+    }
+
+    /**
+     * @param id The block ID
+     * @return How much light the block absorbs, from 0 to 15
+     */
+    public static int getOpacity(int id) {
+        return OPACITY[id];
+    }
+
+    /**
+     * @param id The block ID
+     * @return How much light the block gives off, from 0 to 15
+     */
+    public static int getEmission(int id) {
+        return EMISSION[id];
+    }
+
+    /**
+     * @return Whether any block type gives off light
+     */
+    public static boolean hasEmitters() {
+        return EMITTERS;
+    }
+
+    /**
+     * @param id The block ID
+     * @return Whether the block can be collided with
+     */
+    public static boolean isSolid(int id) {
+        return SOLID[id];
+    }
+
+    public static String getName(int id) {
+        return NAMES[id];
+    }
+
+    /**
+     * @param name The name of a block type
+     * @return Its ID, or -1 if there is no such block type
+     */
+    public static int getId(String name) {
+        for (int id = 0; id < COUNT; id++) {
+            if (NAMES[id].equalsIgnoreCase(name)) return id;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id The block ID
+     * @param face The face direction
+     * @return The column of the face's atlas tile
+     */
+    public static int getTileU(int id, int face) {
+        return TILE_U[id * 6 + face];
+    }
+
+    /**
+     * @param id The block ID
+     * @param face The face direction
+     * @return The row of the face's atlas tile
+     */
+    public static int getTileV(int id, int face) {
+        return TILE_V[id * 6 + face];
+    }
+
+    /**
+     * @return The number of images to draw into the atlas
+     */
+    public static int getImageCount() {
+        return IMAGES.length;
+    }
+
+    /**
+     * @param i The index of an image, from 0 to {@link #getImageCount()}
+     * @return The image's name, which is the name of a file in resources/img/block without its extension
+     */
+    public static String getImage(int i) {
+        return IMAGES[i];
+    }
+
+    /**
+     * @param i The index of an image, from 0 to {@link #getImageCount()}
+     * @return The column of the atlas tile to draw the image into
+     */
+    public static int getImageTileU(int i) {
+        return IMAGE_TILE_U[i];
+    }
+
+    /**
+     * @param i The index of an image, from 0 to {@link #getImageCount()}
+     * @return The row of the atlas tile to draw the image into
+     */
+    public static int getImageTileV(int i) {
+        return IMAGE_TILE_V[i];
+    }
+
+    /**
+     * Append one face of a box of blocks under open sky
+     * @see #addFace(MeshBuilder, int, int, int, int, int, int, int, int, int)
+     */
+    public static void addFace(MeshBuilder b, int id, int face, int x, int y, int z, int sx, int sy, int sz) {
+        addFace(b, id, face, x, y, z, sx, sy, sz, Light.DAYLIGHT);
+    }
+
+    /**
+     * Append one face of a box of blocks. The texture is repeated once per block
+     * across the face, so texture coordinates are given as the atlas tile (in tiles) followed
+     * by the position within the face (in blocks), which the shader wraps back into the tile.
+     * @param b The builder to append to
+     * @param id The block ID
+     * @param face The face direction, in the order +Z, -Z, +X, -X, +Y, -Y
+     * @param x The X position of the box's minimum corner within its sub-chunk
+     * @param y The Y position of the box's minimum corner within its sub-chunk
+     * @param z The Z position of the box's minimum corner within its sub-chunk
+     * @param sx The width of the box, in blocks
+     * @param sy The height of the box, in blocks
+     * @param sz The depth of the box, in blocks
+     * @param light The light in front of the face, packed as described by {@link Light}
+     */
+    public static void addFace(MeshBuilder b, int id, int face, int x, int y, int z, int sx, int sy, int sz, int light) {
+        int f = id * 6 + face;
+        int[] v = VERTICES[face];
+        int repeatU = select(AXIS_U[f], sx, sy, sz), repeatV = select(AXIS_V[f], sx, sy, sz);
+
+        int base = b.getVertexCount();
+        for (int j = 0; j < 4; j++) {
+            b.vertex(v[j * 3] * sx + x, v[j * 3 + 1] * sy + y, v[j * 3 + 2] * sz + z, face,
+                    TILE_U[f], TILE_V[f], CORNER_U[f * 4 + j] * repeatU, CORNER_V[f * 4 + j] * repeatV, light);
+        }
+
+        b.triangle(base + INDICES[0], base + INDICES[1], base + INDICES[2]);
+        b.triangle(base + INDICES[3], base + INDICES[4], base + INDICES[5]);
+    }
+
+    private static int select(int axis, int x, int y, int z) {
+        return (axis == 0) ? x : (axis == 1) ? y : z;
+    }
+
+    /**
+     * Find the atlas tile, corner offsets and texture axes of a face
+     * @param uv The texture co-ordinates of the face's four corners, in atlas tiles
+     */
+    private static void initFace(String name, int f, int face, int[] uv) {
+        TILE_U[f] = tile(uv, 0);
+        TILE_V[f] = tile(uv, 1);
+
+        for (int j = 0; j < 4; j++) {
+            int u = uv[j * 2] - TILE_U[f], v = uv[j * 2 + 1] - TILE_V[f];
+            if (u > 1 || v > 1) throw new IllegalStateException("Face " + FACE_NAMES[face] + " of " + name + " covers more than one tile");
+
+            CORNER_U[f * 4 + j] = (byte) u;
+            CORNER_V[f * 4 + j] = (byte) v;
+        }
+
+        AXIS_U[f] = (byte) textureAxis(name, face, uv, 0);
+        AXIS_V[f] = (byte) textureAxis(name, face, uv, 1);
+    }
+
+    /**
+     * @param uv The texture co-ordinates of a face's four corners, in atlas tiles
+     * @param component 0 for U, 1 for V
+     * @return The column or row of the face's atlas tile
+     */
+    private static int tile(int[] uv, int component) {
+        return Math.min(Math.min(uv[component], uv[2 + component]), Math.min(uv[4 + component], uv[6 + component]));
+    }
+
+    /**
+     * Find the axis of the world along which a texture coordinate of a face changes
+     * @param component 0 for U, 1 for V
+     * @return 0, 1 or 2 for X, Y or Z
+     */
+    private static int textureAxis(String name, int face, int[] uv, int component) {
+        int other = 1 - component;
+
+        // Find the corner which differs from the first only in the requested component
+        for (int corner = 1; corner < 4; corner++) {
+            if (uv[corner * 2 + component] != uv[component] && uv[corner * 2 + other] == uv[other]) {
+                for (int axis = 0; axis < 3; axis++) {
+                    if (VERTICES[face][corner * 3 + axis] != VERTICES[face][axis]) return axis;
+                }
+            }
+        }
+
+        throw new IllegalStateException("Texture of " + name + " is not aligned with face " + FACE_NAMES[face]);
+    }
+
+    private static class Definition {
+        final String name;
+        boolean transparent = false, solid = true;
+        int opacity = -1, emission = 0;
+        final int[][] faces = new int[6][];
+        final String[] images = new String[6];
+
+        Definition(String name) {
+            this.name = name;
+        }
+    }
+
+    private static List<Definition> parse(List<String> lines) {
+        List<Definition> blocks = new ArrayList<>();
+        Definition d = null;
+
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            if (line.startsWith("[") && line.endsWith("]")) {
+                d = new Definition(line.substring(1, line.length() - 1).trim());
+                blocks.add(d);
+                continue;
+            }
+
+            int eq = line.indexOf('=');
+            if (d == null || eq < 0) throw new IllegalStateException("blocks.txt line " + (n + 1) + ": expected [name] or key = value");
+
+            String key = line.substring(0, eq).trim().toLowerCase(), value = line.substring(eq + 1).trim();
+            switch (key) {
+                case "transparent":
+                    d.transparent = Boolean.parseBoolean(value);
+                    break;
+                case "solid":
+                    d.solid = Boolean.parseBoolean(value);
+                    break;
+                case "opacity":
+                    d.opacity = Math.max(0, Math.min(15, Integer.parseInt(value)));
+                    break;
+                case "emission":
+                    d.emission = Math.max(0, Math.min(15, Integer.parseInt(value)));
+                    break;
+                default:
+                    // A single word names an image rather than giving texture co-ordinates
+                    if (value.matches("[A-Za-z_][\\w.]*")) {
+                        for (int face : faces(key, n)) {
+                            d.faces[face] = null;
+                            d.images[face] = value;
+                        }
+                        break;
+                    }
+
+                    int[] uv = Arrays.stream(value.split("\\s+")).mapToInt(Integer::parseInt).toArray();
+                    if (uv.length != 8) throw new IllegalStateException("blocks.txt line " + (n + 1) + ": expected four u v pairs or an image name");
+
+                    for (int face : faces(key, n)) {
+                        d.faces[face] = uv;
+                        d.images[face] = null;
+                    }
+            }
+        }
+
+        return blocks;
+    }
+
+    private static int[] faces(String key, int n) {
+        switch (key) {
+            case "all":
+                return new int[] { 0, 1, 2, 3, 4, 5 };
+            case "sides":
+                return new int[] { 0, 1, 2, 3 };
+            case "top":
+                return new int[] { 4 };
+            case "bottom":
+                return new int[] { 5 };
+            default:
+                int face = Arrays.asList(FACE_NAMES).indexOf(key);
+                if (face < 0) throw new IllegalStateException("blocks.txt line " + (n + 1) + ": unknown property " + key);
+                return new int[] { face };
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.screendead.minedaft.world;
+
+/**
+ * Block ID storage for a single 16x16x16 section of a chunk.
+ * Indices use the same layout as {@link Chunk#flatten(int, int, int)}
+ * with the Y co-ordinate taken relative to the bottom of the section.
+ */
+public interface BlockStorage {
+    int SIZE = 4096;
+
+    /**
+     * @param index The flattened position within the section
+     * @return The block ID at that position
+     */
+    int get(int index);
+
+    /**
+     * @param index The flattened position within the section
+     * @param id The block ID to store
+     */
+    void set(int index, int id);
+
+    /**
+     * @return An independent copy of this storage
+     */
+    BlockStorage copy();
+
+    /**
+     * @return An estimate of the heap used by this storage, in bytes
+     */
+    long getMemoryUsage();
+
+    /**
+     * @param x The X position within the section
+     * @param y The Y position within the section
+     * @param z The Z position within the section
+     * @return The flattened index of the position
+     */
+    static int index(int x, int y, int z) {
+        return (y << 8) | (x << 4) | z;
+    }
+}
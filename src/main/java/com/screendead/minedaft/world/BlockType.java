@@ -1,348 +1,76 @@
 package com.screendead.minedaft.world;
 
+import com.screendead.minedaft.graphics.MeshBuilder;
 import com.screendead.minedaft.graphics.MeshComponent;
 
-import java.util.ArrayList;
-
+/**
+ * The block types the game refers to by name. Their IDs are their ordinals, and their
+ * properties come from the {@link BlockRegistry}, which may define further types after these.
+ * Inner loops should use the registry directly.
+ */
 public enum BlockType {
-    DEBUG("debug", false, new float[][] {
-            new float[] { // +Z
-                    15.0f, 16.0f,
-                    15.0f, 15.0f,
-                    16.0f, 16.0f,
-                    16.0f, 15.0f,
-            }, new float[] { // -Z
-                    15.0f, 16.0f,
-                    15.0f, 15.0f,
-                    16.0f, 16.0f,
-                    16.0f, 15.0f,
-            }, new float[] { // +X
-                    15.0f, 16.0f,
-                    15.0f, 15.0f,
-                    16.0f, 16.0f,
-                    16.0f, 15.0f,
-            }, new float[] { // -X
-                    15.0f, 16.0f,
-                    15.0f, 15.0f,
-                    16.0f, 16.0f,
-                    16.0f, 15.0f,
-            }, new float[] { // +Y
-                    15.0f, 16.0f,
-                    15.0f, 15.0f,
-                    16.0f, 16.0f,
-                    16.0f, 15.0f,
-            }, new float[] { // -Y
-                    15.0f, 16.0f,
-                    15.0f, 15.0f,
-                    16.0f, 16.0f,
-                    16.0f, 15.0f,
-            }
-    }),
-    AIR("air", true, new float[][] {}),
-    GRASS("grass", false, new float[][] {
-            new float[] { // +Z
-                    1.0f, 1.0f,
-                    1.0f, 0.0f,
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-            }, new float[] { // -Z
-                    1.0f, 1.0f,
-                    1.0f, 0.0f,
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-            }, new float[] { // +X
-                    1.0f, 1.0f,
-                    1.0f, 0.0f,
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-            }, new float[] { // -X
-                    1.0f, 1.0f,
-                    1.0f, 0.0f,
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-            }, new float[] { // +Y
-                    0.0f, 2.0f,
-                    0.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }, new float[] { // -Y
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }
-    }),
-    DIRT("dirt", false, new float[][] {
-            new float[] { // +Z
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // -Z
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // +X
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // -X
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // +Y
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // -Y
-                    1.0f, 0.0f,
-                    2.0f, 0.0f,
-                    1.0f, 1.0f,
-                    2.0f, 1.0f,
-            }
-    }),
-    STONE("stone", false, new float[][] {
-            new float[] { // +Z
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }, new float[] { // -Z
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }, new float[] { // +X
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }, new float[] { // -X
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }, new float[] { // +Y
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }, new float[] { // -Y
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-                    1.0f, 2.0f,
-                    1.0f, 1.0f,
-            }
-    }),
-    BEDROCK("bedrock", false, new float[][] {
-            new float[] { // +Z
-                    3.0f, 1.0f,
-                    3.0f, 0.0f,
-                    2.0f, 1.0f,
-                    2.0f, 0.0f,
-            }, new float[] { // -Z
-                    3.0f, 1.0f,
-                    3.0f, 0.0f,
-                    2.0f, 1.0f,
-                    2.0f, 0.0f,
-            }, new float[] { // +X
-                    3.0f, 1.0f,
-                    3.0f, 0.0f,
-                    2.0f, 1.0f,
-                    2.0f, 0.0f,
-            }, new float[] { // -X
-                    3.0f, 1.0f,
-                    3.0f, 0.0f,
-                    2.0f, 1.0f,
-                    2.0f, 0.0f,
-            }, new float[] { // +Y
-                    3.0f, 1.0f,
-                    3.0f, 0.0f,
-                    2.0f, 1.0f,
-                    2.0f, 0.0f,
-            }, new float[] { // -Y
-                    3.0f, 1.0f,
-                    3.0f, 0.0f,
-                    2.0f, 1.0f,
-                    2.0f, 0.0f,
-            }
-    }),
-    TNT("TNT", false, new float[][] {
-            new float[] { // +Z
-                    1.0f, 3.0f,
-                    1.0f, 2.0f,
-                    2.0f, 3.0f,
-                    2.0f, 2.0f,
-            }, new float[] { // -Z
-                    1.0f, 3.0f,
-                    1.0f, 2.0f,
-                    2.0f, 3.0f,
-                    2.0f, 2.0f,
-            }, new float[] { // +X
-                    1.0f, 3.0f,
-                    1.0f, 2.0f,
-                    2.0f, 3.0f,
-                    2.0f, 2.0f,
-            }, new float[] { // -X
-                    1.0f, 3.0f,
-                    1.0f, 2.0f,
-                    2.0f, 3.0f,
-                    2.0f, 2.0f,
-            }, new float[] { // +Y
-                    0.0f, 3.0f,
-                    0.0f, 2.0f,
-                    1.0f, 3.0f,
-                    1.0f, 2.0f,
-            }, new float[] { // -Y
-                    2.0f, 3.0f,
-                    2.0f, 2.0f,
-                    3.0f, 3.0f,
-                    3.0f, 2.0f,
-            }
-    }),
-    ICE("ice", true, new float[][] {
-            new float[] { // +Z
-                    3.0f, 2.0f,
-                    3.0f, 1.0f,
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // -Z
-                    3.0f, 2.0f,
-                    3.0f, 1.0f,
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // +X
-                    3.0f, 2.0f,
-                    3.0f, 1.0f,
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // -X
-                    3.0f, 2.0f,
-                    3.0f, 1.0f,
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // +Y
-                    3.0f, 2.0f,
-                    3.0f, 1.0f,
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-            }, new float[] { // -Y
-                    3.0f, 2.0f,
-                    3.0f, 1.0f,
-                    2.0f, 2.0f,
-                    2.0f, 1.0f,
-            }
-    });
-
-    private static final float[][] vertices = new float[][] {
-            new float[] { // +Z
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 1.0f, 1.0f,
-                    1.0f, 0.0f, 1.0f,
-                    1.0f, 1.0f, 1.0f
-            }, new float[] { // -Z
-                    1.0f, 0.0f, 0.0f,
-                    1.0f, 1.0f, 0.0f,
-                    0.0f, 0.0f, 0.0f,
-                    0.0f, 1.0f, 0.0f
-            }, new float[] { // +X
-                    1.0f, 0.0f, 1.0f,
-                    1.0f, 1.0f, 1.0f,
-                    1.0f, 0.0f, 0.0f,
-                    1.0f, 1.0f, 0.0f
-            }, new float[] { // -X
-                    0.0f, 0.0f, 0.0f,
-                    0.0f, 1.0f, 0.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 1.0f, 1.0f
-            }, new float[] { // +Y
-                    0.0f, 1.0f, 0.0f,
-                    1.0f, 1.0f, 0.0f,
-                    0.0f, 1.0f, 1.0f,
-                    1.0f, 1.0f, 1.0f
-            }, new float[] { // -Y
-                    0.0f, 0.0f, 1.0f,
-                    1.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f,
-                    1.0f, 0.0f, 0.0f
-            }
-    };
-
-    private static final float[][] normals = new float[][] {
-            new float[] { // +Z
-                     0.0f,  0.0f, -1.0f
-            }, new float[] { // -Z
-                     0.0f,  0.0f,  1.0f
-            }, new float[] { // +X
-                    -1.0f,  0.0f,  0.0f
-            }, new float[] { // -X
-                     1.0f,  0.0f,  0.0f
-            }, new float[] { // +Y
-                     0.0f, -1.0f,  0.0f
-            }, new float[] { // -Y
-                     0.0f,  1.0f,  0.0f
-            }
-    };
+    DEBUG, AIR, GRASS, DIRT, STONE, BEDROCK, TNT, ICE;
 
-    private static final int[] indices = new int[] {
-            0, 2, 1, 1, 2, 3,
-            4, 6, 5, 5, 6, 7,
-            8, 10, 9, 9, 10, 11,
-            12, 14, 13, 13, 14, 15,
-            16, 18, 17, 17, 18, 19,
-            20, 22, 21, 21, 22, 23
-    };
+    private static final BlockType[] VALUES = values();
 
-    private final String name;
     public final boolean transparent;
-    private final float[][] texCoords;
 
-    BlockType(String name, boolean transparent, float[][] texCoords) {
-        this.name = name;
-        this.transparent = transparent;
-        this.texCoords = texCoords;
+    BlockType() {
+        if (ordinal() >= BlockRegistry.count() || !BlockRegistry.getName(ordinal()).equalsIgnoreCase(name()))
+            throw new IllegalStateException("blocks.txt must define " + name().toLowerCase() + " as block " + ordinal());
+
+        this.transparent = BlockRegistry.isTransparent(ordinal());
     }
 
+    /**
+     * Build some faces of one block of this type. Vertices are packed relative to the block's
+     * sub-chunk, so positions in the world must be made local to it first.
+     * @param faces Whether to build each face, in the order +Z, -Z, +X, -X, +Y, -Y
+     * @param x The X position of the block within its sub-chunk, from 0 to 15
+     * @param y The Y position of the block within its sub-chunk, from 0 to 15
+     * @param z The Z position of the block within its sub-chunk, from 0 to 15
+     * @throws IllegalArgumentException if the position is outside the sub-chunk
+     */
     public MeshComponent getMeshComponent(boolean[] faces, int x, int y, int z) {
-        ArrayList<Integer> index = new ArrayList<>();
-        for (int i = 0; i < 6; i++) if (faces[i]) index.add(i);
-
-        float[] v = new float[index.size() * 12];
-        float[] n = new float[index.size() * 12];
-        float[] t = new float[index.size() * 8];
-        int[] mi = new int[index.size() * 6];
+        if (((x | y | z) & ~15) != 0)
+            throw new IllegalArgumentException("Block at " + x + ", " + y + ", " + z + " is outside its sub-chunk; positions run from 0 to 15");
 
-        for (int i = 0; i < index.size(); i++) {
-            int position = index.get(i);
+        MeshBuilder b = MeshBuilder.get();
 
-            for (int j = 0; j < 12; j++) {
-                int offset = (j % 3 == 0) ? x : (j % 3 == 1) ? y : z;
-                v[i * 12 + j] = vertices[position][j] + offset;
-            }
-
-            for (int j = 0; j < 12; j++) {
-                n[i * 12 + j] = normals[position][j % 3];
-            }
+        for (int i = 0; i < 6; i++) {
+            if (faces[i]) addFace(b, i, x, y, z, 1, 1, 1);
+        }
 
-            for (int j = 0; j < 8; j++) {
-                t[i * 8 + j] = texCoords[position][j];
-            }
+        return b.build();
+    }
 
-            for (int j = 0; j < index.size() * 6; j++) mi[j] = indices[j];
-        }
+    /**
+     * Build one face of a box of blocks of this type
+     * @see BlockRegistry#addFace(MeshBuilder, int, int, int, int, int, int, int, int)
+     */
+    public MeshComponent getMeshComponent(int face, int x, int y, int z, int sx, int sy, int sz) {
+        MeshBuilder b = MeshBuilder.get();
+        addFace(b, face, x, y, z, sx, sy, sz);
+        return b.build();
+    }
 
-        return new MeshComponent(v, n, t, mi);
+    /**
+     * Append one face of a box of blocks of this type
+     * @see BlockRegistry#addFace(MeshBuilder, int, int, int, int, int, int, int, int)
+     */
+    public void addFace(MeshBuilder b, int face, int x, int y, int z, int sx, int sy, int sz) {
+        BlockRegistry.addFace(b, ordinal(), face, x, y, z, sx, sy, sz);
     }
 
-    public BlockType get(int id) {
-        return BlockType.values()[id];
+    /**
+     * @param id A block ID
+     * @return The named block type with that ID, or null if it is only defined in the registry
+     */
+    public static BlockType get(int id) {
+        return (id < VALUES.length) ? VALUES[id] : null;
     }
 
     public String getName() {
-        return name;
+        return BlockRegistry.getName(ordinal());
     }
 }
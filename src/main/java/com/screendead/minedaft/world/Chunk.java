@@ -1,137 +1,547 @@
 package com.screendead.minedaft.world;
 
 import com.screendead.minedaft.graphics.Mesh;
+import com.screendead.minedaft.graphics.MeshBuilder;
 import com.screendead.minedaft.graphics.MeshComponent;
+import com.screendead.minedaft.graphics.MeshData;
 import org.lwjgl.stb.STBPerlin;
 
+import java.util.Arrays;
+
 public class Chunk {
-    private static final boolean SIMPLE_GENERATION = false;
-    private static final boolean LERP_GENERATION = false;
-    private static final int LERP = 2; // 4x4 interpolation
+    static final TerrainGenerator GENERATOR = TerrainGenerator.LERP;
+    private static final Mesher MESHER = Mesher.GREEDY;
 
-    private static final float SCALE = 0.005f;
+    private static final ThreadLocal<int[]> COLUMN = ThreadLocal.withInitial(() -> new int[65536]);
 
     public int cx, cz;
-    int[] blocks;
+    final BlockStorage[] sections = new BlockStorage[16];
     int[] maxHeight = new int[256];
-    private final MeshComponent[] meshComponents = new MeshComponent[16];
+    private boolean meshed = false, modified = false;
+    private int dirty = 0;
     private final Mesh[] meshes = new Mesh[16];
 
+    // Which faces of each sub-chunk see each other, the bounds of what each holds, and the last
+    // frame each was reached while culling
+    private final long[] connectivity = new long[16];
+    private final int[] bounds = new int[16];
+    private final int[] visited = new int[16];
+
+    // How many blocks of each sub-chunk aren't air, and how many are opaque, kept up to date as blocks change
+    private final int[] nonAir = new int[16], opaque = new int[16];
+
+    // The sky light and block light of each sub-chunk. Until the chunk is lit, the sky lights everything.
+    private final NibbleArray[] skyLight = new NibbleArray[16], blockLight = new NibbleArray[16];
+
+    // The last frame the chunk's column was tested against the view while culling, whether it was
+    // found at least partly in view, and whether wholly inside it
+    private int viewFrame = 0;
+    private boolean inView = false, insideView = false;
+
     public Chunk(int cx, int cz, int[] chunkData) {
+        this(cx, cz);
+
+        for (int s = 0; s < 16; s++) {
+            this.sections[s] = PaletteBlockStorage.of(chunkData, s * BlockStorage.SIZE);
+            count(s);
+        }
+    }
+
+    public Chunk(int cx, int cz, BlockStorage[] sections) {
+        this(cx, cz);
+
+        System.arraycopy(sections, 0, this.sections, 0, 16);
+        for (int s = 0; s < 16; s++) count(s);
+    }
+
+    private Chunk(int cx, int cz) {
         this.cx = cx;
         this.cz = cz;
+        Arrays.fill(connectivity, SectionConnectivity.ALL);
+        Arrays.fill(bounds, SectionBounds.FULL);
+
+        for (int s = 0; s < 16; s++) {
+            skyLight[s] = new NibbleArray(Light.MAX);
+            blockLight[s] = new NibbleArray(0);
+        }
+    }
+
+    /**
+     * Count the blocks of a sub-chunk which aren't air, and those which are opaque
+     */
+    private void count(int subChunk) {
+        BlockStorage section = sections[subChunk];
+        if (section instanceof PaletteBlockStorage && ((PaletteBlockStorage) section).isUniform()) {
+            int id = section.get(0);
+            nonAir[subChunk] = (id == BlockType.AIR.ordinal()) ? 0 : BlockStorage.SIZE;
+            opaque[subChunk] = BlockRegistry.isTransparent(id) ? 0 : BlockStorage.SIZE;
+            return;
+        }
 
-        this.blocks = chunkData;
+        int n = 0, o = 0;
+        for (int i = 0; i < BlockStorage.SIZE; i++) {
+            int id = section.get(i);
+            if (id != BlockType.AIR.ordinal()) n++;
+            if (!BlockRegistry.isTransparent(id)) o++;
+        }
+        nonAir[subChunk] = n;
+        opaque[subChunk] = o;
     }
 
     public static Chunk generate(int cx, int cz) {
-        int[] b = new int[65536];
+        return generate(cx, cz, GENERATOR);
+    }
 
-        for (int i = 0; i < 16; i++) {
-            for (int j = 0; j < 16; j++) {
-                for (int k = 0; k < 256; k++) {
-                    b[flatten(i, j, k)] = generateBlock(cx, cz, i, k, j);
-                }
-            }
+    /**
+     * Generate the blocks of a chunk
+     * @param cx The X position of the chunk, in chunk co-ordinates
+     * @param cz The Z position of the chunk, in chunk co-ordinates
+     * @param generator The terrain generator to use
+     * @return The generated chunk
+     */
+    public static Chunk generate(int cx, int cz, TerrainGenerator generator) {
+        int[] b = COLUMN.get();
+        generator.generate(cx, cz, b);
+
+        BlockStorage[] s = new BlockStorage[16];
+        for (int subChunk = 0; subChunk < 16; subChunk++) {
+            s[subChunk] = PaletteBlockStorage.of(b, subChunk * BlockStorage.SIZE);
         }
 
-        Chunk c = new Chunk(cx, cz, b);
-        c.generateMeshComponent();
+        Chunk c = new Chunk(cx, cz, s);
+        c.decorate();
 
         return c;
     }
 
-    private static int generateBlock(int cx, int cz, int x, int y, int z) {
-        float i = (float) (x + (cx << 4)) * Chunk.SCALE,
-                j = (float) (z + (cz << 4)) * Chunk.SCALE,
-                k = (float) y * Chunk.SCALE;
+    /**
+     * Turn exposed stone into grass with a few layers of dirt beneath,
+     * and record the height of the highest solid block of each column
+     */
+    private void decorate() {
+        for (int k = 0; k < 256; k++) {
+            for (int i = 0; i < 16; i++) {
+                for (int j = 0; j < 16; j++) {
+                    int block = getBlock(i, k, j);
+                    int mh = Chunk.flatten(i, j, 0);
+                    if (BlockRegistry.isTransparent(block)) continue;
+                    if (this.maxHeight[mh] < k) this.maxHeight[mh] = k;
 
-        if (Chunk.SIMPLE_GENERATION) {
-            if (y < 64.0f) return BlockType.STONE.ordinal();
-            else return BlockType.AIR.ordinal();
-        } else {
-            float detail = 1 + 127.0f * STBPerlin.stb_perlin_turbulence_noise3(i, k, j, 2.0f, 0.5f, 5);
+                    if ((block != BlockType.BEDROCK.ordinal()) && getBlock(i, k + 1, j) == BlockType.AIR.ordinal()) {
+                        set(i, k, j, BlockType.GRASS.ordinal());
 
-            if (y == 0) return BlockType.BEDROCK.ordinal();
-            else if (y < detail) return BlockType.STONE.ordinal();
-            else return BlockType.AIR.ordinal();
+                        int rand = (int) Math.floor(STBPerlin.stb_perlin_noise3((float) cx / j, (float) k / (float) Math.PI, (float) cz / i, 0, 0, 0) * 4 + 2);
+                        for (int l = 0; l < Math.min(rand + 2, k); l++) {
+                            int y2 = k - (l + 1);
+                            if (flatten(i, j, y2) < 2 || getBlock(i, y2, j) == BlockType.AIR.ordinal()) continue;
+                            set(i, y2, j, BlockType.DIRT.ordinal());
+                        }
+                    }
+                }
+            }
         }
+
+        for (BlockStorage section : this.sections) {
+            if (section instanceof PaletteBlockStorage) ((PaletteBlockStorage) section).compact();
+        }
+    }
+
+    /**
+     * Build the mesh data of every sub-chunk. Safe to call off the main thread.
+     * @param neighbours This chunk and the borders of the four chunks around it
+     * @return The mesh data of each sub-chunk, from the bottom up
+     */
+    public MeshComponent[] generateMeshComponent(ChunkNeighbourhood neighbours) {
+        return generateMeshComponent(neighbours, MESHER);
     }
 
-    private void generateMeshComponent() {
+    /**
+     * Build the mesh data of every sub-chunk. Safe to call off the main thread.
+     * @param neighbours This chunk and the borders of the four chunks around it
+     * @param mesher The meshing strategy to use
+     * @return The mesh data of each sub-chunk, from the bottom up
+     */
+    public MeshComponent[] generateMeshComponent(ChunkNeighbourhood neighbours, Mesher mesher) {
+        MeshComponent[] components = new MeshComponent[16];
+
         for (int subChunk = 0; subChunk < 16; subChunk++) {
-            this.meshComponents[subChunk] = new MeshComponent(new float[]{}, new float[]{}, new float[]{}, new int[]{});
-
-            for (int k = subChunk * 16; k < (subChunk + 1) * 16; k++) {
-                for (int i = 0; i < 16; i++) {
-                    for (int j = 0; j < 16; j++) {
-                        int index = Chunk.flatten(i, j, k);
-                        int mh = Chunk.flatten(i, j, 0);
-                        if (BlockType.values()[blocks[index]].transparent) continue;
-                        if (this.maxHeight[mh] < k) this.maxHeight[mh] = k;
-
-
-                        if ((this.blocks[index] != BlockType.BEDROCK.ordinal()) && getBlock(i, k + 1, j) == BlockType.AIR.ordinal()) {
-                            this.blocks[index] = BlockType.GRASS.ordinal();
-
-                            int rand = (int) Math.floor(STBPerlin.stb_perlin_noise3((float) cx / j, (float) k / (float) Math.PI, (float) cz / i, 0, 0, 0) * 4 + 2);
-                            for (int l = 0; l < Math.min(rand + 2, k); l++) {
-                                int index2 = index - ((l + 1) << 8);
-                                if (index2 < 2 || this.blocks[index2] == BlockType.AIR.ordinal()) continue;
-                                this.blocks[index2] = BlockType.DIRT.ordinal();
-                            }
-                        }
+            components[subChunk] = neighbours.isHidden(subChunk) ? new MeshComponent() : mesher.mesh(neighbours, subChunk);
+        }
 
-                        boolean[] faces = new boolean[]{
-                                false, // +Z
-                                false, // -Z
-                                false, // +X
-                                false, // -X
-                                false, // +Y
-                                false // -Y
-                        };
-
-                        if (BlockType.values()[getBlock(i, k, j + 1)].transparent) faces[0] = true;
-                        if (BlockType.values()[getBlock(i, k, j - 1)].transparent) faces[1] = true;
-                        if (BlockType.values()[getBlock(i + 1, k, j)].transparent) faces[2] = true;
-                        if (BlockType.values()[getBlock(i - 1, k, j)].transparent) faces[3] = true;
-                        if (BlockType.values()[getBlock(i, k + 1, j)].transparent) faces[4] = true;
-                        if (BlockType.values()[getBlock(i, k - 1, j)].transparent) faces[5] = true;
-
-                        boolean cont = false;
-                        for (int a = 0; a < 6; a++) {
-                            if (faces[a]) {
-                                cont = true;
-                                break;
-                            }
-                        }
+        return components;
+    }
 
-                        if (cont)
-                            this.meshComponents[subChunk].combine(BlockType.values()[this.blocks[index]].getMeshComponent(faces, cx * 16 + i, k, cz * 16 + j));
-                    }
-                }
+    /**
+     * Build the mesh data of every sub-chunk into off-heap buffers ready to upload.
+     * Safe to call off the main thread.
+     * @param neighbours This chunk and the borders of the four chunks around it
+     * @return The mesh data of each sub-chunk, from the bottom up
+     */
+    public MeshData[] generateMeshData(ChunkNeighbourhood neighbours) {
+        return generateMeshData(neighbours, 0xFFFF);
+    }
+
+    /**
+     * Build the mesh data of some sub-chunks into off-heap buffers ready to upload. Sub-chunks
+     * with no face that could be seen are skipped, and given {@link MeshData#EMPTY}.
+     * Safe to call off the main thread.
+     * @param neighbours This chunk and the borders of the four chunks around it
+     * @param subChunks A bit mask of the sub-chunks to mesh, bit 0 being the bottom
+     * @return The mesh data of each sub-chunk, from the bottom up, with null for those not meshed
+     */
+    public MeshData[] generateMeshData(ChunkNeighbourhood neighbours, int subChunks) {
+        MeshData[] data = new MeshData[16];
+
+        for (int subChunk = 0; subChunk < 16; subChunk++) {
+            if ((subChunks & (1 << subChunk)) == 0) continue;
+            if (neighbours.isHidden(subChunk)) {
+                data[subChunk] = MeshData.EMPTY;
+                continue;
             }
+
+            MeshBuilder b = MeshBuilder.get();
+            MESHER.mesh(neighbours, subChunk, b);
+            data[subChunk] = b.buildData(cx << 4, subChunk << 4, cz << 4);
         }
+
+        return data;
     }
 
-    public void generateMesh(int subChunk) {
-        this.meshes[subChunk] = meshComponents[subChunk].toMesh();
+    /**
+     * Replace the mesh of one sub-chunk, discarding the old one. Must be called on the main thread.
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @param mesh The new mesh
+     */
+    public void setMesh(int subChunk, Mesh mesh) {
+        if (this.meshes[subChunk] != null) this.meshes[subChunk].cleanup();
+        this.meshes[subChunk] = mesh;
     }
 
-    public void render(int subChunk) {
-        if (this.meshes[subChunk] == null) generateMesh(subChunk);
-        if (!meshes[subChunk].empty()) meshes[subChunk].render();
+    /**
+     * @return Whether this chunk's mesh data has been built, though it may not all be uploaded yet
+     */
+    public boolean isMeshed() {
+        return this.meshed;
+    }
+
+    public void setMeshed(boolean meshed) {
+        this.meshed = meshed;
+    }
+
+    /**
+     * Work out which faces of a sub-chunk see each other. Safe to call off the main thread
+     * on a chunk which isn't being edited, such as a {@link ChunkNeighbourhood} snapshot.
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The connectivity graph, as described by {@link SectionConnectivity}
+     */
+    public long computeConnectivity(int subChunk) {
+        if (nonAir[subChunk] == 0) return SectionConnectivity.ALL;
+        if (opaque[subChunk] == BlockStorage.SIZE) return SectionConnectivity.NONE;
+
+        return SectionConnectivity.compute(sections[subChunk]);
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The connectivity graph last set, or {@link SectionConnectivity#ALL} if there hasn't been one
+     */
+    public long getConnectivity(int subChunk) {
+        return connectivity[subChunk];
+    }
+
+    public void setConnectivity(int subChunk, long graph) {
+        this.connectivity[subChunk] = graph;
+    }
+
+    /**
+     * Work out the bounds of what a sub-chunk holds. Safe to call off the main thread on a chunk
+     * which isn't being edited, such as a {@link ChunkNeighbourhood} snapshot.
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The bounds, as described by {@link SectionBounds}
+     */
+    public int computeBounds(int subChunk) {
+        if (nonAir[subChunk] == 0) return SectionBounds.EMPTY;
+        if (nonAir[subChunk] == BlockStorage.SIZE) return SectionBounds.FULL;
+
+        return SectionBounds.compute(sections[subChunk]);
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The bounds last set, or {@link SectionBounds#FULL} if there haven't been any
+     */
+    public int getBounds(int subChunk) {
+        return bounds[subChunk];
+    }
+
+    public void setBounds(int subChunk, int bounds) {
+        this.bounds[subChunk] = bounds;
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The number of blocks in the sub-chunk which aren't air
+     */
+    public int getNonAirCount(int subChunk) {
+        return nonAir[subChunk];
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The number of blocks in the sub-chunk which hide the faces behind them
+     */
+    public int getOpaqueCount(int subChunk) {
+        return opaque[subChunk];
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return Whether the sub-chunk is nothing but air
+     */
+    public boolean isEmpty(int subChunk) {
+        return nonAir[subChunk] == 0;
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return Whether the sub-chunk may hold a block which gives off light. Sections stored with
+     * a palette are only searched if an entry of it does, so most are ruled out at once.
+     */
+    public boolean mayEmit(int subChunk) {
+        if (!(sections[subChunk] instanceof PaletteBlockStorage)) return true;
+
+        PaletteBlockStorage section = (PaletteBlockStorage) sections[subChunk];
+        for (int i = 0; i < section.getPaletteSize(); i++) {
+            if (BlockRegistry.getEmission(section.getPaletteEntry(i)) > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return Whether every block of the sub-chunk is opaque
+     */
+    public boolean isOpaque(int subChunk) {
+        return opaque[subChunk] == BlockStorage.SIZE;
+    }
+
+    /**
+     * @param x The X position within the chunk
+     * @param y The Y position, from -1 to 256
+     * @param z The Z position within the chunk
+     * @return The light at that position, packed as described by {@link Light}. Above the world is
+     * open sky, and below it is dark.
+     */
+    public int getLight(int x, int y, int z) {
+        if (y == 256) return Light.DAYLIGHT;
+        if (y == -1) return 0;
+
+        int i = flatten(x, z, y & 15);
+        return Light.pack(skyLight[y >> 4].get(i), blockLight[y >> 4].get(i));
+    }
+
+    /**
+     * @param x The X position within the chunk
+     * @param y The Y position, from 0 to 255
+     * @param z The Z position within the chunk
+     * @return The sky light at that position, from 0 to 15
+     */
+    public int getSkyLight(int x, int y, int z) {
+        return skyLight[y >> 4].get(flatten(x, z, y & 15));
+    }
+
+    public void setSkyLight(int x, int y, int z, int level) {
+        skyLight[y >> 4].set(flatten(x, z, y & 15), level);
+    }
+
+    /**
+     * @param x The X position within the chunk
+     * @param y The Y position, from 0 to 255
+     * @param z The Z position within the chunk
+     * @return The block light at that position, from 0 to 15
+     */
+    public int getBlockLight(int x, int y, int z) {
+        return blockLight[y >> 4].get(flatten(x, z, y & 15));
+    }
+
+    public void setBlockLight(int x, int y, int z, int level) {
+        blockLight[y >> 4].set(flatten(x, z, y & 15), level);
+    }
+
+    /**
+     * Replace the light of a whole sub-chunk
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @param sky The sky light
+     * @param block The block light
+     */
+    public void setLight(int subChunk, NibbleArray sky, NibbleArray block) {
+        this.skyLight[subChunk] = sky;
+        this.blockLight[subChunk] = block;
+    }
+
+    /**
+     * Record how the chunk's column lies against the view during a frame's visibility search
+     * @param frame The number of the frame
+     * @param inView Whether the column is at least partly in view
+     * @param inside Whether the whole column is inside the view
+     */
+    public void setView(int frame, boolean inView, boolean inside) {
+        this.viewFrame = frame;
+        this.inView = inView;
+        this.insideView = inside;
+    }
+
+    /**
+     * @param frame The number of the frame
+     * @return Whether the chunk's column has been tested against the view during the frame
+     */
+    public boolean isViewKnown(int frame) {
+        return viewFrame == frame;
+    }
+
+    /**
+     * @param frame The number of the frame
+     * @return Whether the chunk's column was found at least partly in view during the frame
+     */
+    public boolean isInView(int frame) {
+        return viewFrame == frame && inView;
+    }
+
+    /**
+     * @param frame The number of the frame
+     * @return Whether the chunk's column was found wholly inside the view during the frame
+     */
+    public boolean isInsideView(int frame) {
+        return viewFrame == frame && insideView;
     }
 
-    int getBlock(int x, int y, int z) {
-        if (x == 16) return generateBlock(cx + 1, cz, 0, y, z);
-        if (x == -1) return generateBlock(cx - 1, cz, 15, y, z);
-        if (z == 16) return generateBlock(cx, cz + 1, x, y, 0);
-        if (z == -1) return generateBlock(cx, cz - 1, x, y, 15);
+    /**
+     * Mark a sub-chunk as reached during a frame's visibility search
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @param frame The number of the frame
+     * @return Whether the sub-chunk had not already been reached this frame
+     */
+    public boolean visit(int subChunk, int frame) {
+        if (visited[subChunk] == frame) return false;
 
+        visited[subChunk] = frame;
+        return true;
+    }
+
+    /**
+     * Mark a sub-chunk as needing to be meshed again
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     */
+    public void markDirty(int subChunk) {
+        this.dirty |= 1 << subChunk;
+    }
+
+    /**
+     * @return A bit mask of the sub-chunks needing to be meshed again, bit 0 being the bottom
+     */
+    public int getDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Clear every sub-chunk's dirty mark
+     * @return The bit mask of the sub-chunks which were dirty
+     */
+    public int takeDirty() {
+        int dirty = this.dirty;
+        this.dirty = 0;
+        return dirty;
+    }
+
+    /**
+     * @return Whether blocks have been changed since the chunk was generated or last saved
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    public void setModified(boolean modified) {
+        this.modified = modified;
+    }
+
+    public void render(int subChunk) {
+        if (meshes[subChunk] != null && !meshes[subChunk].empty()) meshes[subChunk].render();
+    }
+
+    /**
+     * @param x The X position within the chunk
+     * @param y The Y position, from -1 to 256
+     * @param z The Z position within the chunk
+     * @return The block ID at that position
+     */
+    public int getBlock(int x, int y, int z) {
         if (y == -1 || y == 256) return BlockType.AIR.ordinal();
 
-        return blocks[flatten(x, z, y)];
+        return sections[y >> 4].get(flatten(x, z, y & 15));
+    }
+
+    /**
+     * Change a block, keeping the column heights up to date. Must not be called while
+     * another thread is reading the chunk; meshing works from a {@link ChunkNeighbourhood} copy.
+     * @param x The X position within the chunk
+     * @param y The Y position, from 0 to 255
+     * @param z The Z position within the chunk
+     * @param id The new block ID
+     */
+    public void setBlock(int x, int y, int z, int id) {
+        set(x, y, z, id);
+        modified = true;
+
+        int column = flatten(x, z, 0);
+        if (!BlockRegistry.isTransparent(id)) {
+            if (maxHeight[column] < y) maxHeight[column] = y;
+        } else if (maxHeight[column] == y) {
+            int top = y;
+            while (top > 0 && BlockRegistry.isTransparent(getBlock(x, top, z))) top--;
+            maxHeight[column] = top;
+        }
+    }
+
+    private void set(int x, int y, int z, int id) {
+        int s = y >> 4, i = flatten(x, z, y & 15);
+        int old = sections[s].get(i);
+        sections[s].set(i, id);
+
+        int air = BlockType.AIR.ordinal();
+        nonAir[s] += ((id != air) ? 1 : 0) - ((old != air) ? 1 : 0);
+        opaque[s] += (BlockRegistry.isTransparent(id) ? 0 : 1) - (BlockRegistry.isTransparent(old) ? 0 : 1);
+    }
+
+    /**
+     * Copy the blocks and light of some sub-chunks and those directly above and below them, which
+     * is all meshing them reads. The other sub-chunks are left out of the copy, and must not be
+     * read from it, though the counts of every sub-chunk's blocks are kept.
+     * @param subChunks A bit mask of the sub-chunks to copy, bit 0 being the bottom
+     * @return The copy, without meshes
+     */
+    Chunk copy(int subChunks) {
+        int copied = (subChunks | (subChunks << 1) | (subChunks >>> 1)) & 0xFFFF;
+
+        Chunk c = new Chunk(cx, cz);
+        for (int s = 0; s < 16; s++) {
+            if ((copied & (1 << s)) == 0) continue;
+
+            c.sections[s] = sections[s].copy();
+            c.setLight(s, skyLight[s].copy(), blockLight[s].copy());
+        }
+
+        System.arraycopy(nonAir, 0, c.nonAir, 0, 16);
+        System.arraycopy(opaque, 0, c.opaque, 0, 16);
+        return c;
+    }
+
+    /**
+     * @return An estimate of the heap used by this chunk's blocks and light, in bytes
+     */
+    public long getMemoryUsage() {
+        long usage = 0;
+        for (int s = 0; s < 16; s++) usage += sections[s].getMemoryUsage() + skyLight[s].getMemoryUsage() + blockLight[s].getMemoryUsage();
+        return usage;
     }
 
     static int flatten(int i, int j, int k) {
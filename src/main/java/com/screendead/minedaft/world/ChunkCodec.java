@@ -0,0 +1,109 @@
+package com.screendead.minedaft.world;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.util.lz4.LZ4.*;
+
+/**
+ * Converts chunks to and from the LZ4-compressed form they are saved in.
+ *
+ * <pre>
+ * int      uncompressed length
+ * byte[]   LZ4 block of:
+ *              byte        format version
+ *              short[256]  highest block of each column
+ *              16 sections, bottom up, as written by PaletteBlockStorage
+ * </pre>
+ *
+ * All values are little-endian.
+ */
+public final class ChunkCodec {
+    private static final byte VERSION = 1;
+
+    // Per-thread scratch space for the uncompressed form, grown as needed
+    private static final ThreadLocal<ByteBuffer[]> SCRATCH = ThreadLocal.withInitial(() -> new ByteBuffer[1]);
+
+    private ChunkCodec() {}
+
+    /**
+     * Compress a chunk. The chunk must not be modified while this runs.
+     * @param c The chunk to compress
+     * @return A new off-heap buffer holding the compressed chunk, which the caller must free
+     * with {@link MemoryUtil#memFree(java.nio.Buffer)}
+     */
+    public static ByteBuffer encode(Chunk c) {
+        PaletteBlockStorage[] sections = new PaletteBlockStorage[16];
+        int size = 1 + 2 * 256;
+        for (int s = 0; s < 16; s++) {
+            sections[s] = palette(c.sections[s]);
+            size += sections[s].serializedSize();
+        }
+
+        ByteBuffer raw = scratch(size);
+        raw.put(VERSION);
+        for (int i = 0; i < 256; i++) raw.putShort((short) c.maxHeight[i]);
+        for (PaletteBlockStorage section : sections) section.serialize(raw);
+        raw.flip();
+
+        ByteBuffer out = MemoryUtil.memAlloc(4 + LZ4_compressBound(size)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(size);
+        int written = LZ4_compress_default(raw, out);
+        if (written <= 0) {
+            MemoryUtil.memFree(out);
+            throw new IllegalStateException("Failed to compress chunk " + c.cx + ", " + c.cz);
+        }
+        out.position(out.position() + written).flip();
+
+        return out;
+    }
+
+    /**
+     * Decompress a chunk
+     * @param cx The X position of the chunk, in chunk co-ordinates
+     * @param cz The Z position of the chunk, in chunk co-ordinates
+     * @param in A direct buffer holding exactly the output of {@link #encode(Chunk)}
+     * @return The chunk
+     * @throws IllegalArgumentException if the data is corrupt
+     */
+    public static Chunk decode(int cx, int cz, ByteBuffer in) {
+        in = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = in.getInt();
+
+        ByteBuffer raw = scratch(size);
+        raw.limit(size);
+        if (LZ4_decompress_safe(in, raw) != size) throw new IllegalArgumentException("Corrupt chunk " + cx + ", " + cz);
+
+        if (raw.get() != VERSION) throw new IllegalArgumentException("Unknown format for chunk " + cx + ", " + cz);
+
+        int[] maxHeight = new int[256];
+        for (int i = 0; i < 256; i++) maxHeight[i] = raw.getShort();
+
+        BlockStorage[] sections = new BlockStorage[16];
+        for (int s = 0; s < 16; s++) sections[s] = PaletteBlockStorage.deserialize(raw);
+
+        Chunk c = new Chunk(cx, cz, sections);
+        c.maxHeight = maxHeight;
+        return c;
+    }
+
+    private static PaletteBlockStorage palette(BlockStorage storage) {
+        if (storage instanceof PaletteBlockStorage) return (PaletteBlockStorage) storage;
+
+        int[] blocks = new int[BlockStorage.SIZE];
+        for (int i = 0; i < blocks.length; i++) blocks[i] = storage.get(i);
+        return PaletteBlockStorage.of(blocks, 0);
+    }
+
+    private static ByteBuffer scratch(int size) {
+        ByteBuffer[] scratch = SCRATCH.get();
+        if (scratch[0] == null || scratch[0].capacity() < size) {
+            scratch[0] = ByteBuffer.allocateDirect(Math.max(size, 64 << 10)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        scratch[0].clear();
+        return scratch[0];
+    }
+}
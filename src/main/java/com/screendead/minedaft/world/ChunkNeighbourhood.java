@@ -0,0 +1,158 @@
+package com.screendead.minedaft.world;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A snapshot of the sub-chunks of a chunk to be meshed, together with the block and light slices
+ * of its four neighbours that touch them, which is everything needed to decide which faces of
+ * those sub-chunks are exposed, and how brightly lit, without generating any neighbouring
+ * terrain. Being a copy, it can be meshed on another thread while the chunks themselves are edited.
+ */
+public class ChunkNeighbourhood {
+    // Slices left by neighbourhoods which have been released. A snapshot is taken on one thread
+    // and meshed on another, so they're shared between threads rather than kept per thread.
+    private static final ConcurrentLinkedQueue<Slices> SPARE = new ConcurrentLinkedQueue<>();
+
+    private static class Slices {
+        final int[] posX = new int[4096], negX = new int[4096], posZ = new int[4096], negZ = new int[4096];
+
+        // The light of each slice, packed as described by Light
+        final byte[] posXLight = new byte[4096], negXLight = new byte[4096], posZLight = new byte[4096], negZLight = new byte[4096];
+    }
+
+    private final Chunk centre;
+    private Slices slices;
+
+    private ChunkNeighbourhood(Chunk centre, Slices slices) {
+        this.centre = centre;
+        this.slices = slices;
+    }
+
+    /**
+     * Snapshot a whole chunk and the border slices of its neighbours
+     * @param centre The chunk to be meshed
+     * @param posX The chunk at cx + 1
+     * @param negX The chunk at cx - 1
+     * @param posZ The chunk at cz + 1
+     * @param negZ The chunk at cz - 1
+     * @return The neighbourhood
+     */
+    public static ChunkNeighbourhood of(Chunk centre, Chunk posX, Chunk negX, Chunk posZ, Chunk negZ) {
+        return of(centre, posX, negX, posZ, negZ, 0xFFFF);
+    }
+
+    /**
+     * Snapshot some sub-chunks of a chunk and the border slices of its neighbours beside them.
+     * Only those sub-chunks may be meshed from the snapshot.
+     * @param centre The chunk to be meshed
+     * @param posX The chunk at cx + 1
+     * @param negX The chunk at cx - 1
+     * @param posZ The chunk at cz + 1
+     * @param negZ The chunk at cz - 1
+     * @param subChunks A bit mask of the sub-chunks to be meshed, bit 0 being the bottom
+     * @return The neighbourhood
+     */
+    public static ChunkNeighbourhood of(Chunk centre, Chunk posX, Chunk negX, Chunk posZ, Chunk negZ, int subChunks) {
+        Slices slices = SPARE.poll();
+        if (slices == null) slices = new Slices();
+
+        for (int s = 0; s < 16; s++) {
+            if ((subChunks & (1 << s)) == 0) continue;
+
+            for (int y = s << 4; y < (s + 1) << 4; y++) {
+                for (int t = 0; t < 16; t++) {
+                    int i = slice(y, t);
+                    slices.posX[i] = posX.getBlock(0, y, t);
+                    slices.negX[i] = negX.getBlock(15, y, t);
+                    slices.posZ[i] = posZ.getBlock(t, y, 0);
+                    slices.negZ[i] = negZ.getBlock(t, y, 15);
+                    slices.posXLight[i] = (byte) posX.getLight(0, y, t);
+                    slices.negXLight[i] = (byte) negX.getLight(15, y, t);
+                    slices.posZLight[i] = (byte) posZ.getLight(t, y, 0);
+                    slices.negZLight[i] = (byte) negZ.getLight(t, y, 15);
+                }
+            }
+        }
+
+        return new ChunkNeighbourhood(centre.copy(subChunks), slices);
+    }
+
+    /**
+     * Hand the neighbour slices back for later snapshots to reuse, once meshing is finished.
+     * The neighbourhood can't be read afterwards.
+     */
+    public void release() {
+        if (slices == null) return;
+
+        SPARE.offer(slices);
+        slices = null;
+    }
+
+    /**
+     * @param x The X position, from -1 to 16
+     * @param y The Y position, from -1 to 256
+     * @param z The Z position, from -1 to 16
+     * @return The block ID at that position relative to the centre chunk
+     */
+    public int getBlock(int x, int y, int z) {
+        if (y == -1 || y == 256) return BlockType.AIR.ordinal();
+
+        if (x == 16) return slices.posX[slice(y, z)];
+        if (x == -1) return slices.negX[slice(y, z)];
+        if (z == 16) return slices.posZ[slice(y, x)];
+        if (z == -1) return slices.negZ[slice(y, x)];
+
+        return centre.getBlock(x, y, z);
+    }
+
+    /**
+     * @param x The X position, from -1 to 16
+     * @param y The Y position, from -1 to 256
+     * @param z The Z position, from -1 to 16
+     * @return The light at that position relative to the centre chunk, packed as described by {@link Light}
+     */
+    public int getLight(int x, int y, int z) {
+        if (y == -1 || y == 256) return centre.getLight(0, y, 0);
+
+        if (x == 16) return slices.posXLight[slice(y, z)] & 255;
+        if (x == -1) return slices.negXLight[slice(y, z)] & 255;
+        if (z == 16) return slices.posZLight[slice(y, x)] & 255;
+        if (z == -1) return slices.negZLight[slice(y, x)] & 255;
+
+        return centre.getLight(x, y, z);
+    }
+
+    /**
+     * Whether a sub-chunk of the centre chunk has no face which could be seen, so needn't be
+     * meshed: it has no opaque blocks, which are the only ones with faces, or it's all opaque with
+     * opaque blocks against every side.
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return Whether the sub-chunk has nothing to draw
+     */
+    public boolean isHidden(int subChunk) {
+        if (centre.getOpaqueCount(subChunk) == 0) return true;
+        if (!centre.isOpaque(subChunk)) return false;
+
+        int bottom = subChunk << 4;
+        for (int a = 0; a < 16; a++) {
+            for (int b = 0; b < 16; b++) {
+                if (BlockRegistry.isTransparent(getBlock(a, bottom - 1, b)) || BlockRegistry.isTransparent(getBlock(a, bottom + 16, b))
+                        || BlockRegistry.isTransparent(getBlock(-1, bottom + a, b)) || BlockRegistry.isTransparent(getBlock(16, bottom + a, b))
+                        || BlockRegistry.isTransparent(getBlock(b, bottom + a, -1)) || BlockRegistry.isTransparent(getBlock(b, bottom + a, 16)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The snapshot of the centre chunk
+     */
+    public Chunk getCentre() {
+        return centre;
+    }
+
+    private static int slice(int y, int t) {
+        return (y << 4) | t;
+    }
+}
@@ -0,0 +1,184 @@
+package com.screendead.minedaft.world;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves chunks to a directory of {@link RegionFile region files} and loads them back.
+ * Saving compresses the chunk on the calling thread and writes it on a background thread;
+ * until the write finishes, loads are served from the compressed copy in memory. If the write
+ * fails, the failure is reported and the copy kept in memory, so the chunk still loads as saved;
+ * it's written again when the chunk is next saved, or when the storage closes.
+ * Safe to use from any thread; workers load chunks directly, decompressing straight out of
+ * the region file's memory mapping.
+ */
+public class ChunkStorage implements Closeable {
+    private final Path directory;
+    private final ConcurrentHashMap<Long, RegionFile> regions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, ByteBuffer> pending = new ConcurrentHashMap<>();
+
+    // Pending copies whose write failed, which stay pending until they're replaced or written
+    private final ConcurrentHashMap<Long, ByteBuffer> failed = new ConcurrentHashMap<>();
+    private final AtomicLong failures = new AtomicLong();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Chunk writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean closed = false;
+
+    /**
+     * @param directory The directory holding the region files, created if it doesn't exist
+     */
+    public ChunkStorage(Path directory) {
+        this.directory = directory;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param cx The X position of the chunk, in chunk co-ordinates
+     * @param cz The Z position of the chunk, in chunk co-ordinates
+     * @return The saved chunk, or null if it has never been saved
+     * @throws IOException if the region file can't be read
+     */
+    public Chunk load(int cx, int cz) throws IOException {
+        long key = key(cx, cz);
+        ByteBuffer saved;
+        while ((saved = pending.get(key)) != null) {
+            // The writer frees the buffer once it is no longer pending, so only use it while it still is
+            synchronized (saved) {
+                if (pending.get(key) == saved) return ChunkCodec.decode(cx, cz, saved);
+            }
+        }
+
+        return region(cx >> 5, cz >> 5).read(cx & 31, cz & 31, data -> ChunkCodec.decode(cx, cz, data));
+    }
+
+    /**
+     * Save a chunk in the background. The chunk must not be modified while this runs.
+     * @param c The chunk to save
+     */
+    public void save(Chunk c) {
+        if (closed) return;
+
+        long key = key(c.cx, c.cz);
+        ByteBuffer data = ChunkCodec.encode(c);
+        ByteBuffer replaced = pending.put(key, data);
+
+        // No write is left to free a copy which failed to be written
+        if (replaced != null && failed.remove(key, replaced)) free(replaced);
+
+        try {
+            writer.execute(() -> {
+                // Skip the write if a newer copy has been saved since
+                if (pending.get(key) == data && !write(c.cx, c.cz, data)) {
+                    failed.put(key, data);
+
+                    // A newer copy may have been saved while this one was being written
+                    if (pending.get(key) != data && failed.remove(key, data)) free(data);
+                    return;
+                }
+
+                pending.remove(key, data);
+                free(data);
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed while saving
+            pending.remove(key, data);
+            free(data);
+        }
+    }
+
+    /**
+     * Write a chunk to its region file, reporting any failure
+     * @return Whether the chunk was written
+     */
+    private boolean write(int cx, int cz, ByteBuffer data) {
+        try {
+            region(cx >> 5, cz >> 5).write(cx & 31, cz & 31, data);
+            return true;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            System.err.println("Failed to save chunk " + cx + ", " + cz + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return The number of times a chunk failed to be written, including retries
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Finish every pending write, try once more to write those which failed, and close the
+     * region files
+     * @throws IOException if any chunk still couldn't be saved, or a region file couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int lost = 0;
+        for (Long key : failed.keySet()) {
+            ByteBuffer data = failed.remove(key);
+            if (pending.get(key) == data && !write((int) (key >> 32), key.intValue(), data)) lost++;
+
+            pending.remove(key, data);
+            free(data);
+        }
+
+        for (RegionFile region : regions.values()) region.close();
+        regions.clear();
+
+        if (lost > 0) throw new IOException(lost + " chunks could not be saved; see the errors above");
+    }
+
+    private RegionFile region(int rx, int rz) throws IOException {
+        try {
+            return regions.computeIfAbsent(key(rx, rz), k -> {
+                try {
+                    return new RegionFile(directory.resolve("r." + rx + "." + rz + ".region"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void free(ByteBuffer data) {
+        synchronized (data) {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+}
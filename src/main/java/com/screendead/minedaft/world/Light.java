@@ -0,0 +1,32 @@
+package com.screendead.minedaft.world;
+
+/**
+ * Packs the two kinds of light at a block into one value: sky light, which falls from above the
+ * world, in bits 4-7, and block light, given off by blocks such as lamps, in bits 0-3. Each runs
+ * from 0 (dark) to 15.
+ */
+public final class Light {
+    /**
+     * The brightest light of either kind
+     */
+    public static final int MAX = 15;
+
+    /**
+     * Full sky light and no block light, as under open sky
+     */
+    public static final int DAYLIGHT = pack(MAX, 0);
+
+    private Light() {}
+
+    public static int pack(int sky, int block) {
+        return (sky << 4) | block;
+    }
+
+    public static int sky(int light) {
+        return light >> 4;
+    }
+
+    public static int block(int light) {
+        return light & 15;
+    }
+}
@@ -0,0 +1,176 @@
+package com.screendead.minedaft.world;
+
+import com.screendead.minedaft.graphics.Mesh;
+import com.screendead.minedaft.graphics.MeshBuilder;
+import com.screendead.minedaft.graphics.MeshData;
+
+/**
+ * A square of distant terrain drawn as a height field instead of blocks. Each of its 16x16 cells
+ * covers several blocks across and rises to the height of the highest solid block at its corner,
+ * topped with the block generation leaves there, so a tile covers many chunks with a mesh far
+ * smaller than theirs, and is built without generating any blocks at all. Which chunks within
+ * the tile it draws is given by a mask, so that it only covers the parts of the world no finer
+ * detail is drawn over; walls along the edges of that area reach a little below the ground on
+ * both sides to hide any cracks against the terrain next to it.
+ */
+public class LodTile {
+    public static final int CELLS = 16;
+
+    // How far below the lower side, in cells, walls at the edge of the drawn area reach
+    private static final int SKIRT = 2;
+
+    // Wall directions in the order +Z, -Z, +X, -X, matching the face directions
+    private static final int[] DX = { 0, 0, 1, -1 };
+    private static final int[] DZ = { 1, -1, 0, 0 };
+
+    private static final int STRIDE = CELLS + 2;
+
+    public final int tx, tz, scale;
+
+    // The height of each cell, with a border one cell wide taken from the tiles around
+    private final int[] heights = new int[STRIDE * STRIDE];
+
+    private final Mesh[] meshes = new Mesh[16];
+    private long mask = 0;
+    private int bytes = 0;
+
+    private LodTile(int tx, int tz, int scale) {
+        this.tx = tx;
+        this.tz = tz;
+        this.scale = scale;
+    }
+
+    /**
+     * Sample the heights of a tile from the terrain generator. Safe to call off the main thread.
+     * @param tx The X position of the tile, in tiles
+     * @param tz The Z position of the tile, in tiles
+     * @param scale How many blocks wide each cell is. Each tile covers this many chunks across.
+     * @return The tile, not yet meshed
+     */
+    public static LodTile generate(int tx, int tz, int scale) {
+        LodTile t = new LodTile(tx, tz, scale);
+
+        Chunk.GENERATOR.getHeights((tx * CELLS - 1) * scale, (tz * CELLS - 1) * scale, scale, STRIDE, t.heights);
+
+        return t;
+    }
+
+    /**
+     * Build the mesh data of the tile into off-heap buffers ready to upload. Safe to call off the
+     * main thread.
+     * @param mask The chunks within the tile to draw, bit (z * scale + x) being the chunk at (x, z)
+     * @return The mesh data of each 16-block layer, from the bottom up
+     */
+    public MeshData[] generateMeshData(long mask) {
+        MeshData[] data = new MeshData[16];
+        MeshBuilder b = MeshBuilder.get();
+
+        for (int s = 0; s < 16; s++) {
+            b.reset();
+            int bottom = s << 4, top = bottom + 15;
+
+            for (int j = 0; j < CELLS; j++) {
+                for (int i = 0; i < CELLS; i++) {
+                    if (!drawn(mask, i, j)) continue;
+
+                    int h = heights[index(i, j)];
+                    int surface = surface(h);
+
+                    // Merge the tops of equal cells along the row
+                    if ((h >> 4) == s && (i == 0 || !drawn(mask, i - 1, j) || heights[index(i - 1, j)] != h)) {
+                        int run = 1;
+                        while (i + run < CELLS && drawn(mask, i + run, j) && heights[index(i + run, j)] == h) run++;
+
+                        BlockRegistry.addFace(b, surface, 4, i, h & 15, j, run, 1, 1);
+                    }
+
+                    for (int face = 0; face < 4; face++) {
+                        int ni = i + DX[face], nj = j + DZ[face];
+                        int nh = heights[index(ni, nj)];
+
+                        int from = (ni >= 0 && ni < CELLS && nj >= 0 && nj < CELLS && drawn(mask, ni, nj))
+                                ? nh + 1
+                                : Math.max(0, Math.min(h, nh) + 1 - SKIRT * scale);
+                        int lo = Math.max(from, bottom), hi = Math.min(h, top);
+                        if (lo > hi) continue;
+
+                        // The surface block caps the wall, with stone beneath it as generated
+                        if (hi == h) {
+                            BlockRegistry.addFace(b, surface, face, i, h & 15, j, 1, 1, 1);
+                            hi--;
+                        }
+                        if (lo <= hi) BlockRegistry.addFace(b, BlockType.STONE.ordinal(), face, i, lo & 15, j, 1, hi - lo + 1, 1);
+                    }
+                }
+            }
+
+            data[s] = b.buildData(tx * CELLS * scale, bottom, tz * CELLS * scale, scale);
+        }
+
+        return data;
+    }
+
+    /**
+     * Replace the mesh of one layer, discarding the old one. Must be called on the main thread.
+     * @param layer The index of the 16-block layer, from the bottom up
+     * @param mesh The new mesh, or null if the layer is empty
+     */
+    public void setMesh(int layer, Mesh mesh) {
+        if (meshes[layer] != null) meshes[layer].cleanup();
+        meshes[layer] = mesh;
+    }
+
+    /**
+     * @param layer The index of the 16-block layer, from the bottom up
+     * @return Whether the layer has anything to draw
+     */
+    public boolean hasMesh(int layer) {
+        return meshes[layer] != null && !meshes[layer].empty();
+    }
+
+    public void render(int layer) {
+        if (hasMesh(layer)) meshes[layer].render();
+    }
+
+    /**
+     * @return The chunks within the tile the current meshes draw
+     */
+    public long getMask() {
+        return mask;
+    }
+
+    /**
+     * @param mask The chunks within the tile the current meshes draw
+     * @param bytes The size of the current meshes
+     */
+    public void setMeshed(long mask, int bytes) {
+        this.mask = mask;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return The size of the current meshes on the GPU, in bytes
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    public void cleanup() {
+        for (int i = 0; i < 16; i++) setMesh(i, null);
+        bytes = 0;
+    }
+
+    private boolean drawn(long mask, int i, int j) {
+        int chunkX = (i * scale) >> 4, chunkZ = (j * scale) >> 4;
+        return (mask & (1L << (chunkZ * scale + chunkX))) != 0;
+    }
+
+    // Generation turns the top of every column but the bedrock floor into grass
+    private static int surface(int height) {
+        return (height == 0) ? BlockType.BEDROCK.ordinal() : BlockType.GRASS.ordinal();
+    }
+
+    private static int index(int i, int j) {
+        return (j + 1) * STRIDE + i + 1;
+    }
+}
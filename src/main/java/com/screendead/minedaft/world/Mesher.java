@@ -0,0 +1,149 @@
+package com.screendead.minedaft.world;
+
+import com.screendead.minedaft.graphics.MeshBuilder;
+import com.screendead.minedaft.graphics.MeshComponent;
+
+/**
+ * The ways in which the mesh of a sub-chunk can be built.
+ */
+public enum Mesher {
+    /**
+     * One quad for every exposed block face, lit by the light in front of it
+     */
+    NAIVE {
+        @Override
+        public void mesh(ChunkNeighbourhood neighbours, int subChunk, MeshBuilder b) {
+            Chunk c = neighbours.getCentre();
+
+            for (int k = subChunk * 16; k < (subChunk + 1) * 16; k++) {
+                for (int i = 0; i < 16; i++) {
+                    for (int j = 0; j < 16; j++) {
+                        int block = c.getBlock(i, k, j);
+                        if (BlockRegistry.isTransparent(block)) continue;
+
+                        for (int face = 0; face < 6; face++) {
+                            if (exposed(neighbours, i, k, j, face))
+                                BlockRegistry.addFace(b, block, face, i, k & 15, j, 1, 1, 1, light(neighbours, i, k, j, face));
+                        }
+                    }
+                }
+            }
+        }
+    },
+    /**
+     * Exposed faces of the same block type, direction and light are merged into as few rectangles as possible
+     */
+    GREEDY {
+        @Override
+        public void mesh(ChunkNeighbourhood neighbours, int subChunk, MeshBuilder b) {
+            Chunk c = neighbours.getCentre();
+            Scratch scratch = SCRATCH.get();
+            int[] mask = scratch.mask, p = scratch.p, size = scratch.size;
+
+            for (int face = 0; face < 6; face++) {
+                int n = NORMAL_AXIS[face], u = U_AXIS[face], v = V_AXIS[face];
+
+                for (int d = 0; d < 16; d++) {
+                    // Find the exposed faces in this slice, with the light in front of each above the block ID
+                    for (int j = 0; j < 16; j++) {
+                        for (int i = 0; i < 16; i++) {
+                            p[n] = d;
+                            p[u] = i;
+                            p[v] = j;
+
+                            int y = (subChunk << 4) + p[1];
+                            int block = c.getBlock(p[0], y, p[2]);
+
+                            mask[(j << 4) | i] = (!BlockRegistry.isTransparent(block) && exposed(neighbours, p[0], y, p[2], face))
+                                    ? block | (light(neighbours, p[0], y, p[2], face) << 16) : -1;
+                        }
+                    }
+
+                    // Cover them with rectangles, widest first
+                    for (int j = 0; j < 16; j++) {
+                        for (int i = 0; i < 16; ) {
+                            int block = mask[(j << 4) | i];
+                            if (block == -1) {
+                                i++;
+                                continue;
+                            }
+
+                            int w = 1;
+                            while (i + w < 16 && mask[(j << 4) | (i + w)] == block) w++;
+
+                            int h = 1;
+                            grow:
+                            while (j + h < 16) {
+                                for (int l = 0; l < w; l++) {
+                                    if (mask[((j + h) << 4) | (i + l)] != block) break grow;
+                                }
+                                h++;
+                            }
+
+                            for (int row = j; row < j + h; row++) {
+                                for (int col = i; col < i + w; col++) mask[(row << 4) | col] = -1;
+                            }
+
+                            p[n] = d;
+                            p[u] = i;
+                            p[v] = j;
+                            size[n] = 1;
+                            size[u] = w;
+                            size[v] = h;
+
+                            BlockRegistry.addFace(b, block & 0xFFFF, face, p[0], p[1], p[2], size[0], size[1], size[2], block >>> 16);
+
+                            i += w;
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    // Face directions in the order +Z, -Z, +X, -X, +Y, -Y
+    private static final int[] DX = { 0, 0, 1, -1, 0, 0 };
+    private static final int[] DY = { 0, 0, 0, 0, 1, -1 };
+    private static final int[] DZ = { 1, -1, 0, 0, 0, 0 };
+
+    // The axis each face points along, and the two axes spanning it
+    private static final int[] NORMAL_AXIS = { 2, 2, 0, 0, 1, 1 };
+    private static final int[] U_AXIS = { 0, 0, 2, 2, 0, 0 };
+    private static final int[] V_AXIS = { 1, 1, 1, 1, 2, 2 };
+
+    // The greedy mesher's working arrays, one set per thread so meshing a sub-chunk allocates nothing
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static class Scratch {
+        // The faces of one slice still to be covered, and a position and size along each axis
+        final int[] mask = new int[256], p = new int[3], size = new int[3];
+    }
+
+    /**
+     * Build the mesh data of one sub-chunk
+     * @param neighbours The chunk to mesh and the borders of the four chunks around it
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @return The mesh data
+     */
+    public MeshComponent mesh(ChunkNeighbourhood neighbours, int subChunk) {
+        MeshBuilder b = MeshBuilder.get();
+        mesh(neighbours, subChunk, b);
+        return b.build();
+    }
+
+    /**
+     * Append the faces of one sub-chunk to a builder
+     * @param neighbours The chunk to mesh and the borders of the four chunks around it
+     * @param subChunk The index of the sub-chunk, from the bottom up
+     * @param b The builder to append to
+     */
+    public abstract void mesh(ChunkNeighbourhood neighbours, int subChunk, MeshBuilder b);
+
+    private static boolean exposed(ChunkNeighbourhood neighbours, int x, int y, int z, int face) {
+        return BlockRegistry.isTransparent(neighbours.getBlock(x + DX[face], y + DY[face], z + DZ[face]));
+    }
+
+    private static int light(ChunkNeighbourhood neighbours, int x, int y, int z, int face) {
+        return neighbours.getLight(x + DX[face], y + DY[face], z + DZ[face]);
+    }
+}
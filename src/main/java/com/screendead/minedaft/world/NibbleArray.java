@@ -0,0 +1,88 @@
+package com.screendead.minedaft.world;
+
+import java.util.Arrays;
+
+/**
+ * A value from 0 to 15 for every block of a 16x16x16 section, packed two to a byte, as used for
+ * light. A section where every value is the same, such as open sky or solid ground, holds just
+ * that value until a different one is set. Indices use the same layout as {@link BlockStorage}.
+ */
+public class NibbleArray {
+    private byte[] data;
+    private int value;
+
+    /**
+     * Create a section filled entirely with one value
+     * @param value The value to fill the section with
+     */
+    public NibbleArray(int value) {
+        this.value = value;
+    }
+
+    /**
+     * Pack a run of values into a new array
+     * @param values The values, one per byte
+     * @param offset The index of the first value of the section in the array
+     * @return The packed array
+     */
+    public static NibbleArray of(byte[] values, int offset) {
+        NibbleArray a = new NibbleArray(values[offset]);
+        for (int i = 1; i < BlockStorage.SIZE; i++) {
+            if (values[offset + i] == a.value) continue;
+
+            a.data = new byte[BlockStorage.SIZE / 2];
+            for (int j = 0; j < a.data.length; j++) a.data[j] = (byte) (values[offset + 2 * j] | (values[offset + 2 * j + 1] << 4));
+            break;
+        }
+        return a;
+    }
+
+    /**
+     * @param index The flattened position within the section
+     * @return The value at that position
+     */
+    public int get(int index) {
+        if (data == null) return value;
+
+        return (data[index >> 1] >> ((index & 1) << 2)) & 15;
+    }
+
+    /**
+     * @param index The flattened position within the section
+     * @param value The value to store, from 0 to 15
+     */
+    public void set(int index, int value) {
+        if (data == null) {
+            if (value == this.value) return;
+
+            data = new byte[BlockStorage.SIZE / 2];
+            Arrays.fill(data, (byte) (this.value | (this.value << 4)));
+        }
+
+        int shift = (index & 1) << 2;
+        data[index >> 1] = (byte) ((data[index >> 1] & ~(15 << shift)) | (value << shift));
+    }
+
+    /**
+     * @return An independent copy of this array
+     */
+    public NibbleArray copy() {
+        NibbleArray copy = new NibbleArray(value);
+        copy.data = (data == null) ? null : data.clone();
+        return copy;
+    }
+
+    /**
+     * @return Whether the section is still filled with one value, without an array of them
+     */
+    public boolean isUniform() {
+        return data == null;
+    }
+
+    /**
+     * @return An estimate of the heap used by this array, in bytes
+     */
+    public long getMemoryUsage() {
+        return 24 + ((data == null) ? 0 : 16 + data.length);
+    }
+}
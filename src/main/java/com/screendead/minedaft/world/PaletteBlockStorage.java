@@ -0,0 +1,275 @@
+package com.screendead.minedaft.world;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Block storage which maps the few distinct block IDs of a section onto a palette
+ * and packs the palette indices into a long array at 1, 2, 4, 8 or 16 bits per block.
+ * Sections made up of a single block type (e.g. all air) need no packed data at all.
+ */
+public class PaletteBlockStorage implements BlockStorage {
+    private int[] palette;
+    private int paletteSize;
+    private int bits;
+    private long[] data;
+
+    /**
+     * Create a section filled entirely with one block
+     * @param id The block ID to fill the section with
+     */
+    public PaletteBlockStorage(int id) {
+        this.palette = new int[] { id };
+        this.paletteSize = 1;
+        this.bits = 0;
+        this.data = null;
+    }
+
+    /**
+     * Pack a run of raw block IDs into a new storage
+     * @param blocks The raw block IDs
+     * @param offset The index of the first block of the section in the array
+     * @return The packed storage
+     */
+    public static PaletteBlockStorage of(int[] blocks, int offset) {
+        int[] palette = new int[4];
+        int size = 0;
+
+        // Find the distinct IDs, remembering the last one looked up as runs are common
+        int last = -1, lastIndex = -1;
+        for (int i = offset; i < offset + SIZE; i++) {
+            int id = blocks[i];
+            if (id == last) continue;
+
+            lastIndex = indexOf(palette, size, id);
+            if (lastIndex == -1) {
+                if (size == palette.length) palette = Arrays.copyOf(palette, size * 2);
+                palette[size] = id;
+                lastIndex = size++;
+            }
+            last = id;
+        }
+
+        PaletteBlockStorage storage = new PaletteBlockStorage(palette[0]);
+        if (size == 1) return storage;
+
+        storage.palette = palette;
+        storage.paletteSize = size;
+        storage.bits = bitsFor(size);
+        storage.data = new long[SIZE * storage.bits / 64];
+
+        last = -1;
+        for (int i = 0; i < SIZE; i++) {
+            int id = blocks[offset + i];
+            if (id != last) {
+                lastIndex = indexOf(palette, size, id);
+                last = id;
+            }
+            storage.write(i, lastIndex);
+        }
+
+        return storage;
+    }
+
+    @Override
+    public int get(int index) {
+        if (bits == 0) return palette[0];
+
+        return palette[read(index)];
+    }
+
+    @Override
+    public void set(int index, int id) {
+        int paletteIndex = indexOf(palette, paletteSize, id);
+
+        if (paletteIndex == -1) {
+            if (paletteSize == (1 << bits)) resize(bitsFor(paletteSize + 1));
+            if (paletteSize == palette.length) palette = Arrays.copyOf(palette, paletteSize * 2);
+
+            palette[paletteSize] = id;
+            paletteIndex = paletteSize++;
+        }
+
+        if (bits != 0) write(index, paletteIndex);
+    }
+
+    @Override
+    public BlockStorage copy() {
+        PaletteBlockStorage copy = new PaletteBlockStorage(palette[0]);
+        copy.palette = Arrays.copyOf(palette, paletteSize);
+        copy.paletteSize = paletteSize;
+        copy.bits = bits;
+        copy.data = (data == null) ? null : data.clone();
+        return copy;
+    }
+
+    /**
+     * Drop palette entries which are no longer used, shrinking the packed data
+     * (or removing it entirely) if fewer bits are needed afterwards.
+     */
+    public void compact() {
+        if (bits == 0) return;
+
+        int[] counts = new int[paletteSize];
+        for (int i = 0; i < SIZE; i++) counts[read(i)]++;
+
+        int used = 0;
+        int[] remap = new int[paletteSize];
+        int[] newPalette = new int[Math.max(1, paletteSize)];
+        for (int i = 0; i < paletteSize; i++) {
+            if (counts[i] == 0) continue;
+            remap[i] = used;
+            newPalette[used++] = palette[i];
+        }
+
+        if (used == paletteSize) return;
+
+        int newBits = (used == 1) ? 0 : bitsFor(used);
+        long[] newData = (newBits == 0) ? null : new long[SIZE * newBits / 64];
+        long[] oldData = this.data;
+        int oldBits = this.bits;
+
+        this.palette = newPalette;
+        this.paletteSize = used;
+        this.bits = newBits;
+        this.data = newData;
+
+        if (newBits != 0) {
+            for (int i = 0; i < SIZE; i++) write(i, remap[read(oldData, oldBits, i)]);
+        }
+    }
+
+    /**
+     * @return Whether every block in this section has the same ID
+     */
+    public boolean isUniform() {
+        return bits == 0;
+    }
+
+    /**
+     * @return The number of bits used per block
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return The number of palette entries, some of which may no longer be used until the
+     * storage is compacted
+     */
+    int getPaletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * @param i The index of a palette entry, from 0 to {@link #getPaletteSize()}
+     * @return The block ID of the entry
+     */
+    int getPaletteEntry(int i) {
+        return palette[i];
+    }
+
+    /**
+     * @return The number of bytes {@link #serialize(ByteBuffer)} writes
+     */
+    int serializedSize() {
+        return 1 + 2 + 4 * paletteSize + ((data == null) ? 0 : 8 * data.length);
+    }
+
+    /**
+     * Write the bit width, palette and packed data, in the buffer's byte order
+     * @param out The buffer to write to
+     */
+    void serialize(ByteBuffer out) {
+        out.put((byte) bits);
+        out.putShort((short) paletteSize);
+        out.asIntBuffer().put(palette, 0, paletteSize);
+        out.position(out.position() + 4 * paletteSize);
+
+        if (data != null) {
+            out.asLongBuffer().put(data);
+            out.position(out.position() + 8 * data.length);
+        }
+    }
+
+    /**
+     * Read a storage written by {@link #serialize(ByteBuffer)}
+     * @param in The buffer to read from, in the byte order it was written with
+     * @return The storage
+     */
+    static PaletteBlockStorage deserialize(ByteBuffer in) {
+        int bits = in.get();
+        int size = Short.toUnsignedInt(in.getShort());
+        if (size == 0 || (bits == 0) != (size == 1) || (bits != 0 && (Integer.bitCount(bits) != 1 || bits > 16 || size > (1 << bits))))
+            throw new IllegalArgumentException("Corrupt section: " + size + " palette entries at " + bits + " bits");
+
+        int[] palette = new int[size];
+        in.asIntBuffer().get(palette);
+        in.position(in.position() + 4 * size);
+
+        PaletteBlockStorage storage = new PaletteBlockStorage(palette[0]);
+        if (bits == 0) return storage;
+
+        storage.palette = palette;
+        storage.paletteSize = size;
+        storage.bits = bits;
+        storage.data = new long[SIZE * bits / 64];
+        in.asLongBuffer().get(storage.data);
+        in.position(in.position() + 8 * storage.data.length);
+
+        return storage;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        long usage = 40 + 16 + 4L * palette.length;
+        if (data != null) usage += 16 + 8L * data.length;
+        return usage;
+    }
+
+    private void resize(int newBits) {
+        long[] newData = new long[SIZE * newBits / 64];
+        long[] oldData = this.data;
+        int oldBits = this.bits;
+
+        this.bits = newBits;
+        this.data = newData;
+
+        if (oldBits != 0) {
+            for (int i = 0; i < SIZE; i++) write(i, read(oldData, oldBits, i));
+        }
+    }
+
+    private int read(int index) {
+        return read(data, bits, index);
+    }
+
+    private static int read(long[] data, int bits, int index) {
+        int perLong = 64 / bits;
+        int shift = (index % perLong) * bits;
+        return (int) ((data[index / perLong] >>> shift) & ((1L << bits) - 1));
+    }
+
+    private void write(int index, int value) {
+        int perLong = 64 / bits;
+        int shift = (index % perLong) * bits;
+        long mask = ((1L << bits) - 1) << shift;
+        int i = index / perLong;
+        data[i] = (data[i] & ~mask) | (((long) value << shift) & mask);
+    }
+
+    private static int bitsFor(int paletteSize) {
+        if (paletteSize <= 2) return 1;
+        if (paletteSize <= 4) return 2;
+        if (paletteSize <= 16) return 4;
+        if (paletteSize <= 256) return 8;
+        return 16;
+    }
+
+    private static int indexOf(int[] palette, int size, int id) {
+        for (int i = 0; i < size; i++) {
+            if (palette[i] == id) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,240 @@
+package com.screendead.minedaft.world;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * A file holding a fixed 32x32 grid of saved chunks.
+ *
+ * <pre>
+ * header:  1024 entries of (int offset, int length), indexed by (z << 5) | x, zero if absent
+ * body:    the chunks, as written by {@link ChunkCodec#encode(Chunk)}
+ * </pre>
+ *
+ * A rewritten chunk is never overwritten in place, so readers never see it half written:
+ * the new copy goes into free space, the first gap big enough or else the end of the file, and
+ * only then does the header point at it. The old copy's space is freed once no read which could
+ * have found it is still running. Free space isn't recorded; it's whatever lies between the
+ * chunks the header points at, found again when the file is opened.
+ * <p>
+ * Reads come straight from a read-only memory mapping of the file: each chunk is handed to the
+ * reader as a slice of the mapping, so its bytes go from the page cache to the decompressor
+ * without being copied. Any number of threads may read at once without locking, while writes
+ * are serialised. The mapping is replaced with a larger one when a read finds a chunk written
+ * past its end.
+ */
+public class RegionFile implements Closeable {
+    public static final int SIZE = 32;
+    static final int HEADER_BYTES = SIZE * SIZE * 8;
+
+    private final FileChannel channel;
+    private final AtomicLongArray index = new AtomicLongArray(SIZE * SIZE);
+    private volatile MappedByteBuffer mapping;
+    private long end;
+
+    // Reads in progress, which may be using the space of copies replaced since they began
+    private final AtomicInteger readers = new AtomicInteger();
+
+    // Gaps between saved chunks which can be written to, by offset, and the space of replaced
+    // copies which can't be until the reads in progress when they were replaced have finished.
+    // Both are guarded by the write lock.
+    private final TreeMap<Long, Integer> free = new TreeMap<>();
+    private final List<long[]> retired = new ArrayList<>();
+
+    /**
+     * Open a region file, creating it if it doesn't exist
+     * @param path The file to open
+     * @throws IOException if the file can't be opened or its header read
+     */
+    public RegionFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) ;
+        header.clear();
+        for (int i = 0; i < SIZE * SIZE; i++) index.set(i, entry(header.getInt(), header.getInt()));
+
+        // Everything after the header which no chunk uses is free
+        long[] used = new long[SIZE * SIZE];
+        int count = 0;
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            if (index.get(i) != 0) used[count++] = index.get(i);
+        }
+        Arrays.sort(used, 0, count);
+
+        end = HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            long offset = used[i] >>> 32;
+            if (offset > end) free.put(end, (int) (offset - end));
+            end = Math.max(end, offset + (int) used[i]);
+        }
+    }
+
+    /**
+     * @param x The X position within the region, from 0 to 31
+     * @param z The Z position within the region, from 0 to 31
+     * @return Whether the chunk has been saved
+     */
+    public boolean contains(int x, int z) {
+        return index.get((z << 5) | x) != 0;
+    }
+
+    /**
+     * Read a saved chunk
+     * @param x The X position within the region, from 0 to 31
+     * @param z The Z position within the region, from 0 to 31
+     * @param reader Given a read-only slice of the file's mapping holding the saved chunk, which
+     * must not be used once it returns, as the chunk's space may then be reused
+     * @return What the reader returned, or null if the chunk has not been saved
+     * @throws IOException if the file can't be mapped
+     */
+    public <T> T read(int x, int z, Function<ByteBuffer, T> reader) throws IOException {
+        // Count the read before looking the chunk up, so a writer replacing it knows to wait
+        readers.incrementAndGet();
+        try {
+            long entry = index.get((z << 5) | x);
+            if (entry == 0) return null;
+
+            int offset = (int) (entry >>> 32);
+            int length = (int) entry;
+
+            MappedByteBuffer m = mapping;
+            if (m == null || offset + length > m.capacity()) m = remap(offset + length);
+
+            return reader.apply(m.slice(offset, length));
+        } finally {
+            readers.decrementAndGet();
+        }
+    }
+
+    private synchronized MappedByteBuffer remap(long size) throws IOException {
+        // Another thread may have already remapped far enough
+        if (mapping != null && mapping.capacity() >= size) return mapping;
+
+        long fileSize = channel.size();
+        if (fileSize < size) throw new EOFException("Chunk runs past the end of the region file");
+
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        return mapping;
+    }
+
+    /**
+     * Save a chunk, replacing any earlier copy
+     * @param x The X position within the region, from 0 to 31
+     * @param z The Z position within the region, from 0 to 31
+     * @param data The saved chunk, from its position to its limit. Its position is left unchanged.
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void write(int x, int z, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        long offset = allocate(length);
+
+        ByteBuffer src = data.duplicate();
+        while (src.hasRemaining()) channel.write(src, offset + src.position() - data.position());
+
+        // Only point the header at the new copy once it is completely written
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt((int) offset).putInt(length).flip();
+        while (header.hasRemaining()) channel.write(header, ((z << 5) | x) * 8L + header.position());
+
+        long old = index.getAndSet((z << 5) | x, entry((int) offset, length));
+        if (old != 0) retired.add(new long[] { old >>> 32, (int) old });
+    }
+
+    /**
+     * Find space for a chunk: the first free gap big enough, or else the end of the file
+     * @param length The length of the chunk, in bytes
+     * @return The offset to write it at
+     * @throws IOException if there's no gap big enough and appending would make the file too big to map
+     */
+    private long allocate(int length) throws IOException {
+        // Reads which began before the retired copies were replaced have all finished if none
+        // are running now; any which begin later find the new copies instead
+        if (!retired.isEmpty() && readers.get() == 0) {
+            for (long[] r : retired) release(r[0], (int) r[1]);
+            retired.clear();
+        }
+
+        for (Map.Entry<Long, Integer> gap : free.entrySet()) {
+            if (gap.getValue() < length) continue;
+
+            // Removing an entry can reuse it for another, so read it first
+            long offset = gap.getKey();
+            int size = gap.getValue();
+            free.remove(offset);
+            if (size > length) free.put(offset + length, size - length);
+            return offset;
+        }
+
+        // Keep the file small enough to map in one piece
+        if (end + length > Integer.MAX_VALUE) throw new IOException("Region file is full");
+
+        long offset = end;
+        end += length;
+        return offset;
+    }
+
+    /**
+     * Free the space a chunk used, merging it with the gaps either side
+     */
+    private void release(long offset, int length) {
+        Map.Entry<Long, Integer> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            offset = before.getKey();
+            length += before.getValue();
+            free.remove(offset);
+        }
+
+        Integer after = free.remove(offset + length);
+        if (after != null) length += after;
+
+        // Space at the end of the file is written over by the next chunk appended
+        if (offset + length == end) {
+            end = offset;
+        } else {
+            free.put(offset, length);
+        }
+    }
+
+    /**
+     * @return The number of bytes after the header which no saved chunk uses, including the
+     * space of replaced copies which can't be reused yet
+     */
+    public synchronized long getFreeBytes() {
+        long bytes = 0;
+        for (int length : free.values()) bytes += length;
+        for (long[] r : retired) bytes += r[1];
+        return bytes;
+    }
+
+    /**
+     * @return The offset just past the last saved chunk, which the file is at least as long as
+     */
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static long entry(int offset, int length) {
+        return ((offset & 0xFFFFFFFFL) << 32) | (length & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,84 @@
+package com.screendead.minedaft.world;
+
+/**
+ * Works out the smallest box around the blocks of a 16x16x16 section which aren't air, so
+ * culling can test what a section actually holds rather than the whole of it. The box is packed
+ * into an int as six 4-bit co-ordinates within the section: the minimum X, Y and Z in bits 0-11
+ * and the maximum X, Y and Z, inclusive, in bits 12-23. Needs nothing but the section's blocks,
+ * so it can run on any thread.
+ */
+public final class SectionBounds {
+    /**
+     * The bounds of a section of nothing but air
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * The bounds of the whole section
+     */
+    public static final int FULL = pack(0, 0, 0, 15, 15, 15);
+
+    private SectionBounds() {}
+
+    /**
+     * @param section The blocks of the section
+     * @return The bounds of the section's blocks which aren't air, or {@link #EMPTY}
+     */
+    public static int compute(BlockStorage section) {
+        int air = BlockType.AIR.ordinal();
+        if (section instanceof PaletteBlockStorage && ((PaletteBlockStorage) section).isUniform())
+            return (section.get(0) == air) ? EMPTY : FULL;
+
+        int minX = 15, minY = 15, minZ = 15, maxX = -1, maxY = -1, maxZ = -1;
+        for (int i = 0; i < BlockStorage.SIZE; i++) {
+            if (section.get(i) == air) continue;
+
+            int y = i >> 8, x = (i >> 4) & 15, z = i & 15;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+
+        return (maxY < 0) ? EMPTY : pack(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    private static int pack(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return minX | (minY << 4) | (minZ << 8) | (maxX << 12) | (maxY << 16) | (maxZ << 20);
+    }
+
+    public static int minX(int bounds) {
+        return bounds & 15;
+    }
+
+    public static int minY(int bounds) {
+        return (bounds >> 4) & 15;
+    }
+
+    public static int minZ(int bounds) {
+        return (bounds >> 8) & 15;
+    }
+
+    /**
+     * @return The maximum X co-ordinate of the bounds, inclusive
+     */
+    public static int maxX(int bounds) {
+        return (bounds >> 12) & 15;
+    }
+
+    /**
+     * @return The maximum Y co-ordinate of the bounds, inclusive
+     */
+    public static int maxY(int bounds) {
+        return (bounds >> 16) & 15;
+    }
+
+    /**
+     * @return The maximum Z co-ordinate of the bounds, inclusive
+     */
+    public static int maxZ(int bounds) {
+        return (bounds >> 20) & 15;
+    }
+}
@@ -0,0 +1,100 @@
+package com.screendead.minedaft.world;
+
+import java.util.Arrays;
+
+/**
+ * Works out which faces of a 16x16x16 section can see each other through its transparent blocks.
+ * The result is a 36-bit graph, with bit (a * 6 + b) set when face a connects to face b, using the
+ * face order +Z, -Z, +X, -X, +Y, -Y. Needs nothing but the section's blocks, so it can run on any thread.
+ */
+public final class SectionConnectivity {
+    /**
+     * Every face connects to every other, as for a section of air
+     */
+    public static final long ALL = (1L << 36) - 1;
+
+    /**
+     * No face connects to any other, as for a solid section
+     */
+    public static final long NONE = 0;
+
+    private static final ThreadLocal<int[]> QUEUE = ThreadLocal.withInitial(() -> new int[BlockStorage.SIZE]);
+    private static final ThreadLocal<long[]> VISITED = ThreadLocal.withInitial(() -> new long[BlockStorage.SIZE / 64]);
+
+    private SectionConnectivity() {}
+
+    /**
+     * @param section The blocks of the section
+     * @return The connectivity graph of the section
+     */
+    public static long compute(BlockStorage section) {
+        if (section instanceof PaletteBlockStorage && ((PaletteBlockStorage) section).isUniform())
+            return BlockRegistry.isTransparent(section.get(0)) ? ALL : NONE;
+
+        int[] queue = QUEUE.get();
+        long[] visited = VISITED.get();
+        Arrays.fill(visited, 0);
+
+        long graph = NONE;
+        for (int start = 0; start < BlockStorage.SIZE; start++) {
+            if (isVisited(visited, start)) continue;
+            setVisited(visited, start);
+            if (!BlockRegistry.isTransparent(section.get(start))) continue;
+
+            // Flood fill the transparent region containing this block, noting which faces it touches
+            int faces = 0, head = 0, tail = 0;
+            queue[tail++] = start;
+            while (head < tail) {
+                int i = queue[head++];
+                int y = i >> 8, x = (i >> 4) & 15, z = i & 15;
+
+                if (z == 15) faces |= 1;
+                if (z == 0) faces |= 1 << 1;
+                if (x == 15) faces |= 1 << 2;
+                if (x == 0) faces |= 1 << 3;
+                if (y == 15) faces |= 1 << 4;
+                if (y == 0) faces |= 1 << 5;
+
+                if (z < 15) tail = visit(section, visited, queue, tail, i + 1);
+                if (z > 0) tail = visit(section, visited, queue, tail, i - 1);
+                if (x < 15) tail = visit(section, visited, queue, tail, i + 16);
+                if (x > 0) tail = visit(section, visited, queue, tail, i - 16);
+                if (y < 15) tail = visit(section, visited, queue, tail, i + 256);
+                if (y > 0) tail = visit(section, visited, queue, tail, i - 256);
+            }
+
+            for (int a = 0; a < 6; a++) {
+                if ((faces & (1 << a)) != 0) graph |= (long) faces << (a * 6);
+            }
+            if (graph == ALL) break;
+        }
+
+        return graph;
+    }
+
+    /**
+     * @param graph A connectivity graph
+     * @param from A face direction
+     * @param to Another face direction
+     * @return Whether the two faces connect
+     */
+    public static boolean connects(long graph, int from, int to) {
+        return (graph & (1L << (from * 6 + to))) != 0;
+    }
+
+    private static int visit(BlockStorage section, long[] visited, int[] queue, int tail, int i) {
+        if (isVisited(visited, i)) return tail;
+        setVisited(visited, i);
+
+        if (BlockRegistry.isTransparent(section.get(i))) queue[tail++] = i;
+        return tail;
+    }
+
+    private static boolean isVisited(long[] visited, int i) {
+        return (visited[i >> 6] & (1L << i)) != 0;
+    }
+
+    private static void setVisited(long[] visited, int i) {
+        visited[i >> 6] |= 1L << i;
+    }
+}
@@ -0,0 +1,277 @@
+package com.screendead.minedaft.world;
+
+import org.lwjgl.stb.STBPerlin;
+
+import java.util.Arrays;
+
+/**
+ * The ways in which the blocks of a chunk can be generated.
+ */
+public enum TerrainGenerator {
+    /**
+     * Flat stone up to Y = 64
+     */
+    SIMPLE {
+        @Override
+        public int getBlock(int cx, int cz, int x, int y, int z) {
+            if (y < 64.0f) return BlockType.STONE.ordinal();
+            else return BlockType.AIR.ordinal();
+        }
+    },
+    /**
+     * Perlin turbulence sampled at every block
+     */
+    NOISE {
+        @Override
+        public int getBlock(int cx, int cz, int x, int y, int z) {
+            return block(y, noise((cx << 4) + x, y, (cz << 4) + z));
+        }
+    },
+    /**
+     * Perlin turbulence sampled on a coarse lattice and trilinearly interpolated in between
+     */
+    LERP {
+        @Override
+        public int getBlock(int cx, int cz, int x, int y, int z) {
+            int wx = (cx << 4) + x, wz = (cz << 4) + z;
+            int x0 = wx & -STEP, y0 = y & -STEP, z0 = wz & -STEP;
+
+            float c000 = noise(x0, y0, z0),
+                    c100 = noise(x0 + STEP, y0, z0),
+                    c010 = noise(x0, y0 + STEP, z0),
+                    c110 = noise(x0 + STEP, y0 + STEP, z0),
+                    c001 = noise(x0, y0, z0 + STEP),
+                    c101 = noise(x0 + STEP, y0, z0 + STEP),
+                    c011 = noise(x0, y0 + STEP, z0 + STEP),
+                    c111 = noise(x0 + STEP, y0 + STEP, z0 + STEP);
+
+            return block(y, trilinear(c000, c100, c010, c110, c001, c101, c011, c111,
+                    (wx - x0) / (float) STEP, (y - y0) / (float) STEP, (wz - z0) / (float) STEP));
+        }
+
+        @Override
+        public void generate(int cx, int cz, int[] blocks) {
+            float[] lattice = LATTICE.get();
+
+            // Sample the corners of every lattice cell in the chunk, including the far edges
+            for (int i = 0; i <= CELLS_XZ; i++) {
+                for (int j = 0; j <= CELLS_XZ; j++) {
+                    for (int k = 0; k <= CELLS_Y; k++) {
+                        lattice[latticeIndex(i, j, k)] = noise((cx << 4) + i * STEP, k * STEP, (cz << 4) + j * STEP);
+                    }
+                }
+            }
+
+            for (int i = 0; i < 16; i++) {
+                int li = i >> LERP_SHIFT;
+                float fx = (i & (STEP - 1)) / (float) STEP;
+
+                for (int j = 0; j < 16; j++) {
+                    int lj = j >> LERP_SHIFT;
+                    float fz = (j & (STEP - 1)) / (float) STEP;
+
+                    for (int k = 0; k < 256; k++) {
+                        int lk = k >> LERP_SHIFT;
+                        float fy = (k & (STEP - 1)) / (float) STEP;
+
+                        float t = trilinear(
+                                lattice[latticeIndex(li, lj, lk)],
+                                lattice[latticeIndex(li + 1, lj, lk)],
+                                lattice[latticeIndex(li, lj, lk + 1)],
+                                lattice[latticeIndex(li + 1, lj, lk + 1)],
+                                lattice[latticeIndex(li, lj + 1, lk)],
+                                lattice[latticeIndex(li + 1, lj + 1, lk)],
+                                lattice[latticeIndex(li, lj + 1, lk + 1)],
+                                lattice[latticeIndex(li + 1, lj + 1, lk + 1)],
+                                fx, fy, fz);
+
+                        blocks[Chunk.flatten(i, j, k)] = block(k, t);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int getHeight(int wx, int wz) {
+            int[] height = new int[1];
+            getHeights(wx, wz, 1, 1, height);
+            return height[0];
+        }
+
+        @Override
+        public void getHeights(int wx, int wz, int spacing, int width, int[] heights) {
+            // Columns on the lattice are shared by the samples around them, and their noise is
+            // only sampled as far down as a sample has needed to look
+            int lx = wx >> LERP_SHIFT, lz = wz >> LERP_SHIFT;
+            int span = (((width - 1) * spacing + (wx & (STEP - 1))) >> LERP_SHIFT) + 2;
+
+            HeightLattice lattice = HEIGHT_LATTICE.get();
+            lattice.reset(lx, lz, span);
+
+            for (int j = 0; j < width; j++) {
+                for (int i = 0; i < width; i++) {
+                    int x = wx + i * spacing, z = wz + j * spacing;
+                    int ci = (x >> LERP_SHIFT) - lx, cj = (z >> LERP_SHIFT) - lz;
+                    float fx = (x & (STEP - 1)) / (float) STEP, fz = (z & (STEP - 1)) / (float) STEP;
+
+                    heights[j * width + i] = lattice.height(ci, cj, fx, fz);
+                }
+            }
+        }
+    };
+
+    private static final float SCALE = 0.005f;
+
+    private static final int LERP_SHIFT = 2; // 4x4x4 interpolation
+    private static final int STEP = 1 << LERP_SHIFT;
+    private static final int CELLS_XZ = 16 >> LERP_SHIFT, CELLS_Y = 256 >> LERP_SHIFT;
+
+    private static final ThreadLocal<float[]> LATTICE =
+            ThreadLocal.withInitial(() -> new float[(CELLS_XZ + 1) * (CELLS_XZ + 1) * (CELLS_Y + 1)]);
+    private static final ThreadLocal<HeightLattice> HEIGHT_LATTICE = ThreadLocal.withInitial(HeightLattice::new);
+
+    /**
+     * Lattice columns sampled lazily from the top down, for finding the heights of many columns at once
+     */
+    private static class HeightLattice {
+        private float[] noise = new float[0];
+        private int[] lowest = new int[0];
+        private int x0, z0, span;
+
+        void reset(int x0, int z0, int span) {
+            this.x0 = x0;
+            this.z0 = z0;
+            this.span = span;
+
+            if (lowest.length < span * span) {
+                lowest = new int[span * span];
+                noise = new float[span * span * (CELLS_Y + 1)];
+            }
+            Arrays.fill(lowest, 0, span * span, CELLS_Y + 1);
+        }
+
+        /**
+         * @return The height of a column within the lattice cell at (ci, cj), at (fx, fz) across it
+         */
+        int height(int ci, int cj, float fx, float fz) {
+            float above = level(ci, cj, fx, fz, CELLS_Y);
+            for (int k = CELLS_Y - 1; k >= 0; k--) {
+                float below = level(ci, cj, fx, fz, k);
+
+                for (int y = k * STEP + STEP - 1; y >= k * STEP; y--) {
+                    float t = below + (above - below) * ((y - k * STEP) / (float) STEP);
+                    if (block(y, t) != BlockType.AIR.ordinal()) return y;
+                }
+                above = below;
+            }
+            return 0;
+        }
+
+        private float level(int ci, int cj, float fx, float fz, int k) {
+            float c00 = column(ci, cj, k);
+            if (fx == 0 && fz == 0) return c00;
+
+            float c10 = (fx == 0) ? c00 : column(ci + 1, cj, k),
+                    c01 = (fz == 0) ? c00 : column(ci, cj + 1, k),
+                    c11 = (fx == 0) ? c01 : (fz == 0) ? c10 : column(ci + 1, cj + 1, k);
+
+            float c0 = c00 + (c10 - c00) * fx, c1 = c01 + (c11 - c01) * fx;
+            return c0 + (c1 - c0) * fz;
+        }
+
+        private float column(int ci, int cj, int k) {
+            int c = cj * span + ci;
+            while (lowest[c] > k) {
+                int level = --lowest[c];
+                noise[c * (CELLS_Y + 1) + level] = noise((x0 + ci) * STEP, level * STEP, (z0 + cj) * STEP);
+            }
+            return noise[c * (CELLS_Y + 1) + k];
+        }
+    }
+
+    /**
+     * @param cx The X position of the chunk, in chunk co-ordinates
+     * @param cz The Z position of the chunk, in chunk co-ordinates
+     * @param x The X position within the chunk
+     * @param y The Y position
+     * @param z The Z position within the chunk
+     * @return The ID of the generated block
+     */
+    public abstract int getBlock(int cx, int cz, int x, int y, int z);
+
+    /**
+     * Generate a whole chunk column
+     * @param cx The X position of the chunk, in chunk co-ordinates
+     * @param cz The Z position of the chunk, in chunk co-ordinates
+     * @param blocks The 65536 block IDs to fill, laid out as in {@link Chunk#flatten(int, int, int)}
+     */
+    public void generate(int cx, int cz, int[] blocks) {
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j < 16; j++) {
+                for (int k = 0; k < 256; k++) {
+                    blocks[Chunk.flatten(i, j, k)] = getBlock(cx, cz, i, k, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the highest solid block of a column, as recorded in a chunk's height map once generated
+     * @param wx The X position of the column, in block co-ordinates
+     * @param wz The Z position of the column, in block co-ordinates
+     * @return The Y position of the highest solid block
+     */
+    public int getHeight(int wx, int wz) {
+        int cx = wx >> 4, cz = wz >> 4;
+        for (int y = 255; y > 0; y--) {
+            if (getBlock(cx, cz, wx & 15, y, wz & 15) != BlockType.AIR.ordinal()) return y;
+        }
+        return 0;
+    }
+
+    /**
+     * Find the heights of a square grid of columns, as {@link #getHeight(int, int)} does for one
+     * @param wx The X position of the first column, in block co-ordinates
+     * @param wz The Z position of the first column, in block co-ordinates
+     * @param spacing The distance between columns, in blocks
+     * @param width The number of columns along each side of the grid
+     * @param heights The width * width heights to fill, row by row along X
+     */
+    public void getHeights(int wx, int wz, int spacing, int width, int[] heights) {
+        for (int j = 0; j < width; j++) {
+            for (int i = 0; i < width; i++) {
+                heights[j * width + i] = getHeight(wx + i * spacing, wz + j * spacing);
+            }
+        }
+    }
+
+    private static float noise(int x, int y, int z) {
+        return STBPerlin.stb_perlin_turbulence_noise3(x * SCALE, y * SCALE, z * SCALE, 2.0f, 0.5f, 5);
+    }
+
+    private static int block(int y, float noise) {
+        float detail = 1 + 127.0f * noise;
+
+        if (y == 0) return BlockType.BEDROCK.ordinal();
+        else if (y < detail) return BlockType.STONE.ordinal();
+        else return BlockType.AIR.ordinal();
+    }
+
+    private static int latticeIndex(int i, int j, int k) {
+        return (k * (CELLS_XZ + 1) + i) * (CELLS_XZ + 1) + j;
+    }
+
+    private static float trilinear(float c000, float c100, float c010, float c110,
+                                   float c001, float c101, float c011, float c111,
+                                   float fx, float fy, float fz) {
+        float c00 = c000 + (c100 - c000) * fx,
+                c10 = c010 + (c110 - c010) * fx,
+                c01 = c001 + (c101 - c001) * fx,
+                c11 = c011 + (c111 - c011) * fx;
+
+        float c0 = c00 + (c10 - c00) * fy,
+                c1 = c01 + (c11 - c01) * fy;
+
+        return c0 + (c1 - c0) * fz;
+    }
+}
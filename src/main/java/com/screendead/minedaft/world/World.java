@@ -1,13 +1,23 @@
 package com.screendead.minedaft.world;
 
+import com.screendead.minedaft.graphics.RenderState;
 import com.screendead.minedaft.performance.ChunkManager;
+import com.screendead.minedaft.performance.Histogram;
+import com.screendead.minedaft.performance.Metrics;
 import org.joml.Matrix4f;
 
+import java.nio.file.Paths;
+
+/**
+ * The loaded world. Updated, polled and culled on the simulation thread, and drawn on the GL thread.
+ */
 public class World {
+    private static final Histogram RENDER = Metrics.histogram("world.render");
+
     private final ChunkManager chunkManager;
 
     public World(int renderDistance) {
-        this.chunkManager = new ChunkManager(renderDistance);
+        this.chunkManager = new ChunkManager(renderDistance, new ChunkStorage(Paths.get("saves", "world")));
 
         chunkManager.generate();
     }
@@ -26,19 +36,59 @@ public class World {
         chunkManager.poll(cx, cz);
     }
 
-    public void render(Matrix4f view, Matrix4f transform, Matrix4f camera) {
-        chunkManager.render(view, transform, camera);
+    /**
+     * List the sections the camera could see in the state to be drawn
+     * @param x The X position of the camera
+     * @param y The Y position of the camera
+     * @param z The Z position of the camera
+     * @param frustum The combined projection and view matrix to cull against
+     * @param state The state
+     */
+    public void cull(float x, float y, float z, Matrix4f frustum, RenderState state) {
+        chunkManager.cull(x, y, z, frustum, state);
+    }
+
+    public void render(RenderState state, Matrix4f view, Matrix4f transform, Matrix4f camera) {
+        long start = System.nanoTime();
+        chunkManager.render(state, view, transform, camera);
+        RENDER.record(System.nanoTime() - start);
     }
 
-//    private BlockType getBlock(int cx, int cz, int x, int y, int z) {
-//        if (cx < 0 || cx >= chunks.length || cz < 0 || cz >= chunks[0].length) return BlockType.AIR;
-//        if (chunks[cx][cz].isEmpty() || (y < 0) || (y > 255)) return BlockType.AIR;
-//        if (x == 16) return getBlock(cx + 1, cz, 0, y, z);
-//        if (x == -1) return getBlock(cx - 1, cz, 15, y, z);
-//        if (z == 16) return getBlock(cx, cz + 1, x, y, 0);
-//        if (z == -1) return getBlock(cx, cz - 1, x, y, 15);
-//        return chunks[cx][cz].getBlock(x, y, z);
-//    }
+    /**
+     * @return How far, in chunks, terrain is drawn
+     */
+    public int getViewDistance() {
+        return chunkManager.getViewDistance();
+    }
+
+    /**
+     * @return A one-line summary of chunk loading and mesh uploads
+     */
+    public String getStatistics() {
+        return chunkManager.getStatistics();
+    }
+
+    /**
+     * @param x The X position, in block co-ordinates
+     * @param y The Y position, in block co-ordinates
+     * @param z The Z position, in block co-ordinates
+     * @return The block ID at that position, or air if its chunk isn't loaded
+     */
+    public int getBlock(int x, int y, int z) {
+        return chunkManager.getBlock(x, y, z);
+    }
+
+    /**
+     * Change a block. Only the sub-chunks it affects are remeshed, at the end of the tick.
+     * @param x The X position, in block co-ordinates
+     * @param y The Y position, in block co-ordinates
+     * @param z The Z position, in block co-ordinates
+     * @param id The new block ID
+     * @return Whether the block's chunk is loaded and so could be changed
+     */
+    public boolean setBlock(int x, int y, int z, int id) {
+        return chunkManager.setBlock(x, y, z, id);
+    }
 
     public void cleanup() {
         chunkManager.cleanup();
@@ -0,0 +1,76 @@
+package com.screendead.minedaft;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickScheduleTest {
+    private static final long MS = 1_000_000, TICK = 50 * MS, BACKLOG = 250 * MS;
+
+    // Far from zero, as times from System.nanoTime() may be
+    private static final long START = -123_456_789_000L;
+
+    /**
+     * Follow the schedule as the simulation thread does, sleeping exactly until each tick is due
+     * @param end How long to run for, including a tick due at the very end
+     * @param cost How long each tick takes to run, by its index
+     * @return When each tick was due, from the start
+     */
+    private static List<Long> run(long end, IntToLongFunction cost) {
+        TickSchedule schedule = new TickSchedule(TICK, BACKLOG, START);
+        List<Long> due = new ArrayList<>();
+
+        long now = START;
+        while (now <= START + end) {
+            if (!schedule.isDue(now)) {
+                now = schedule.getNext();
+                continue;
+            }
+
+            due.add(schedule.take(now) - START);
+            now += cost.applyAsLong(due.size() - 1);
+        }
+        return due;
+    }
+
+    @Test
+    void ticksAtAFixedRate() {
+        List<Long> due = run(1000 * MS, i -> 2 * MS);
+        assertEquals(20, due.size());
+        for (int i = 0; i < due.size(); i++) assertEquals((i + 1) * TICK, due.get(i));
+    }
+
+    @Test
+    void catchesUpAfterASlowTick() {
+        // The fourth tick takes four ticks' time, so the three behind it run straight after
+        List<Long> due = run(1000 * MS, i -> (i == 3) ? 200 * MS : 2 * MS);
+        assertEquals(20, due.size());
+        for (int i = 0; i < due.size(); i++) assertEquals((i + 1) * TICK, due.get(i));
+    }
+
+    @Test
+    void keepsABacklogUpToTheLimit() {
+        // Falling exactly the limit behind still catches up
+        List<Long> due = run(1000 * MS, i -> (i == 3) ? TICK + BACKLOG : 0);
+        assertEquals(20, due.size());
+        for (int i = 0; i < due.size(); i++) assertEquals((i + 1) * TICK, due.get(i));
+    }
+
+    @Test
+    void dropsTheBacklogAfterALongStall() {
+        // The fourth tick, due at 200ms, stalls for a second
+        List<Long> due = run(2000 * MS, i -> (i == 3) ? 1000 * MS : 2 * MS);
+
+        // The next tick runs as soon as the stall ends, and the schedule starts again from there
+        assertEquals(4 * TICK, due.get(3));
+        assertEquals(4 * TICK + 1000 * MS, due.get(4));
+        for (int i = 5; i < due.size(); i++) assertEquals(due.get(4) + (i - 4) * TICK, due.get(i));
+
+        // None of the ticks missed during the stall were run: only the four before it, and those due from 1200ms to 2000ms
+        assertEquals(4 + 17, due.size());
+    }
+}
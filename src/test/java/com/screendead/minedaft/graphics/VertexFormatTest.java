@@ -0,0 +1,88 @@
+package com.screendead.minedaft.graphics;
+
+import com.screendead.minedaft.world.Light;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VertexFormatTest {
+    // The limits of each field, and a value in between
+    private static final int[] POSITIONS = { 0, 1, 15, 16 }, TILES = { 0, 1, 128, 255 };
+
+    @Test
+    void geometryRoundTripsAtItsLimits() {
+        for (int x : POSITIONS) {
+            for (int y : POSITIONS) {
+                for (int z : POSITIONS) {
+                    for (int face = 0; face < 6; face++) {
+                        for (int u : POSITIONS) {
+                            for (int v : POSITIONS) {
+                                int g = VertexFormat.packGeometry(x, y, z, face, u, v);
+                                String at = x + ", " + y + ", " + z + " face " + face + " uv " + u + ", " + v;
+
+                                assertEquals(x, VertexFormat.getX(g), at);
+                                assertEquals(y, VertexFormat.getY(g), at);
+                                assertEquals(z, VertexFormat.getZ(g), at);
+                                assertEquals(face, VertexFormat.getFace(g), at);
+                                assertEquals(u, VertexFormat.getU(g), at);
+                                assertEquals(v, VertexFormat.getV(g), at);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void textureRoundTripsAtItsLimits() {
+        for (int tileU : TILES) {
+            for (int tileV : TILES) {
+                for (int sky = 0; sky <= Light.MAX; sky++) {
+                    for (int block = 0; block <= Light.MAX; block++) {
+                        int light = Light.pack(sky, block);
+                        int t = VertexFormat.packTexture(tileU, tileV, light);
+                        String at = "tile " + tileU + ", " + tileV + " light " + sky + ", " + block;
+
+                        assertEquals(tileU, VertexFormat.getTileU(t), at);
+                        assertEquals(tileV, VertexFormat.getTileV(t), at);
+                        assertEquals(light, VertexFormat.getLight(t), at);
+                        assertEquals(sky, Light.sky(VertexFormat.getLight(t)), at);
+                        assertEquals(block, Light.block(VertexFormat.getLight(t)), at);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void fieldsDoNotOverlap() {
+        int g = VertexFormat.packGeometry(16, 16, 16, 5, 16, 16);
+        assertEquals(16, VertexFormat.getX(g));
+        assertEquals(0, VertexFormat.getX(VertexFormat.packGeometry(0, 16, 16, 5, 16, 16)));
+        assertEquals(0, VertexFormat.getFace(VertexFormat.packGeometry(16, 16, 16, 0, 16, 16)));
+
+        int t = VertexFormat.packTexture(255, 0, 0);
+        assertEquals(0, VertexFormat.getTileV(t));
+        assertEquals(0, VertexFormat.getLight(t));
+        assertEquals(0, VertexFormat.getTileU(VertexFormat.packTexture(0, 255, 255)));
+    }
+
+    @Test
+    void rejectsValuesOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packGeometry(17, 0, 0, 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packGeometry(0, -1, 0, 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packGeometry(0, 0, 17, 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packGeometry(0, 0, 0, 6, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packGeometry(0, 0, 0, 0, 17, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packGeometry(0, 0, 0, 0, 0, 17));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packTexture(256, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packTexture(0, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> VertexFormat.packTexture(0, 0, 256));
+    }
+
+    @Test
+    void verticesAreEightBytes() {
+        assertEquals(8, VertexFormat.BYTES);
+    }
+}
@@ -0,0 +1,152 @@
+package com.screendead.minedaft.performance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArenaAllocatorTest {
+    @Test
+    void allocatesFirstFitAndFreesBack() {
+        ArenaAllocator arena = new ArenaAllocator(100);
+        assertEquals(0, arena.allocate(10));
+        assertEquals(10, arena.allocate(20));
+        assertEquals(30, arena.allocate(70));
+        assertEquals(100, arena.getUsed());
+        assertEquals(0, arena.getFreeRanges());
+
+        arena.free(10, 20);
+        assertEquals(80, arena.getUsed());
+        assertEquals(1, arena.getFreeRanges());
+
+        // The gap is reused, an exact fit first, then split by smaller ranges
+        assertEquals(10, arena.allocate(20));
+        arena.free(10, 20);
+        assertEquals(10, arena.allocate(5));
+        assertEquals(15, arena.allocate(5));
+        assertEquals(10, arena.getLargestFree());
+    }
+
+    @Test
+    void freedRangesMergeWithTheirNeighbours() {
+        ArenaAllocator arena = new ArenaAllocator(50);
+        for (int i = 0; i < 5; i++) assertEquals(i * 10, arena.allocate(10));
+
+        // Apart, then joining the one before, the one after, and both
+        arena.free(10, 10);
+        arena.free(30, 10);
+        assertEquals(2, arena.getFreeRanges());
+
+        arena.free(0, 10);
+        assertEquals(2, arena.getFreeRanges());
+        assertEquals(20, arena.getLargestFree());
+
+        arena.free(40, 10);
+        assertEquals(2, arena.getFreeRanges());
+        assertEquals(20, arena.getLargestFree());
+
+        arena.free(20, 10);
+        assertEquals(1, arena.getFreeRanges());
+        assertEquals(50, arena.getLargestFree());
+        assertEquals(0, arena.getUsed());
+        assertEquals(0, arena.allocate(50));
+    }
+
+    @Test
+    void scatteredFreeSpaceIsFragmented() {
+        ArenaAllocator arena = new ArenaAllocator(100);
+        for (int i = 0; i < 10; i++) arena.allocate(10);
+        assertEquals(0, arena.getFragmentation());
+
+        // Every other range: half the space free, but only ten at a time
+        for (int i = 0; i < 10; i += 2) arena.free(i * 10, 10);
+        assertEquals(50, arena.getCapacity() - arena.getUsed());
+        assertEquals(10, arena.getLargestFree());
+        assertEquals(0.8f, arena.getFragmentation(), 1e-6f);
+        assertEquals(-1, arena.allocate(11));
+
+        arena.reset();
+        assertEquals(0, arena.getFragmentation());
+        assertEquals(100, arena.getLargestFree());
+    }
+
+    @Test
+    void failsWhenNothingIsBigEnough() {
+        ArenaAllocator arena = new ArenaAllocator(64);
+        assertEquals(-1, arena.allocate(65));
+        assertEquals(0, arena.allocate(64));
+        assertEquals(-1, arena.allocate(1));
+        assertEquals(64, arena.getUsed());
+
+        assertEquals(-1, new ArenaAllocator(0).allocate(1));
+    }
+
+    @Test
+    void growingAddsSpaceAtTheEnd() {
+        ArenaAllocator arena = new ArenaAllocator(30);
+        arena.allocate(30);
+
+        // With nothing free, the new space is a range of its own
+        arena.grow(50);
+        assertEquals(50, arena.getCapacity());
+        assertEquals(1, arena.getFreeRanges());
+        assertEquals(30, arena.allocate(15));
+
+        // Joining the free range already at the end
+        arena.grow(80);
+        assertEquals(1, arena.getFreeRanges());
+        assertEquals(35, arena.getLargestFree());
+        assertEquals(45, arena.allocate(35));
+
+        assertThrows(IllegalArgumentException.class, () -> arena.grow(10));
+    }
+
+    @Test
+    void rejectsBadRanges() {
+        ArenaAllocator arena = new ArenaAllocator(100);
+        int offset = arena.allocate(10);
+
+        assertThrows(IllegalArgumentException.class, () -> arena.allocate(0));
+        assertThrows(IllegalArgumentException.class, () -> arena.free(95, 10));
+        assertThrows(IllegalStateException.class, () -> arena.free(50, 10));
+
+        arena.free(offset, 10);
+        assertThrows(IllegalStateException.class, () -> arena.free(offset, 10));
+    }
+
+    @Test
+    void neverHandsOutOverlappingRanges() {
+        Random random = new Random(5);
+        ArenaAllocator arena = new ArenaAllocator(1 << 12);
+        boolean[] taken = new boolean[arena.getCapacity()];
+        List<int[]> live = new ArrayList<>();
+
+        for (int n = 0; n < 20000; n++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                int[] range = live.remove(random.nextInt(live.size()));
+                arena.free(range[0], range[1]);
+                for (int i = range[0]; i < range[0] + range[1]; i++) taken[i] = false;
+                continue;
+            }
+
+            int size = 1 + random.nextInt(100), offset = arena.allocate(size);
+            if (offset < 0) {
+                assertTrue(arena.getLargestFree() < size);
+                continue;
+            }
+
+            for (int i = offset; i < offset + size; i++) {
+                assertFalse(taken[i], "offset " + i + " handed out twice");
+                taken[i] = true;
+            }
+            live.add(new int[] { offset, size });
+        }
+
+        int used = 0;
+        for (int[] range : live) used += range[1];
+        assertEquals(used, arena.getUsed());
+    }
+}
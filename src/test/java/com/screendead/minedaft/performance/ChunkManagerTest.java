@@ -0,0 +1,112 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.BlockType;
+import com.screendead.minedaft.world.Chunk;
+import com.screendead.minedaft.world.ChunkStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkManagerTest {
+    private static final int STONE = BlockType.STONE.ordinal(), DIRT = BlockType.DIRT.ordinal();
+    private static final long TICK_NANOS = 50_000_000, TIMEOUT_NANOS = 60_000_000_000L;
+
+    @TempDir
+    Path world;
+
+    private ChunkManager manager;
+
+    @BeforeEach
+    void setup() throws IOException {
+        manager = new ChunkManager(3, new ChunkStorage(world));
+    }
+
+    @AfterEach
+    void teardown() {
+        manager.cleanup();
+    }
+
+    /**
+     * Tick with the camera in the given chunk until everything in range is loaded and meshed
+     */
+    private void settle(int cx, int cz) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        do {
+            manager.update(cx, cz);
+            manager.poll(cx, cz);
+            manager.updateDistant(cx, cz, true);
+            LockSupport.parkNanos(TICK_NANOS);
+            assertTrue(System.nanoTime() < deadline, "chunks never settled");
+        } while (!manager.isSettled());
+    }
+
+    /**
+     * Change a block in the chunk at the origin, and check exactly the sub-chunks showing its
+     * faces are marked dirty, in it and its neighbours. The block is first made stone, then
+     * dirt, so the edit checked changes no light, which would mark other sub-chunks too.
+     */
+    private void assertMarks(int x, int y, int z) {
+        manager.setBlock(x, y, z, STONE);
+        for (int cx = -1; cx <= 1; cx++) {
+            for (int cz = -1; cz <= 1; cz++) manager.getChunk(cx, cz).takeDirty();
+        }
+
+        assertTrue(manager.setBlock(x, y, z, DIRT));
+
+        int s = y >> 4, own = 1 << s;
+        if ((y & 15) == 0 && s > 0) own |= 1 << (s - 1);
+        if ((y & 15) == 15 && s < 15) own |= 1 << (s + 1);
+
+        String at = x + ", " + y + ", " + z;
+        for (int cx = -1; cx <= 1; cx++) {
+            for (int cz = -1; cz <= 1; cz++) {
+                int expected = 0;
+                if (cx == 0 && cz == 0) expected = own;
+                if (cz == 0 && ((cx == -1 && x == 0) || (cx == 1 && x == 15))) expected = 1 << s;
+                if (cx == 0 && ((cz == -1 && z == 0) || (cz == 1 && z == 15))) expected = 1 << s;
+
+                assertEquals(Integer.toBinaryString(expected), Integer.toBinaryString(manager.getChunk(cx, cz).getDirty()),
+                        "chunk " + cx + ", " + cz + " after editing " + at);
+            }
+        }
+    }
+
+    @Test
+    void editsMarkTheSubChunksTheyTouch() {
+        settle(0, 0);
+
+        for (int x : new int[] { 0, 8, 15 }) {
+            for (int z : new int[] { 0, 8, 15 }) {
+                for (int y : new int[] { 0, 15, 16, 128, 255 }) assertMarks(x, y, z);
+            }
+        }
+    }
+
+    @Test
+    void editsBesideAHotChunkRemeshItWhenItComesBack() {
+        settle(0, 0);
+        Chunk c = manager.getChunk(1, 0);
+        assertTrue(c.isMeshed());
+
+        // Moving away leaves it just outside the render distance, in the hot tier with its meshes
+        settle(-2, 0);
+        assertNull(manager.getChunk(1, 0));
+        assertSame(c, manager.getCache().getHot(1, 0));
+        assertTrue(c.isMeshed());
+
+        // Its mesh shows the face of the block beside it, which is no longer right
+        assertTrue(manager.setBlock(15, 100, 8, STONE));
+        assertFalse(c.isMeshed());
+
+        settle(0, 0);
+        assertSame(c, manager.getChunk(1, 0));
+        assertTrue(c.isMeshed());
+    }
+}
@@ -0,0 +1,214 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.BlockRegistry;
+import com.screendead.minedaft.world.BlockType;
+import com.screendead.minedaft.world.Chunk;
+import com.screendead.minedaft.world.Light;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LightEngineTest {
+    private static final int AIR = BlockType.AIR.ordinal(), STONE = BlockType.STONE.ordinal();
+    private static final int GLOWSTONE = BlockRegistry.getId("glowstone");
+
+    // Stone below this height, and air above it
+    private static final int GROUND = 64;
+
+    // The height of the roof over a covered chunk, with a hole in it above (8, 8)
+    private static final int ROOF = 100;
+
+    private final ChunkMap<Chunk> chunks = new ChunkMap<>();
+    private final Set<Chunk> changed = new HashSet<>();
+    private final LightEngine engine = new LightEngine(chunks, changed::add);
+
+    /**
+     * @param roof Whether to cover the chunk with a roof of stone
+     * @param hole Whether to leave a hole in the roof above (8, 8)
+     */
+    private static Chunk chunk(int cx, int cz, boolean roof, boolean hole) {
+        int[] blocks = new int[16 * 4096];
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    boolean covered = roof && y == ROOF && !(hole && x == 8 && z == 8);
+                    blocks[(y << 8) | (x << 4) | z] = (y < GROUND || covered) ? STONE : AIR;
+                }
+            }
+        }
+        return new Chunk(cx, cz, blocks);
+    }
+
+    private void load(Chunk c) {
+        LightEngine.light(c);
+        chunks.put(c.cx, c.cz, c);
+        engine.add(c);
+    }
+
+    private void edit(Chunk c, int x, int y, int z, int id) {
+        c.setBlock(x & 15, y, z & 15, id);
+        engine.update(x, y, z);
+    }
+
+    @Test
+    void skyLightFallsDownAnOpenColumn() {
+        Chunk c = chunk(0, 0, false, false);
+        LightEngine.light(c);
+
+        for (int y = 255; y >= GROUND; y--) assertEquals(Light.MAX, c.getSkyLight(5, y, 9), "y = " + y);
+        for (int y = GROUND - 1; y >= 0; y--) assertEquals(0, c.getSkyLight(5, y, 9), "y = " + y);
+        assertEquals(Light.DAYLIGHT, c.getLight(5, 256, 9));
+    }
+
+    @Test
+    void lightLosesALevelWithEachBlock() {
+        Chunk c = chunk(0, 0, true, true);
+        LightEngine.light(c);
+
+        // Full sky light falls through the hole to the ground, and spreads out from there
+        for (int y = GROUND; y < ROOF; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    int expected = Math.max(0, Light.MAX - Math.abs(x - 8) - Math.abs(z - 8));
+                    assertEquals(expected, c.getSkyLight(x, y, z), x + ", " + y + ", " + z);
+                }
+            }
+        }
+    }
+
+    @Test
+    void placingAnOpaqueBlockDarkensWhatItLit() {
+        Chunk c = chunk(0, 0, true, true);
+        load(c);
+
+        edit(c, 8, ROOF, 8, STONE);
+
+        assertEquals(0, c.getSkyLight(8, ROOF, 8));
+        for (int y = GROUND; y < ROOF; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) assertEquals(0, c.getSkyLight(x, y, z), x + ", " + y + ", " + z);
+            }
+        }
+        assertEquals(Light.MAX, c.getSkyLight(8, ROOF + 1, 8));
+        assertTrue(changed.contains(c));
+        assertNotEquals(0, c.getDirty());
+    }
+
+    @Test
+    void removingTheBlockLetsTheLightBackIn() {
+        Chunk c = chunk(0, 0, true, true), fresh = chunk(0, 0, true, true);
+        load(c);
+        LightEngine.light(fresh);
+
+        edit(c, 8, ROOF, 8, STONE);
+        edit(c, 8, ROOF, 8, AIR);
+
+        // The same as if the hole had never been filled
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) assertEquals(fresh.getSkyLight(x, y, z), c.getSkyLight(x, y, z), x + ", " + y + ", " + z);
+            }
+        }
+    }
+
+    @Test
+    void lightCrossesIntoAChunkAddedBesideIt() {
+        Chunk open = chunk(0, 0, false, false), covered = chunk(1, 0, true, false);
+        load(open);
+
+        LightEngine.light(covered);
+        assertEquals(0, covered.getSkyLight(0, GROUND, 8));
+
+        chunks.put(covered.cx, covered.cz, covered);
+        engine.add(covered);
+
+        // In under the roof from the open chunk's edge, a level less for each block
+        for (int x = 0; x < 16; x++) assertEquals(Math.max(0, Light.MAX - 1 - x), covered.getSkyLight(x, GROUND + 10, 8), "x = " + x);
+        assertTrue(changed.contains(covered));
+    }
+
+    @Test
+    void lightCrossesIntoAChunkAlreadyLoaded() {
+        Chunk open = chunk(0, 0, false, false), covered = chunk(1, 0, true, false);
+        load(covered);
+        load(open);
+
+        for (int x = 0; x < 16; x++) assertEquals(Math.max(0, Light.MAX - 1 - x), covered.getSkyLight(x, GROUND + 10, 8), "x = " + x);
+
+        // The open chunk's light is untouched
+        assertEquals(Light.MAX, open.getSkyLight(15, GROUND, 8));
+    }
+
+    /**
+     * Check the block light around a light source in the open, a level less for each block away
+     * and none in the ground beneath
+     */
+    private static void assertLitAround(Chunk c, int sx, int sy, int sz) {
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    int expected = (y < GROUND) ? 0 : Math.max(0, Light.MAX - Math.abs(x - sx) - Math.abs(y - sy) - Math.abs(z - sz));
+                    assertEquals(expected, c.getBlockLight(x, y, z), x + ", " + y + ", " + z);
+                }
+            }
+        }
+    }
+
+    @Test
+    void glowstoneLightsWhatIsAroundIt() {
+        assertEquals(Light.MAX, BlockRegistry.getEmission(GLOWSTONE));
+
+        Chunk c = chunk(0, 0, false, false);
+        c.setBlock(8, GROUND + 5, 8, GLOWSTONE);
+        LightEngine.light(c);
+
+        // It is opaque, so it shades itself from the sky, but still shines
+        assertLitAround(c, 8, GROUND + 5, 8);
+        assertEquals(0, c.getSkyLight(8, GROUND + 5, 8));
+        assertEquals(Light.MAX, c.getSkyLight(8, GROUND + 6, 8));
+    }
+
+    @Test
+    void placingAndRemovingGlowstoneLightsAndDarkens() {
+        Chunk c = chunk(0, 0, false, false), fresh = chunk(0, 0, false, false);
+        fresh.setBlock(8, GROUND + 5, 8, GLOWSTONE);
+        LightEngine.light(fresh);
+        load(c);
+
+        edit(c, 8, GROUND + 5, 8, GLOWSTONE);
+        assertLitAround(c, 8, GROUND + 5, 8);
+        assertTrue(changed.contains(c));
+
+        edit(c, 8, GROUND + 5, 8, AIR);
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) assertEquals(0, c.getBlockLight(x, y, z), x + ", " + y + ", " + z);
+            }
+        }
+    }
+
+    @Test
+    void blockLightCrossesChunkEdges() {
+        Chunk near = chunk(0, 0, false, false), far = chunk(1, 0, false, false);
+        load(near);
+        load(far);
+
+        // Two blocks from the edge, so the light reaches the next chunk at two levels less
+        edit(near, 14, GROUND + 5, 8, GLOWSTONE);
+        for (int x = 0; x < 16; x++)
+            assertEquals(Math.max(0, Light.MAX - 2 - x), far.getBlockLight(x, GROUND + 5, 8), "x = " + x);
+        assertTrue(changed.contains(far));
+
+        // And from a chunk already lit to one added beside it
+        Chunk added = chunk(-1, 0, false, false);
+        edit(near, 1, GROUND + 5, 8, GLOWSTONE);
+        LightEngine.light(added);
+        chunks.put(added.cx, added.cz, added);
+        engine.add(added);
+        for (int x = 0; x < 16; x++)
+            assertEquals(Math.max(0, Light.MAX - 2 - (15 - x)), added.getBlockLight(x, GROUND + 5, 8), "x = " + x);
+    }
+}
@@ -0,0 +1,78 @@
+package com.screendead.minedaft.performance;
+
+import com.screendead.minedaft.world.BlockType;
+import com.screendead.minedaft.world.Chunk;
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SectionCullerTest {
+    private static final int AIR = BlockType.AIR.ordinal(), STONE = BlockType.STONE.ordinal();
+
+    // The height of the camera and of the tunnel through the wall
+    private static final int EYE = 100;
+
+    private interface Blocks {
+        int get(int x, int y, int z);
+    }
+
+    private static Chunk chunk(int cx, int cz, Blocks blocks) {
+        int[] data = new int[16 * 16 * 256];
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) data[(y << 8) | (x << 4) | z] = blocks.get(x, y, z);
+            }
+        }
+
+        Chunk c = new Chunk(cx, cz, data);
+        for (int s = 0; s < 16; s++) {
+            c.setConnectivity(s, c.computeConnectivity(s));
+            c.setBounds(s, c.computeBounds(s));
+        }
+        return c;
+    }
+
+    /**
+     * Search a row of chunks along +X, from the camera in the first looking down the row.
+     * The second is a solid wall, with a tunnel through at eye level if asked for, and the rest
+     * are open with a block in every section, so each has something to draw.
+     * @return The number of sections found visible beyond the wall
+     */
+    private static int beyondWall(boolean tunnel) {
+        ChunkMap<Chunk> chunks = new ChunkMap<>();
+        SectionCuller culler = new SectionCuller(chunks);
+
+        for (int cx = 0; cx < 5; cx++) {
+            Chunk c = (cx == 1)
+                    ? chunk(cx, 0, (x, y, z) -> (tunnel && y == EYE && z == 8) ? AIR : STONE)
+                    : chunk(cx, 0, (x, y, z) -> ((y & 15) == 0 && x == 15 && z == 15) ? STONE : AIR);
+            chunks.put(cx, 0, c);
+            culler.add(c);
+        }
+
+        Matrix4f frustum = new Matrix4f().setPerspective((float) Math.toRadians(70), 1, 0.1f, 200)
+                .lookAt(8, EYE, 8, 9, EYE, 8, 0, 1, 0);
+        culler.cull(8, EYE, 8, frustum);
+
+        int beyond = 0;
+        boolean wall = false;
+        for (int i = 0; i < culler.getVisibleCount(); i++) {
+            int cx = culler.getVisibleChunk(i).cx;
+            if (cx == 1) wall = true;
+            if (cx > 1) beyond++;
+        }
+        assertTrue(wall, "the wall itself is visible");
+        return beyond;
+    }
+
+    @Test
+    void searchDoesNotCrossASealedWall() {
+        assertEquals(0, beyondWall(false));
+    }
+
+    @Test
+    void searchFollowsATunnelThroughAWall() {
+        assertTrue(beyondWall(true) > 0);
+    }
+}
@@ -0,0 +1,71 @@
+package com.screendead.minedaft.world;
+
+import com.screendead.minedaft.Minedaft;
+import com.screendead.minedaft.graphics.MeshComponent;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockRegistryTest {
+    @Test
+    void namedBlocksMatchTheirIds() {
+        for (BlockType type : BlockType.values()) {
+            assertEquals(type.ordinal(), BlockRegistry.getId(type.name()));
+            assertEquals(type.transparent, BlockRegistry.isTransparent(type.ordinal()));
+        }
+        assertEquals(-1, BlockRegistry.getId("no such block"));
+    }
+
+    @Test
+    void imagesGetTilesOfTheirOwn() throws IOException {
+        int glowstone = BlockRegistry.getId("glowstone");
+        assertTrue(glowstone > 0);
+
+        int image = -1;
+        for (int i = 0; i < BlockRegistry.getImageCount(); i++) {
+            if (BlockRegistry.getImage(i).equals("glowstone")) image = i;
+        }
+        assertTrue(image >= 0, "glowstone is drawn into the atlas");
+
+        int u = BlockRegistry.getImageTileU(image), v = BlockRegistry.getImageTileV(image);
+        for (int face = 0; face < 6; face++) {
+            assertEquals(u, BlockRegistry.getTileU(glowstone, face));
+            assertEquals(v, BlockRegistry.getTileV(glowstone, face));
+        }
+
+        // No other block's face draws from the tile, so the image can't paint over it. Air has no faces.
+        for (int id = 0; id < BlockRegistry.count(); id++) {
+            if (id == glowstone || id == BlockType.AIR.ordinal()) continue;
+
+            for (int face = 0; face < 6; face++) {
+                assertFalse(BlockRegistry.getTileU(id, face) == u && BlockRegistry.getTileV(id, face) == v,
+                        BlockRegistry.getName(id) + " face " + face + " uses the glowstone tile");
+            }
+        }
+
+        // Every image is there to load, and a tile wide
+        for (int i = 0; i < BlockRegistry.getImageCount(); i++) {
+            BufferedImage img = ImageIO.read(new File(Minedaft.getResource("img/block/" + BlockRegistry.getImage(i) + ".png")));
+            assertNotNull(img, BlockRegistry.getImage(i));
+            assertEquals(16, img.getWidth(), BlockRegistry.getImage(i));
+            assertTrue(img.getHeight() >= 16, BlockRegistry.getImage(i));
+        }
+    }
+
+    @Test
+    void singleBlocksAreBuiltWithinTheirSubChunk() {
+        boolean[] faces = { true, true, true, true, true, true };
+
+        MeshComponent m = BlockType.STONE.getMeshComponent(faces, 15, 15, 15);
+        assertEquals(24, m.getVertexCount());
+
+        assertThrows(IllegalArgumentException.class, () -> BlockType.STONE.getMeshComponent(faces, 16, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> BlockType.STONE.getMeshComponent(faces, 0, 100, 0));
+        assertThrows(IllegalArgumentException.class, () -> BlockType.STONE.getMeshComponent(faces, 0, 0, -1));
+    }
+}
@@ -0,0 +1,151 @@
+package com.screendead.minedaft.world;
+
+import com.screendead.minedaft.graphics.MeshComponent;
+import com.screendead.minedaft.graphics.VertexFormat;
+import com.screendead.minedaft.performance.LightEngine;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MesherTest {
+    private static final int[] RANDOM_BLOCKS = {
+            BlockType.AIR.ordinal(), BlockType.STONE.ordinal(), BlockType.DIRT.ordinal(),
+            BlockType.GRASS.ordinal(), BlockType.ICE.ordinal()
+    };
+
+    /**
+     * Every unit block face a mesh covers, with its direction, block texture and light, failing
+     * if any is covered twice
+     */
+    private static Set<String> faces(MeshComponent m) {
+        int[] v = m.getVertices();
+        assertEquals(0, m.getVertexCount() % 4, "meshes are built from quads");
+        assertEquals(m.getVertexCount() / 4 * 6, m.getIndices().length, "two triangles per quad");
+
+        Set<String> faces = new HashSet<>();
+        for (int q = 0; q < m.getVertexCount(); q += 4) {
+            int[] min = { 16, 16, 16 }, max = { 0, 0, 0 };
+            int face = VertexFormat.getFace(v[q * VertexFormat.WORDS]);
+            int texture = v[q * VertexFormat.WORDS + 1];
+
+            for (int j = 0; j < 4; j++) {
+                int geometry = v[(q + j) * VertexFormat.WORDS];
+                assertEquals(face, VertexFormat.getFace(geometry));
+                assertEquals(texture, v[(q + j) * VertexFormat.WORDS + 1]);
+
+                int[] p = { VertexFormat.getX(geometry), VertexFormat.getY(geometry), VertexFormat.getZ(geometry) };
+                for (int a = 0; a < 3; a++) {
+                    min[a] = Math.min(min[a], p[a]);
+                    max[a] = Math.max(max[a], p[a]);
+                }
+            }
+
+            // The quad lies flat across the axis it faces along
+            int normal = (face < 2) ? 2 : (face < 4) ? 0 : 1;
+            assertEquals(min[normal], max[normal]);
+            max[normal]++;
+
+            for (int x = min[0]; x < max[0]; x++) {
+                for (int y = min[1]; y < max[1]; y++) {
+                    for (int z = min[2]; z < max[2]; z++) {
+                        String key = face + " " + x + " " + y + " " + z + " tile " + VertexFormat.getTileU(texture)
+                                + " " + VertexFormat.getTileV(texture) + " light " + VertexFormat.getLight(texture);
+                        assertTrue(faces.add(key), "covered twice: " + key);
+                    }
+                }
+            }
+        }
+        return faces;
+    }
+
+    private static void assertSameFaces(ChunkNeighbourhood neighbours, String what) {
+        for (int s = 0; s < 16; s++) {
+            Set<String> naive = faces(Mesher.NAIVE.mesh(neighbours, s)), greedy = faces(Mesher.GREEDY.mesh(neighbours, s));
+            assertEquals(naive, greedy, what + ", sub-chunk " + s);
+        }
+    }
+
+    private static ChunkNeighbourhood around(int cx, int cz, ChunkSource source) {
+        return ChunkNeighbourhood.of(source.get(cx, cz), source.get(cx + 1, cz), source.get(cx - 1, cz),
+                source.get(cx, cz + 1), source.get(cx, cz - 1));
+    }
+
+    private interface ChunkSource {
+        Chunk get(int cx, int cz);
+    }
+
+    private static Chunk lit(Chunk c) {
+        LightEngine.light(c);
+        return c;
+    }
+
+    @Test
+    void greedyCoversTheSameFacesAsNaiveOnGeneratedTerrain() {
+        for (int[] at : new int[][] { { 0, 0 }, { 5, -3 }, { -12, 7 }, { 40, 40 } }) {
+            assertSameFaces(around(at[0], at[1], (cx, cz) -> lit(Chunk.generate(cx, cz))), "chunk " + at[0] + ", " + at[1]);
+        }
+    }
+
+    @Test
+    void greedyCoversTheSameFacesAsNaiveOnRandomBlocks() {
+        Random random = new Random(4);
+
+        // From sparse to dense, so there are both isolated blocks and large runs to merge
+        for (double density : new double[] { 0.05, 0.3, 0.7, 0.97 }) {
+            ChunkSource source = (cx, cz) -> {
+                int[] blocks = new int[16 * BlockStorage.SIZE];
+                for (int i = 0; i < blocks.length; i++) {
+                    blocks[i] = (random.nextDouble() < density)
+                            ? RANDOM_BLOCKS[1 + random.nextInt(RANDOM_BLOCKS.length - 1)] : RANDOM_BLOCKS[0];
+                }
+                return lit(new Chunk(cx, cz, blocks));
+            };
+
+            assertSameFaces(around(0, 0, source), "density " + density);
+        }
+    }
+
+    @Test
+    void greedyMergesFaces() {
+        ChunkNeighbourhood neighbours = around(0, 0, (cx, cz) -> lit(Chunk.generate(cx, cz)));
+
+        int naive = 0, greedy = 0;
+        for (int s = 0; s < 16; s++) {
+            naive += Mesher.NAIVE.mesh(neighbours, s).getVertexCount();
+            greedy += Mesher.GREEDY.mesh(neighbours, s).getVertexCount();
+        }
+        assertTrue(greedy < naive / 2, greedy + " greedy vertices against " + naive + " naive");
+    }
+
+    @Test
+    void snapshotsOfSomeSubChunksMeshThemAsWholeOnesDo() {
+        ChunkSource source = (cx, cz) -> lit(Chunk.generate(cx, cz));
+        Chunk c = source.get(0, 0), posX = source.get(1, 0), negX = source.get(-1, 0), posZ = source.get(0, 1), negZ = source.get(0, -1);
+        ChunkNeighbourhood whole = ChunkNeighbourhood.of(c, posX, negX, posZ, negZ);
+
+        for (int s = 0; s < 16; s++) {
+            // Leave the slices of somewhere else to be reused, so anything not refilled would show
+            around(40, 40, source).release();
+
+            ChunkNeighbourhood some = ChunkNeighbourhood.of(c, posX, negX, posZ, negZ, 1 << s);
+            for (int y = s << 4; y < (s + 1) << 4; y++) {
+                for (int t = 0; t < 16; t++) {
+                    assertEquals(posX.getBlock(0, y, t), some.getBlock(16, y, t));
+                    assertEquals(negX.getBlock(15, y, t), some.getBlock(-1, y, t));
+                    assertEquals(posZ.getBlock(t, y, 0), some.getBlock(t, y, 16));
+                    assertEquals(negZ.getBlock(t, y, 15), some.getBlock(t, y, -1));
+                    assertEquals(posX.getLight(0, y, t), some.getLight(16, y, t));
+                    assertEquals(negZ.getLight(t, y, 15), some.getLight(t, y, -1));
+                }
+            }
+
+            assertEquals(whole.isHidden(s), some.isHidden(s), "sub-chunk " + s);
+            assertEquals(faces(Mesher.NAIVE.mesh(whole, s)), faces(Mesher.NAIVE.mesh(some, s)), "sub-chunk " + s);
+            some.release();
+        }
+    }
+}
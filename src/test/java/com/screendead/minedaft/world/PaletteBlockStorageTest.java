@@ -0,0 +1,119 @@
+package com.screendead.minedaft.world;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaletteBlockStorageTest {
+    private static final int SIZE = BlockStorage.SIZE;
+    private static final long FLAT = new ArrayBlockStorage().getMemoryUsage();
+
+    private static void assertSame(BlockStorage expected, BlockStorage actual) {
+        for (int i = 0; i < SIZE; i++) assertEquals(expected.get(i), actual.get(i), "index " + i);
+    }
+
+    /**
+     * Write random blocks drawn from the given number of IDs through both storages
+     */
+    private static void scatter(Random random, BlockStorage a, BlockStorage b, int ids, int writes) {
+        for (int n = 0; n < writes; n++) {
+            int i = random.nextInt(SIZE), id = 1 + random.nextInt(ids);
+            a.set(i, id);
+            b.set(i, id);
+        }
+    }
+
+    @Test
+    void growsThroughEveryWidthMatchingAFlatArray() {
+        Random random = new Random(1);
+        PaletteBlockStorage palette = new PaletteBlockStorage(0);
+        ArrayBlockStorage flat = new ArrayBlockStorage();
+        assertEquals(0, palette.getBits());
+
+        // Enough distinct IDs for each width, written everywhere so every one is used
+        int[][] steps = { { 2, 1 }, { 4, 2 }, { 16, 4 }, { 256, 8 }, { 1000, 16 } };
+        for (int[] step : steps) {
+            for (int id = 1; id < step[0]; id++) {
+                palette.set(id, id);
+                flat.set(id, id);
+            }
+            scatter(random, palette, flat, step[0] - 1, SIZE);
+
+            assertEquals(step[1], palette.getBits(), step[0] + " IDs");
+            assertSame(flat, palette);
+        }
+    }
+
+    @Test
+    void packsRandomSectionsLikeAFlatArray() {
+        Random random = new Random(2);
+        for (int ids : new int[] { 1, 2, 3, 4, 9, 16, 17, 200, 300 }) {
+            int[] blocks = new int[SIZE + 7];
+            for (int i = 0; i < blocks.length; i++) blocks[i] = random.nextInt(ids);
+
+            int[] section = new int[SIZE];
+            System.arraycopy(blocks, 7, section, 0, SIZE);
+            assertSame(new ArrayBlockStorage(section), PaletteBlockStorage.of(blocks, 7));
+        }
+    }
+
+    @Test
+    void compactsToFewerBitsWithoutChangingBlocks() {
+        Random random = new Random(3);
+        PaletteBlockStorage palette = new PaletteBlockStorage(0);
+        ArrayBlockStorage flat = new ArrayBlockStorage();
+        scatter(random, palette, flat, 100, 4 * SIZE);
+        assertEquals(8, palette.getBits());
+
+        // Down to two IDs, which need one bit
+        for (int i = 0; i < SIZE; i++) {
+            palette.set(i, 1 + (i & 1));
+            flat.set(i, 1 + (i & 1));
+        }
+        palette.compact();
+        assertEquals(1, palette.getBits());
+        assertSame(flat, palette);
+
+        // Then one, which needs none
+        for (int i = 0; i < SIZE; i++) palette.set(i, 5);
+        palette.compact();
+        assertTrue(palette.isUniform());
+        assertEquals(5, palette.get(1234));
+
+        // And it can grow again afterwards
+        palette.set(7, 6);
+        assertEquals(6, palette.get(7));
+        assertEquals(5, palette.get(8));
+    }
+
+    @Test
+    void copiesAreIndependent() {
+        PaletteBlockStorage palette = PaletteBlockStorage.of(new int[SIZE], 0);
+        BlockStorage copy = palette.copy();
+        palette.set(10, 3);
+
+        assertEquals(3, palette.get(10));
+        assertEquals(0, copy.get(10));
+    }
+
+    @Test
+    void usesLessMemoryThanAFlatArray() {
+        PaletteBlockStorage uniform = new PaletteBlockStorage(BlockType.AIR.ordinal());
+        assertTrue(uniform.getMemoryUsage() < 100, "uniform section uses " + uniform.getMemoryUsage());
+
+        // Stone with a few ores: one bit per block, and a small palette
+        int[] blocks = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) blocks[i] = (i % 97 == 0) ? 2 : 1;
+        PaletteBlockStorage mixed = PaletteBlockStorage.of(blocks, 0);
+        assertEquals(1, mixed.getBits());
+        assertTrue(mixed.getMemoryUsage() < FLAT / 20, "mixed section uses " + mixed.getMemoryUsage());
+
+        // Even the widest palette beats one int per block
+        PaletteBlockStorage wide = new PaletteBlockStorage(0);
+        for (int i = 0; i < SIZE; i++) wide.set(i, i % 1000);
+        assertEquals(16, wide.getBits());
+        assertTrue(wide.getMemoryUsage() < FLAT, "wide section uses " + wide.getMemoryUsage());
+    }
+}
@@ -0,0 +1,234 @@
+package com.screendead.minedaft.world;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegionFileTest {
+    @TempDir
+    Path directory;
+
+    private static ByteBuffer serialize(BlockStorage section) {
+        PaletteBlockStorage palette = (PaletteBlockStorage) section;
+        ByteBuffer out = ByteBuffer.allocate(palette.serializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        palette.serialize(out);
+        return out.flip();
+    }
+
+    /**
+     * Check two chunks hold the same blocks, column heights and, section by section, the same
+     * palette and packed data
+     */
+    private static void assertSameChunk(Chunk expected, Chunk actual) {
+        assertArrayEquals(expected.maxHeight, actual.maxHeight);
+        for (int s = 0; s < 16; s++) {
+            if (expected.sections[s] instanceof PaletteBlockStorage)
+                assertEquals(serialize(expected.sections[s]), serialize(actual.sections[s]), "section " + s);
+
+            for (int i = 0; i < BlockStorage.SIZE; i++) assertEquals(expected.sections[s].get(i), actual.sections[s].get(i), "section " + s);
+        }
+    }
+
+    private static Chunk decode(RegionFile region, int x, int z) throws IOException {
+        return region.read(x, z, data -> ChunkCodec.decode(x, z, data));
+    }
+
+    @Test
+    void chunksRoundTripThroughARegionFile() throws IOException {
+        Path path = directory.resolve("r.0.0.region");
+        Chunk[] chunks = new Chunk[9];
+
+        try (RegionFile region = new RegionFile(path)) {
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = Chunk.generate(i % 3, i / 3);
+                ByteBuffer data = ChunkCodec.encode(chunks[i]);
+                region.write(i % 3, i / 3, data);
+                MemoryUtil.memFree(data);
+            }
+
+            // An edited chunk, with a section stored as a flat array
+            chunks[4].setBlock(3, 200, 7, BlockType.TNT.ordinal());
+            chunks[4].sections[2] = new ArrayBlockStorage();
+            chunks[4].sections[2].set(100, BlockType.ICE.ordinal());
+            ByteBuffer data = ChunkCodec.encode(chunks[4]);
+            region.write(1, 1, data);
+            MemoryUtil.memFree(data);
+        }
+
+        try (RegionFile region = new RegionFile(path)) {
+            for (int i = 0; i < chunks.length; i++) {
+                assertTrue(region.contains(i % 3, i / 3));
+                Chunk c = decode(region, i % 3, i / 3);
+                if (i != 4) assertSameChunk(chunks[i], c);
+            }
+
+            Chunk edited = decode(region, 1, 1);
+            assertEquals(BlockType.TNT.ordinal(), edited.getBlock(3, 200, 7));
+            assertEquals(BlockType.ICE.ordinal(), edited.sections[2].get(100));
+            for (int i = 0; i < BlockStorage.SIZE; i++) {
+                if (i != 100) assertEquals(0, edited.sections[2].get(i));
+            }
+
+            assertFalse(region.contains(31, 31));
+            assertNull(decode(region, 31, 31));
+        }
+    }
+
+    @Test
+    void rewritesReuseFreedSpace() throws IOException {
+        Path path = directory.resolve("r.0.0.region");
+        ByteBuffer small = ByteBuffer.allocateDirect(1000), large = ByteBuffer.allocateDirect(3000);
+
+        try (RegionFile region = new RegionFile(path)) {
+            region.write(0, 0, large);
+            region.write(1, 0, small);
+            long end = region.getEnd();
+
+            // Each copy replaced is freed by the next write, so the file only ever needs room for two
+            for (int i = 0; i < 1000; i++) {
+                region.write(0, 0, (i % 2 == 0) ? small : large);
+                region.write(1, 0, (i % 3 == 0) ? large : small);
+            }
+            assertTrue(region.getEnd() <= end + 2 * 3000L, "region grew to " + region.getEnd());
+            assertTrue(Files.size(path) <= end + 2 * 3000L, "file grew to " + Files.size(path));
+        }
+    }
+
+    private static ByteBuffer filled(int length, int value) {
+        ByteBuffer data = ByteBuffer.allocateDirect(length);
+        for (int i = 0; i < length; i++) data.put(i, (byte) (value + i));
+        return data;
+    }
+
+    @Test
+    void reusingAGapKeepsEveryOtherChunkIntact() throws IOException {
+        // Chunks of different sizes, with those at odd positions rewritten elsewhere to leave gaps
+        int[] lengths = { 400, 100, 400, 300, 400, 600, 400 };
+        ByteBuffer[] saved = new ByteBuffer[lengths.length + 1];
+
+        try (RegionFile region = new RegionFile(directory.resolve("r.0.0.region"))) {
+            for (int i = 0; i < lengths.length; i++) region.write(i, 0, saved[i] = filled(lengths[i], i));
+            for (int i = 1; i < lengths.length; i += 2) region.write(i, 0, saved[i] = filled(10, 100 + i));
+
+            // First fits the middle gap, leaving part of it free
+            region.write(lengths.length, 0, saved[lengths.length] = filled(250, 50));
+
+            // Then fill whatever gaps are left, as a wrong size for any would write over a chunk
+            for (int i = 0; i < 20; i++) region.write(10 + i, 0, saved[0].duplicate().limit(10 + i * 3));
+
+            for (int i = 0; i < saved.length; i++) {
+                ByteBuffer expected = saved[i];
+                assertEquals(expected, region.read(i, 0, data -> ByteBuffer.allocate(data.remaining()).put(data).flip()), "chunk " + i);
+            }
+            for (int i = 0; i < 20; i++) {
+                ByteBuffer expected = saved[0].duplicate().limit(10 + i * 3);
+                assertEquals(expected, region.read(10 + i, 0, data -> ByteBuffer.allocate(data.remaining()).put(data).flip()), "chunk " + (10 + i));
+            }
+        }
+    }
+
+    @Test
+    void aFullRegionFileRefusesChunksWithoutLosingSpace() throws IOException {
+        // A header whose one chunk fills the file to just short of the most that can be mapped
+        Path path = directory.resolve("r.0.0.region");
+        ByteBuffer header = ByteBuffer.allocate(RegionFile.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, RegionFile.HEADER_BYTES).putInt(4, Integer.MAX_VALUE - RegionFile.HEADER_BYTES - 50);
+        Files.write(path, header.array());
+
+        try (RegionFile region = new RegionFile(path)) {
+            long end = region.getEnd();
+            assertEquals(Integer.MAX_VALUE - 50, end);
+
+            for (int i = 0; i < 3; i++) {
+                assertThrows(IOException.class, () -> region.write(1, 0, ByteBuffer.allocateDirect(100)));
+                assertEquals(end, region.getEnd());
+                assertEquals(0, region.getFreeBytes());
+            }
+            assertFalse(region.contains(1, 0));
+
+            // What does fit still goes on the end
+            region.write(1, 0, ByteBuffer.allocateDirect(40));
+            assertEquals(end + 40, region.getEnd());
+        }
+    }
+
+    @Test
+    void freeSpaceIsFoundAgainWhenReopened() throws IOException {
+        Path path = directory.resolve("r.0.0.region");
+        try (RegionFile region = new RegionFile(path)) {
+            region.write(0, 0, ByteBuffer.allocateDirect(4000));
+            region.write(1, 0, ByteBuffer.allocateDirect(500));
+            region.write(0, 0, ByteBuffer.allocateDirect(100));
+        }
+
+        try (RegionFile region = new RegionFile(path)) {
+            long end = region.getEnd();
+            assertEquals(4000, region.getFreeBytes());
+
+            // Fits in the gap the first copy left
+            region.write(2, 0, ByteBuffer.allocateDirect(3000));
+            assertEquals(end, region.getEnd());
+            assertEquals(1000, region.getFreeBytes());
+        }
+    }
+
+    @Test
+    void spaceBeingReadIsNotReused() throws IOException {
+        ByteBuffer first = ByteBuffer.allocateDirect(2000);
+        for (int i = 0; i < first.capacity(); i++) first.put(i, (byte) 1);
+        ByteBuffer second = ByteBuffer.allocateDirect(2000);
+
+        try (RegionFile region = new RegionFile(directory.resolve("r.0.0.region"))) {
+            region.write(0, 0, first);
+
+            Boolean unchanged = region.read(0, 0, data -> {
+                try {
+                    // Replaced, then written over by as much as could have reused its space
+                    region.write(0, 0, second);
+                    region.write(1, 0, second);
+                    region.write(2, 0, second);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+
+                for (int i = 0; i < data.remaining(); i++) {
+                    if (data.get(i) != 1) return false;
+                }
+                return true;
+            });
+            assertTrue(unchanged);
+
+            // Once the read is over, the space can be reused
+            long end = region.getEnd();
+            region.write(1, 0, second);
+            assertEquals(end, region.getEnd());
+        }
+    }
+
+    @Test
+    void failedSavesAreReportedAndKept() throws IOException, InterruptedException {
+        // The region file can't be opened where a directory is in the way
+        Files.createDirectories(directory.resolve("r.0.0.region"));
+        Chunk c = Chunk.generate(1, 2);
+
+        ChunkStorage storage = new ChunkStorage(directory);
+        storage.save(c);
+        for (int i = 0; i < 500 && storage.getFailures() == 0; i++) Thread.sleep(10);
+        assertEquals(1, storage.getFailures());
+
+        // The chunk still loads as it was saved
+        assertSameChunk(c, storage.load(1, 2));
+
+        IOException e = assertThrows(IOException.class, storage::close);
+        assertTrue(e.getMessage().contains("1 chunks"), e.getMessage());
+        assertEquals(2, storage.getFailures());
+    }
+}
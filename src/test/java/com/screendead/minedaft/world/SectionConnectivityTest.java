@@ -0,0 +1,95 @@
+package com.screendead.minedaft.world;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SectionConnectivityTest {
+    private static final int AIR = BlockType.AIR.ordinal(), STONE = BlockType.STONE.ordinal();
+
+    // Face directions in the order +Z, -Z, +X, -X, +Y, -Y
+    private static final int PZ = 0, NZ = 1, PX = 2, NX = 3, PY = 4, NY = 5;
+
+    private static int index(int x, int y, int z) {
+        return (y << 8) | (x << 4) | z;
+    }
+
+    private static ArrayBlockStorage filled(int id) {
+        int[] blocks = new int[BlockStorage.SIZE];
+        Arrays.fill(blocks, id);
+        return new ArrayBlockStorage(blocks);
+    }
+
+    /**
+     * The graph in which the given faces all connect to one another, and to nothing else
+     */
+    private static long joining(int... faces) {
+        long graph = SectionConnectivity.NONE;
+        for (int a : faces) {
+            for (int b : faces) graph |= 1L << (a * 6 + b);
+        }
+        return graph;
+    }
+
+    @Test
+    void solidSectionsConnectNothing() {
+        assertEquals(SectionConnectivity.NONE, SectionConnectivity.compute(filled(STONE)));
+        assertEquals(SectionConnectivity.NONE, SectionConnectivity.compute(new PaletteBlockStorage(STONE)));
+    }
+
+    @Test
+    void emptySectionsConnectEverything() {
+        assertEquals(SectionConnectivity.ALL, SectionConnectivity.compute(filled(AIR)));
+        assertEquals(SectionConnectivity.ALL, SectionConnectivity.compute(new PaletteBlockStorage(AIR)));
+
+        for (int a = 0; a < 6; a++) {
+            for (int b = 0; b < 6; b++) assertTrue(SectionConnectivity.connects(SectionConnectivity.ALL, a, b));
+        }
+    }
+
+    @Test
+    void aTunnelJoinsTheFacesAtItsEnds() {
+        ArrayBlockStorage section = filled(STONE);
+        for (int x = 0; x < 16; x++) section.set(index(x, 8, 8), AIR);
+
+        long graph = SectionConnectivity.compute(section);
+        assertEquals(joining(PX, NX), graph);
+        assertTrue(SectionConnectivity.connects(graph, PX, NX));
+        assertTrue(SectionConnectivity.connects(graph, NX, PX));
+        assertFalse(SectionConnectivity.connects(graph, PX, PY));
+        assertFalse(SectionConnectivity.connects(graph, PZ, NZ));
+    }
+
+    @Test
+    void aBentTunnelJoinsTheFacesItTurnsBetween() {
+        ArrayBlockStorage section = filled(STONE);
+        for (int z = 0; z <= 5; z++) section.set(index(3, 5, z), AIR);
+        for (int y = 5; y < 16; y++) section.set(index(3, y, 5), AIR);
+
+        assertEquals(joining(NZ, PY), SectionConnectivity.compute(section));
+    }
+
+    @Test
+    void separateTunnelsDoNotJoinEachOther() {
+        ArrayBlockStorage section = filled(STONE);
+        for (int x = 0; x < 16; x++) section.set(index(x, 2, 8), AIR);
+        for (int z = 0; z < 16; z++) section.set(index(8, 12, z), AIR);
+        for (int y = 0; y < 16; y++) section.set(index(0, y, 0), AIR);
+
+        assertEquals(joining(PX, NX) | joining(PZ, NZ) | joining(NX, NZ, PY, NY), SectionConnectivity.compute(section));
+    }
+
+    @Test
+    void pocketsTouchingNoFaceConnectNothing() {
+        ArrayBlockStorage section = filled(STONE);
+        for (int x = 4; x < 12; x++) {
+            for (int y = 4; y < 12; y++) {
+                for (int z = 4; z < 12; z++) section.set(index(x, y, z), AIR);
+            }
+        }
+
+        assertEquals(SectionConnectivity.NONE, SectionConnectivity.compute(section));
+    }
+}